@@ -53,7 +53,18 @@ public class JavaScriptAnalysis extends Analysis {
 
     public static JavaScriptAnalysis InitializeJavaScriptAnalysis(ClassifiedASTNode root) {
 	JavaScriptCFGFactory cfgFactory = new JavaScriptCFGFactory();
-	CfgMap cfgMap = cfgFactory.createCFGs(root);
+	return InitializeJavaScriptAnalysis(root, cfgFactory.createCFGs(root));
+    }
+
+    /**
+     * Initializes the analysis with CFGs which were already built (e.g., by the
+     * diff, see {@code DiffContext}), instead of building them again.
+     *
+     * @param cfgMap
+     *            The CFGs of the script and its functions.
+     */
+    public static JavaScriptAnalysis InitializeJavaScriptAnalysis(ClassifiedASTNode root,
+	    CfgMap cfgMap) {
 	AnalysisState initialState = JavaScriptAnalysisState.initializeScriptState(root, cfgMap,
 		getUserStates(root, cfgMap));
 	CFG entryPoint = cfgMap.getCfgFor(root);
@@ -43,6 +43,7 @@ import com.github.gumtreediff.gen.js.RhinoTreeGenerator;
 import ca.ubc.ece.salt.gumtree.ast.ClassifiedASTNode;
 import ca.ubc.ece.salt.gumtree.ast.ClassifiedASTNode.ChangeType;
 import multidiff.analysis.flow.Analysis;
+import multidiffplus.analysis.Budget;
 import multidiffplus.cfg.AnalysisState;
 import multidiffplus.cfg.CFG;
 import multidiffplus.cfg.CFGEdge;
@@ -129,6 +130,7 @@ public class JavaScriptCFGFactory implements ICFGFactory {
 
 	    /* For each function, generate its CFG. */
 	    while (!unbuilt.isEmpty()) {
+		Budget.check();
 		FunctionNode nextFunction = unbuilt.remove();
 		cfgMap.addCfg(nextFunction, buildScriptCFG(nextFunction, idgen));
 	    }
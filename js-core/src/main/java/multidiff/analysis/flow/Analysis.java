@@ -1,6 +1,7 @@
 package multidiff.analysis.flow;
 
 import ca.ubc.ece.salt.gumtree.ast.ClassifiedASTNode;
+import multidiffplus.analysis.Budget;
 import multidiffplus.cfg.AnalysisState;
 import multidiffplus.cfg.CFG;
 import multidiffplus.cfg.CfgMap;
@@ -30,10 +31,12 @@ public abstract class Analysis {
     }
 
     /**
-     * Runs an analysis.
+     * Runs an analysis. The analysis stops with a {@code BudgetExceededException}
+     * if the current thread's budget runs out.
      */
     public void run() {
 	while (!callStack.isEmpty()) {
+	    Budget.check();
 	    StackFrame stackFrame = callStack.peek();
 	    if (stackFrame.hasInstruction()) {
 		stackFrame.peekInstruction().transfer(callStack);
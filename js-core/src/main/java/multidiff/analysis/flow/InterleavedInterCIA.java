@@ -2,7 +2,7 @@ package multidiff.analysis.flow;
 
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.diff.DiffContext;
-import multidiffplus.facts.AnnotationFactBase;
+import multidiffplus.facts.FactContext;
 
 /**
  * An analysis which performs interleaved, inter-procedural change impact
@@ -11,12 +11,14 @@ import multidiffplus.facts.AnnotationFactBase;
 public class InterleavedInterCIA {
 
     SourceCodeFileChange sourceCodeFileChange;
+    FactContext facts;
     DiffContext diffContext;
     Analysis dstAnalysis;
 
-    public InterleavedInterCIA(SourceCodeFileChange sourceCodeFileChange, DiffContext diffContext,
-	    Analysis dstAnalysis) {
+    public InterleavedInterCIA(SourceCodeFileChange sourceCodeFileChange, FactContext facts,
+	    DiffContext diffContext, Analysis dstAnalysis) {
 	this.sourceCodeFileChange = sourceCodeFileChange;
+	this.facts = facts;
 	this.diffContext = diffContext;
 	this.dstAnalysis = dstAnalysis;
     }
@@ -35,7 +37,7 @@ public class InterleavedInterCIA {
 
 	/* Create criterion/dependency annotations for GUI output. */
 	dstAnalysis.registerAnnotations(diffContext.dstScript,
-		AnnotationFactBase.getInstance(sourceCodeFileChange));
+		facts.getAnnotationFactBase(sourceCodeFileChange));
 
     }
 
@@ -0,0 +1,70 @@
+package multidiffplus.analysis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+
+import multidiffplus.facts.Annotation;
+
+/**
+ * The facts produced by a {@code DomainAnalysis} for one source code file
+ * change. Stored by the {@code AnalysisResultCache} so that a file pair which
+ * has already been analyzed does not need to be analyzed again.
+ */
+public class AnalysisResult {
+
+	/** The annotations on the destination file. **/
+	private List<Annotation> annotations;
+
+	/** The JSON fact for the destination file (may be null). **/
+	private JsonObject json;
+
+	/** The tier of the tree matcher which diffed the file (may be null). **/
+	private String matcher;
+
+	/**
+	 * @param annotations The annotations on the destination file.
+	 * @param json The JSON fact for the destination file (may be null).
+	 */
+	public AnalysisResult(Collection<Annotation> annotations, JsonObject json) {
+		this(annotations, json, null);
+	}
+
+	/**
+	 * @param annotations The annotations on the destination file.
+	 * @param json The JSON fact for the destination file (may be null).
+	 * @param matcher The tier of the tree matcher which diffed the file (may
+	 * 	be null).
+	 */
+	public AnalysisResult(Collection<Annotation> annotations, JsonObject json, String matcher) {
+		this.annotations = new ArrayList<Annotation>(annotations);
+		this.json = json;
+		this.matcher = matcher;
+	}
+
+	/**
+	 * @return The annotations on the destination file.
+	 */
+	public List<Annotation> getAnnotations() {
+		return annotations;
+	}
+
+	/**
+	 * @return The JSON fact for the destination file, or {@code null} if there
+	 * 	is none.
+	 */
+	public JsonObject getJson() {
+		return json;
+	}
+
+	/**
+	 * @return The tier of the tree matcher which diffed the file, or
+	 * 	{@code null} if it is unknown.
+	 */
+	public String getMatcher() {
+		return matcher;
+	}
+
+}
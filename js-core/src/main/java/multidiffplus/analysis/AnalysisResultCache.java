@@ -0,0 +1,133 @@
+package multidiffplus.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+
+import multidiffplus.commit.SourceCodeFileChange;
+
+/**
+ * An on-disk cache of analysis results, keyed by the contents of the file pair
+ * (the git blob ids of the old and new files) and the analysis which produced
+ * the results. The same file pair is often analyzed many times (e.g., in forks,
+ * cherry-picks and reruns), so a cached result lets us skip the diff and the
+ * flow analysis entirely.
+ *
+ * The cache is disabled unless it is created with {@code createInstance}.
+ * Entries are written atomically, so the cache may be shared by threads and by
+ * processes.
+ */
+public class AnalysisResultCache {
+
+	private static AnalysisResultCache instance;
+
+	/** The directory containing the cache entries. **/
+	private File directory;
+
+	private Gson gson;
+
+	private AnalysisResultCache(File directory) {
+		this.directory = directory;
+		this.gson = new GsonBuilder().serializeNulls().create();
+	}
+
+	/**
+	 * @param sourceCodeFileChange The file pair which was analyzed.
+	 * @param analysisID Identifies the analysis and its version.
+	 * @return The cached result, or {@code null} if the file pair has not been
+	 * 	analyzed by the analysis.
+	 */
+	public AnalysisResult get(SourceCodeFileChange sourceCodeFileChange, String analysisID) {
+
+		File entry = getEntry(sourceCodeFileChange, analysisID);
+		if(!entry.exists()) return null;
+
+		try(Reader reader = Files.newBufferedReader(entry.toPath(), StandardCharsets.UTF_8)) {
+			return gson.fromJson(reader, AnalysisResult.class);
+		}
+		catch(IOException | JsonParseException e) {
+			System.err.println("Ignoring corrupt cache entry " + entry + ": " + e.getMessage());
+			entry.delete();
+			return null;
+		}
+
+	}
+
+	/**
+	 * Stores the result of analyzing a file pair.
+	 * @param sourceCodeFileChange The file pair which was analyzed.
+	 * @param analysisID Identifies the analysis and its version.
+	 * @param result The facts produced by the analysis.
+	 */
+	public void put(SourceCodeFileChange sourceCodeFileChange, String analysisID,
+					AnalysisResult result) {
+
+		File entry = getEntry(sourceCodeFileChange, analysisID);
+
+		try {
+			entry.getParentFile().mkdirs();
+
+			/* Write to a temporary file first so readers never see a partial entry. */
+			File tmp = File.createTempFile(entry.getName(), ".tmp", entry.getParentFile());
+			try(Writer writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+				gson.toJson(result, writer);
+			}
+
+			try {
+				Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch(IOException e) {
+			System.err.println("Could not write cache entry " + entry + ": " + e.getMessage());
+		}
+
+	}
+
+	/**
+	 * @return The file which stores the entry. Entries are sharded into
+	 * 	sub-directories by the first two characters of the key.
+	 */
+	private File getEntry(SourceCodeFileChange sourceCodeFileChange, String analysisID) {
+		MessageDigest digest = Constants.newMessageDigest();
+		digest.update((sourceCodeFileChange.getBuggyBlobID() + "\n"
+				+ sourceCodeFileChange.getRepairedBlobID() + "\n"
+				+ analysisID).getBytes(StandardCharsets.UTF_8));
+		String key = ObjectId.fromRaw(digest.digest()).name();
+		return new File(new File(directory, key.substring(0, 2)), key.substring(2) + ".json");
+	}
+
+	/**
+	 * @return the singleton {@code AnalysisResultCache}, or {@code null} if
+	 * 	caching is disabled.
+	 */
+	public static AnalysisResultCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Enables caching.
+	 * @param directory The directory to store the cache in.
+	 * @return the singleton {@code AnalysisResultCache}.
+	 */
+	public static synchronized AnalysisResultCache createInstance(File directory) {
+		if(instance == null) instance = new AnalysisResultCache(directory);
+		return instance;
+	}
+
+}
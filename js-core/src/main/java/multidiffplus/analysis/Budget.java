@@ -0,0 +1,185 @@
+package multidiffplus.analysis;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A time and step budget for analyzing a file, a commit or a project.
+ *
+ * Budgets are checked cooperatively: long running loops (e.g., the flow
+ * analysis, differencing and CFG construction) call {@code Budget.check()},
+ * which throws a {@code BudgetExceededException} once the budget of the
+ * current thread, or the budget of any enclosing level, is used up. The caller
+ * which entered the exceeded budget catches the exception and abandons its
+ * work.
+ *
+ * The limits for each level are configured globally with {@code setLimits}.
+ * By default only the project has a (ten minute) time limit.
+ */
+public class Budget {
+
+	/** Indicates there is no limit. **/
+	public static final long NO_LIMIT = -1;
+
+	/** The limits of each level (milliseconds, steps). **/
+	private static volatile long[][] limits = {
+			{ NO_LIMIT, NO_LIMIT },		// FILE
+			{ NO_LIMIT, NO_LIMIT },		// COMMIT
+			{ 600000, NO_LIMIT }		// PROJECT
+	};
+
+	/** The innermost budget the current thread is running under. **/
+	private static final ThreadLocal<Budget> current = new ThreadLocal<Budget>();
+
+	/** What the budget is for. **/
+	private Level level;
+
+	/** The enclosing budget (may be null). **/
+	private Budget parent;
+
+	/** When the budget runs out (in {@code System.nanoTime()} units). **/
+	private long deadline;
+
+	/** The maximum number of steps. **/
+	private long maxSteps;
+
+	/** The number of steps taken (may be shared by threads). **/
+	private AtomicLong steps;
+
+	/** Set when the budget is exceeded or cancelled. **/
+	private volatile String exceeded;
+
+	private Budget(Level level, Budget parent, long timeLimit, long stepLimit) {
+		this.level = level;
+		this.parent = parent;
+		this.deadline = timeLimit == NO_LIMIT ? Long.MAX_VALUE : System.nanoTime() + timeLimit * 1000000;
+		this.maxSteps = stepLimit;
+		this.steps = new AtomicLong(0);
+		this.exceeded = null;
+	}
+
+	/**
+	 * @return What the budget is for.
+	 */
+	public Level getLevel() {
+		return level;
+	}
+
+	/**
+	 * Makes this the budget of the current thread until the returned scope is
+	 * closed. Budgets for the project level may be entered by several threads.
+	 */
+	public Entered enter() {
+		Budget previous = current.get();
+		current.set(this);
+		return () -> current.set(previous);
+	}
+
+	/**
+	 * Stops any analysis running under this budget at its next check.
+	 */
+	public void cancel() {
+		exceeded = level + " budget cancelled";
+	}
+
+	/**
+	 * @return {@code true} if the budget, or the budget of an enclosing level,
+	 * 	has run out.
+	 */
+	public boolean isExceeded() {
+		for(Budget budget = this; budget != null; budget = budget.parent) {
+			if(budget.exceeded != null || System.nanoTime() > budget.deadline) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Counts one step against this budget and checks its limits.
+	 */
+	private void step() {
+		if(exceeded == null) {
+			if(maxSteps != NO_LIMIT && steps.incrementAndGet() > maxSteps)
+				exceeded = level + " budget exceeded (" + maxSteps + " steps)";
+			else if(System.nanoTime() > deadline)
+				exceeded = level + " budget exceeded (time)";
+		}
+		if(exceeded != null) throw new BudgetExceededException(level, exceeded);
+	}
+
+	/**
+	 * Counts one step against the current thread's budgets and throws a
+	 * {@code BudgetExceededException} if any of them has run out. Does
+	 * nothing if the thread has no budget.
+	 */
+	public static void check() {
+		for(Budget budget = current.get(); budget != null; budget = budget.parent) {
+			budget.step();
+		}
+	}
+
+	/**
+	 * Wraps work which is handed to another thread (e.g., forked in a fork-join
+	 * pool), so that it runs under the current thread's budget and is abandoned
+	 * with the work which forked it.
+	 */
+	public static <T> Callable<T> propagate(Callable<T> callable) {
+		Budget budget = current.get();
+		return () -> {
+			Budget previous = current.get();
+			current.set(budget);
+			try {
+				return callable.call();
+			}
+			finally {
+				current.set(previous);
+			}
+		};
+	}
+
+	/**
+	 * Creates a budget with the configured limits for the level, nested in the
+	 * current thread's budget.
+	 */
+	public static Budget create(Level level) {
+		long[] limit = limits[level.ordinal()];
+		return new Budget(level, current.get(), limit[0], limit[1]);
+	}
+
+	/**
+	 * Creates a budget for the level and enters it.
+	 */
+	public static Entered open(Level level) {
+		return create(level).enter();
+	}
+
+	/**
+	 * Sets the limits for new budgets at a level.
+	 * @param level The level to configure.
+	 * @param timeLimit The time limit in milliseconds (or {@code NO_LIMIT}).
+	 * @param stepLimit The step limit (or {@code NO_LIMIT}).
+	 */
+	public static synchronized void setLimits(Level level, long timeLimit, long stepLimit) {
+		long[][] updated = limits.clone();
+		updated[level.ordinal()] = new long[] { timeLimit, stepLimit };
+		limits = updated;
+	}
+
+	/**
+	 * What a budget is for. Budgets at a level are nested in budgets at the
+	 * next level.
+	 */
+	public enum Level {
+		FILE,
+		COMMIT,
+		PROJECT
+	}
+
+	/**
+	 * Restores the previous budget of the thread when closed.
+	 */
+	public interface Entered extends AutoCloseable {
+		@Override
+		void close();
+	}
+
+}
@@ -0,0 +1,30 @@
+package multidiffplus.analysis;
+
+/**
+ * Thrown by {@code Budget.check} when the time or step budget of an analysis
+ * has been used up. The analysis at the budget's level should be abandoned.
+ */
+public class BudgetExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/** The level of the budget which was exceeded. **/
+	private Budget.Level level;
+
+	/**
+	 * @param level The level of the budget which was exceeded.
+	 * @param message Describes which limit was exceeded.
+	 */
+	public BudgetExceededException(Budget.Level level, String message) {
+		super(message);
+		this.level = level;
+	}
+
+	/**
+	 * @return The level of the budget which was exceeded.
+	 */
+	public Budget.Level getLevel() {
+		return level;
+	}
+
+}
@@ -4,6 +4,7 @@ import java.util.List;
 
 import multidiffplus.commit.Commit;
 import multidiffplus.factories.IDomainAnalysisFactory;
+import multidiffplus.facts.FactContext;
 
 /**
  * Gathers facts about one commit from various domains and runs queries in
@@ -31,14 +32,16 @@ public class CommitAnalysis {
 	 * The commit is analyzed by each domain analysis. A database of facts is
 	 * stored and each domain analysis adds to the database.
 	 * @param commit The commit we are analyzing.
+	 * @param facts The database of facts for the commit. The caller reads the
+	 * 				facts and releases them when it is done with the commit.
 	 * @throws Exception
 	 */
-	public void analyze(Commit commit) throws Exception {
+	public void analyze(Commit commit, FactContext facts) throws Exception {
 
 		/* Run each domain analysis on the commit. */
 		for(IDomainAnalysisFactory domainAnalysisFactory : domainAnalysisFactories) {
 			DomainAnalysis domainAnalysis = domainAnalysisFactory.newInstance();
-			domainAnalysis.analyze(commit);
+			domainAnalysis.analyze(commit, facts);
 		}
 
 	}
@@ -1,5 +1,8 @@
 package multidiffplus.analysis;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 
 import org.apache.commons.lang3.time.StopWatch;
@@ -8,14 +11,19 @@ import multidiffplus.commit.Commit;
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.diff.Diff;
 import multidiffplus.diff.DiffContext;
+import multidiffplus.diff.TieredMatcher;
 import multidiffplus.factories.ICFGFactory;
 import multidiffplus.factories.ISourceFileAnalysisFactory;
+import multidiffplus.facts.FactContext;
 
 /**
  * Gathers facts about one commit that fall within a domain.
  */
 public class DomainAnalysis {
 
+	/** Set to analyze the files of a commit concurrently. **/
+	private static volatile boolean forkJoin = false;
+
 	/** The source file analysis to use. **/
 	protected ISourceFileAnalysisFactory srcAnalysisFactory;
 
@@ -54,35 +62,60 @@ public class DomainAnalysis {
 	 * {@code DomainAnalysis} itself may also do an analysis (e.g., to extract
 	 * facts about the structural changes between files).
 	 *
+	 * In the fork-join execution mode, the files are analyzed concurrently.
+	 * Each file registers its facts in its own fact bases, so the facts of the
+	 * commit are complete once all the files are analyzed.
+	 *
 	 * @param commit The commit being analyzed.
 	 * @param facts The database of facts the domain analysis will add to.
 	 * @throws Exception when an error occurs during domain analysis.
 	 */
-	public void analyze(Commit commit) throws Exception {
+	public void analyze(Commit commit, FactContext facts) throws Exception {
 		
 		StopWatch commitTimer = new StopWatch();
 		commitTimer.start();
 
 		/* Analyze the commit before the files are analyzed. */
-		if(!preAnalysis(commit)) return;
+		if(!preAnalysis(commit, facts)) return;
+
+		/* Results are cached if caching is enabled and the domain supports it. */
+		AnalysisResultCache cache = AnalysisResultCache.getInstance();
+		String analysisID = cache == null ? null : this.getAnalysisID();
 
 		/* Iterate through the files in the commit and run the
 		 * SourceCodeFileAnalysis on each of them. */
-		for(SourceCodeFileChange sourceCodeFileChange : commit.sourceCodeFileChanges) {
-			StopWatch fileTimer = new StopWatch();
-			fileTimer.start();
-
-			this.analyzeFile(sourceCodeFileChange);
-
-			fileTimer.stop();
-			
-			if(measureRuntime) sourceCodeFileChange.analysisRuntime = Math.round(fileTimer.getNanoTime()/Math.pow(10, 6));
+		if(forkJoin && commit.sourceCodeFileChanges.size() > 1) {
+
+			/* Fork a task for each file. The files run under the commit's
+			 * budget, and the first exception is thrown once all the files
+			 * are done. */
+			List<ForkJoinTask<Exception>> tasks = new ArrayList<ForkJoinTask<Exception>>();
+			for(SourceCodeFileChange sourceCodeFileChange : commit.sourceCodeFileChanges) {
+				tasks.add(ForkJoinTask.adapt(Budget.propagate(() -> {
+					try {
+						this.analyzeFileChange(sourceCodeFileChange, facts, cache, analysisID);
+						return null;
+					}
+					catch(Exception e) {
+						return e;
+					}
+				})));
+			}
+			ForkJoinTask.invokeAll(tasks);
+			for(ForkJoinTask<Exception> task : tasks) {
+				Exception failure = task.join();
+				if(failure != null) throw failure;
+			}
 
-			System.out.println("Time to analyze file (milliseconds):" + Math.round(fileTimer.getNanoTime()/Math.pow(10, 6)));
+		}
+		else {
+			for(SourceCodeFileChange sourceCodeFileChange : commit.sourceCodeFileChanges) {
+				this.analyzeFileChange(sourceCodeFileChange, facts, cache, analysisID);
+			}
 		}
 
 		/* Analyze the commit after the files are analyzed. */
-		postAnalysis(commit);
+		postAnalysis(commit, facts);
 		
 		/* Stop the commit analysis timer. */
 		commitTimer.stop();
@@ -90,6 +123,55 @@ public class DomainAnalysis {
 
 	}
 
+	/**
+	 * Analyzes one file in the commit, or imports its cached result.
+	 * @param cache The result cache (or {@code null} if caching is disabled).
+	 * @param analysisID The id of the analysis (or {@code null} if its results
+	 * 	are not cached).
+	 */
+	private void analyzeFileChange(SourceCodeFileChange sourceCodeFileChange, FactContext facts,
+								   AnalysisResultCache cache, String analysisID) throws Exception {
+
+		StopWatch fileTimer = new StopWatch();
+		fileTimer.start();
+
+		/* Abandon the file (but not the commit) if it uses up its budget. */
+		try(Budget.Entered fileBudget = Budget.open(Budget.Level.FILE)) {
+			AnalysisResult cached = analysisID == null ? null : cache.get(sourceCodeFileChange, analysisID);
+			if(cached != null) {
+				this.importResult(sourceCodeFileChange, facts, cached);
+			}
+			else {
+				this.analyzeFile(sourceCodeFileChange, facts);
+				/* A match which ran out of time may be better on another run. */
+				if(analysisID != null && !TieredMatcher.isTimedOut(sourceCodeFileChange.matcher)) {
+					AnalysisResult result = this.exportResult(sourceCodeFileChange, facts);
+					if(result != null) cache.put(sourceCodeFileChange, analysisID, result);
+				}
+			}
+		}
+		catch(BudgetExceededException e) {
+			if(e.getLevel() != Budget.Level.FILE) throw e;
+			System.err.println("[TIMEOUT] " + e.getMessage() + ": " + sourceCodeFileChange.repairedFile);
+			sourceCodeFileChange.abandonedReason = e.getMessage();
+		}
+
+		fileTimer.stop();
+
+		if(measureRuntime) sourceCodeFileChange.analysisRuntime = Math.round(fileTimer.getNanoTime()/Math.pow(10, 6));
+
+		System.out.println("Time to analyze file (milliseconds):" + Math.round(fileTimer.getNanoTime()/Math.pow(10, 6)));
+
+	}
+
+	/**
+	 * Enables (or disables) the fork-join execution mode, in which the files of
+	 * a commit are analyzed concurrently.
+	 */
+	public static void setForkJoin(boolean enabled) {
+		forkJoin = enabled;
+	}
+
 	/**
 	 * Override to run a custom pre-file analysis.
 	 * @return {@code true} to continue the analysis, {@code false} to abort.
@@ -97,7 +179,7 @@ public class DomainAnalysis {
 	 * @param facts The database of facts the domain analysis will add to.
 	 * @throws Exception when an error occurs during domain analysis.
 	 */
-	protected boolean preAnalysis(Commit commit) throws Exception {
+	protected boolean preAnalysis(Commit commit, FactContext facts) throws Exception {
 		return true;
 	}
 
@@ -108,7 +190,39 @@ public class DomainAnalysis {
 	 * @param facts The database of facts the domain analysis will add to.
 	 * @throws Exception when an error occurs during domain analysis.
 	 */
-	protected void postAnalysis(Commit commit) throws Exception { }
+	protected void postAnalysis(Commit commit, FactContext facts) throws Exception { }
+
+	/**
+	 * Override to enable result caching for the domain. The id must change
+	 * whenever the facts the domain produces for a file pair could change
+	 * (e.g., when the analysis or its options change). Results are only
+	 * cached if {@code exportResult} and {@code importResult} are overridden too.
+	 * @return An id for the analysis and its version, or {@code null} if the
+	 * 	results of the domain cannot be cached.
+	 */
+	protected String getAnalysisID() {
+		return null;
+	}
+
+	/**
+	 * Override to enable result caching for the domain.
+	 * @param sourceCodeFileChange The file pair which was just analyzed.
+	 * @param facts The database of facts the domain analysis added to.
+	 * @return The facts the domain produced for the file pair, or {@code null}
+	 * 	if they cannot be cached.
+	 */
+	protected AnalysisResult exportResult(SourceCodeFileChange sourceCodeFileChange, FactContext facts) {
+		return null;
+	}
+
+	/**
+	 * Override to enable result caching for the domain. Registers cached facts
+	 * as if the file pair had been analyzed.
+	 * @param sourceCodeFileChange The file pair being analyzed.
+	 * @param facts The database of facts the domain analysis will add to.
+	 * @param result The facts the domain produced for the file pair.
+	 */
+	protected void importResult(SourceCodeFileChange sourceCodeFileChange, FactContext facts, AnalysisResult result) { }
 
 	/**
 	 * Performs AST-differencing and launches the analysis of the pre-commit/post-commit
@@ -120,7 +234,7 @@ public class DomainAnalysis {
 	 * @param srcAnalysisFactory The analysis to run on the buggy file.
 	 * @param dstAnalysisClass The analysis to run on the repaired file.
 	 */
-	protected void analyzeFile(SourceCodeFileChange sourceCodeFileChange) throws Exception {
+	protected void analyzeFile(SourceCodeFileChange sourceCodeFileChange, FactContext facts) throws Exception {
 
 		/* Get the file extension. */
 		String fileExtension = getSourceCodeFileExtension(sourceCodeFileChange.repairedFile);
@@ -133,13 +247,18 @@ public class DomainAnalysis {
 			try {
 				String[] args = preProcess ? new String[] {sourceCodeFileChange.buggyFile, sourceCodeFileChange.repairedFile, "-pp"}
 									: new String[] {sourceCodeFileChange.buggyFile, sourceCodeFileChange.repairedFile};
-				cfd = new Diff(cfgFactory, args, sourceCodeFileChange.buggyCode, sourceCodeFileChange.repairedCode);
+				cfd = new Diff(cfgFactory, args, sourceCodeFileChange.buggyCode, sourceCodeFileChange.repairedCode,
+								sourceCodeFileChange.getBuggyBlobID(), sourceCodeFileChange.getRepairedBlobID());
 			}
 			catch(ArrayIndexOutOfBoundsException e) {
 				System.err.println("ArrayIndexOutOfBoundsException: possibly caused by empty file.");
 				e.printStackTrace();
 				return;
 			}
+			catch(BudgetExceededException e) {
+				/* The file (or commit) is abandoned by the caller. */
+				throw e;
+			}
 			catch(Exception e) {
 				System.err.println("Exception: " + e.getMessage());
 				return;
@@ -149,14 +268,15 @@ public class DomainAnalysis {
 			 * include an analysis context: the source and destination ASTs
 			 * and CFGs. */
 			DiffContext cfdContext = cfd.getContext();
+			sourceCodeFileChange.matcher = cfdContext.getMatcher();
 
 			/* Build the analyzers with reflection. */
 			SourceFileAnalysis srcAnalysis = this.srcAnalysisFactory.newInstance();
 			SourceFileAnalysis dstAnalysis = this.srcAnalysisFactory.newInstance();
 
 			/* Run the analysis. */
-			srcAnalysis.analyze(sourceCodeFileChange, cfdContext.srcScript, cfdContext.srcCFGs);
-			dstAnalysis.analyze(sourceCodeFileChange, cfdContext.dstScript, cfdContext.dstCFGs);
+			srcAnalysis.analyze(sourceCodeFileChange, facts, cfdContext.srcScript, cfdContext.getSrcCFGs());
+			dstAnalysis.analyze(sourceCodeFileChange, facts, cfdContext.dstScript, cfdContext.getDstCFGs());
 
 		}
 
@@ -3,6 +3,7 @@ package multidiffplus.analysis;
 import ca.ubc.ece.salt.gumtree.ast.ClassifiedASTNode;
 import multidiffplus.cfg.CfgMap;
 import multidiffplus.commit.SourceCodeFileChange;
+import multidiffplus.facts.FactContext;
 
 /**
  * Gathers Datalog facts about changes to a source code file. This class should
@@ -15,13 +16,15 @@ public abstract class SourceFileAnalysis {
      * 
      * @param sourceCodeFileChange
      *            The source code file change information.
+     * @param facts
+     *            The database of facts the analysis will add to.
      * @param root
      *            The script.
      * @param cfgMap
      *            The list of CFGs in the script (one for each function plus one for
      *            the script).
      */
-    public abstract void analyze(SourceCodeFileChange sourceCodeFileChange, ClassifiedASTNode root,
-	    CfgMap cfgMap) throws Exception;
+    public abstract void analyze(SourceCodeFileChange sourceCodeFileChange, FactContext facts,
+	    ClassifiedASTNode root, CfgMap cfgMap) throws Exception;
 
 }
\ No newline at end of file
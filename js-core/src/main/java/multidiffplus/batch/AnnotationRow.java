@@ -0,0 +1,193 @@
+package multidiffplus.batch;
+
+/**
+ * One row of the mined data set: an annotation of a file changed by a commit.
+ * Rows are immutable.
+ */
+public class AnnotationRow {
+
+    /** The columns of the data set. **/
+    public enum Column {
+	PROJECT, COMMIT, TIMESTAMP, FILE, OLD_SOURCE, NEW_SOURCE, LABEL, LINE, POSITION, MATCHER
+    }
+
+    /** Separates the project and commit ID in a commit URL. **/
+    private static final String COMMIT_SEPARATOR = "/commit/";
+
+    /** The position of an annotation which was read from a CSV file. **/
+    public static final int UNKNOWN_POSITION = -1;
+
+    private final String project;
+    private final String commit;
+    private final int timestamp;
+    private final String file;
+    private final String oldSource;
+    private final String newSource;
+    private final String label;
+    private final int line;
+    private final int position;
+    private final String matcher;
+
+    /**
+     * @param project
+     *            The project's home page (e.g., https://github.com/karma-runner/karma).
+     * @param commit
+     *            The ID of the commit.
+     * @param timestamp
+     *            The unix timestamp of the commit.
+     * @param file
+     *            The path of the changed file.
+     * @param oldSource
+     *            The git blob ID of the old source code in the snapshot store (or,
+     *            in older data sets, the name of the file containing it).
+     * @param newSource
+     *            The git blob ID of the new source code in the snapshot store.
+     * @param label
+     *            The label of the annotation.
+     * @param line
+     *            The line number where the annotation starts.
+     * @param position
+     *            The absolute position where the annotation starts.
+     */
+    public AnnotationRow(String project, String commit, int timestamp, String file,
+	    String oldSource, String newSource, String label, int line, int position) {
+	this(project, commit, timestamp, file, oldSource, newSource, label, line, position,
+		null);
+    }
+
+    /**
+     * @param matcher
+     *            The tier of the tree matcher which diffed the file (e.g.,
+     *            {@code gumtree}), or {@code null} if it is unknown.
+     */
+    public AnnotationRow(String project, String commit, int timestamp, String file,
+	    String oldSource, String newSource, String label, int line, int position,
+	    String matcher) {
+	this.project = project;
+	this.commit = commit;
+	this.timestamp = timestamp;
+	this.file = file;
+	this.oldSource = oldSource;
+	this.newSource = newSource;
+	this.label = label;
+	this.line = line;
+	this.position = position;
+	this.matcher = matcher;
+    }
+
+    public String getProject() {
+	return project;
+    }
+
+    public String getCommit() {
+	return commit;
+    }
+
+    public int getTimestamp() {
+	return timestamp;
+    }
+
+    public String getFile() {
+	return file;
+    }
+
+    public String getOldSource() {
+	return oldSource;
+    }
+
+    public String getNewSource() {
+	return newSource;
+    }
+
+    public String getLabel() {
+	return label;
+    }
+
+    public int getLine() {
+	return line;
+    }
+
+    public int getPosition() {
+	return position;
+    }
+
+    /**
+     * @return The tier of the tree matcher which diffed the file, or {@code null}
+     *         if it is unknown.
+     */
+    public String getMatcher() {
+	return matcher;
+    }
+
+    /**
+     * @return The row in the CSV format of the data set. The position is not part
+     *         of the CSV format. The matcher is the last column, and is left out if
+     *         it is unknown (as in data sets mined before it was recorded).
+     */
+    public String toCSV() {
+	StringBuilder row = new StringBuilder().append(project).append(COMMIT_SEPARATOR)
+		.append(commit).append(',').append(timestamp).append(',').append(file)
+		.append(',').append(oldSource).append(',').append(newSource).append(',')
+		.append(label).append(',').append(line);
+	if (matcher != null)
+	    row.append(',').append(matcher);
+	return row.toString();
+    }
+
+    @Override
+    public String toString() {
+	return toCSV();
+    }
+
+    /**
+     * Parses a row of the CSV format of the data set. File paths may contain
+     * commas, so the other columns are read from both ends of the row. A row ends
+     * with the line number, or with the matcher (which is never a number).
+     *
+     * @throws IllegalArgumentException
+     *             if the row is not in the CSV format.
+     */
+    public static AnnotationRow fromCSV(String row) {
+	String[] values = row.split(",", -1);
+	if (values.length < 7)
+	    throw new IllegalArgumentException("Expected at least 7 columns: " + row);
+
+	int n = values.length;
+	String matcher = null;
+	if (!isNumber(values[n - 1])) {
+	    if (values.length < 8)
+		throw new IllegalArgumentException("Expected at least 8 columns: " + row);
+	    matcher = values[n - 1];
+	    n--;
+	}
+
+	String url = values[0];
+	int separator = url.lastIndexOf(COMMIT_SEPARATOR);
+	if (separator < 0)
+	    throw new IllegalArgumentException("Expected a commit URL: " + url);
+
+	StringBuilder file = new StringBuilder(values[2]);
+	for (int i = 3; i < n - 4; i++)
+	    file.append(',').append(values[i]);
+
+	try {
+	    return new AnnotationRow(url.substring(0, separator),
+		    url.substring(separator + COMMIT_SEPARATOR.length()),
+		    Integer.parseInt(values[1]), file.toString(), values[n - 4], values[n - 3],
+		    values[n - 2], Integer.parseInt(values[n - 1]), UNKNOWN_POSITION, matcher);
+	} catch (NumberFormatException e) {
+	    throw new IllegalArgumentException("Expected a number: " + row, e);
+	}
+    }
+
+    private static boolean isNumber(String value) {
+	if (value.isEmpty())
+	    return false;
+	for (int i = value.charAt(0) == '-' ? 1 : 0; i < value.length(); i++) {
+	    if (!Character.isDigit(value.charAt(i)))
+		return false;
+	}
+	return true;
+    }
+
+}
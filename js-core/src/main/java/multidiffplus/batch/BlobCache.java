@@ -0,0 +1,76 @@
+package multidiffplus.batch;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A least-recently-used cache of decoded blob contents, bounded by the
+ * (approximate) number of bytes it holds. Consecutive commits usually re-read
+ * the same versions of a file, so the cache is shared by all the workers that
+ * analyze a project (thread safe).
+ */
+public class BlobCache {
+
+    /** The maximum number of bytes of content to keep. **/
+    private long capacity;
+
+    /** The number of bytes of content currently cached. **/
+    private long size;
+
+    /** The cached contents, in access order. **/
+    private LinkedHashMap<ObjectId, String> contents;
+
+    /**
+     * @param capacity
+     *            The maximum number of bytes of decoded content to keep. A
+     *            capacity of zero disables the cache.
+     */
+    public BlobCache(long capacity) {
+	this.capacity = capacity;
+	this.size = 0;
+	this.contents = new LinkedHashMap<ObjectId, String>(16, 0.75f, true);
+    }
+
+    /**
+     * @return The cached contents of the blob, or {@code null} if the blob is not
+     *         cached.
+     */
+    public synchronized String get(ObjectId blobId) {
+	return contents.get(blobId);
+    }
+
+    /**
+     * Adds the contents of a blob to the cache, evicting the least recently used
+     * blobs until the cache is within its capacity. Contents which are larger
+     * than the capacity are not cached.
+     */
+    public synchronized void put(ObjectId blobId, String content) {
+
+	long bytes = sizeOf(content);
+	if (bytes > capacity)
+	    return;
+
+	String previous = contents.put(blobId.copy(), content);
+	if (previous != null)
+	    size -= sizeOf(previous);
+	size += bytes;
+
+	Iterator<Map.Entry<ObjectId, String>> it = contents.entrySet().iterator();
+	while (size > capacity && it.hasNext()) {
+	    size -= sizeOf(it.next().getValue());
+	    it.remove();
+	}
+
+    }
+
+    /**
+     * @return The approximate heap size of a decoded blob.
+     */
+    private static long sizeOf(String content) {
+	return 2L * content.length();
+    }
+
+}
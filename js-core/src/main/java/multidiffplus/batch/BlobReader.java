@@ -0,0 +1,108 @@
+package multidiffplus.batch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Reads trees and blobs for one worker. An {@code ObjectReader} is not thread
+ * safe, so each worker thread owns one {@code BlobReader}; the decoded blob
+ * contents are shared between workers through a {@code BlobCache}.
+ */
+public class BlobReader implements AutoCloseable {
+
+    /** Reads objects from the repository's object database. **/
+    private ObjectReader reader;
+
+    /** The decoded contents of recently read blobs. **/
+    private BlobCache cache;
+
+    /**
+     * @param repository
+     *            The repository to read from.
+     * @param cache
+     *            The cache of decoded blob contents (may be shared).
+     */
+    public BlobReader(Repository repository, BlobCache cache) {
+	this.reader = repository.newObjectReader();
+	this.cache = cache;
+    }
+
+    /**
+     * Computes the files which differ between two commits. Both trees are
+     * resolved once and compared in a single walk, and the entries include the
+     * blob ids of both versions of each file, so the files can be read without
+     * looking up their paths again.
+     *
+     * @param oldRevision
+     *            The commit ID of the old revision, or {@code null} to compare
+     *            against the empty tree (i.e., for the initial commit).
+     * @param newRevision
+     *            The commit ID of the new revision.
+     * @param pathFilter
+     *            Selects the paths to compare. Subtrees which the filter rejects
+     *            are not read.
+     * @return The modified files.
+     */
+    public List<DiffEntry> diff(String oldRevision, String newRevision, TreeFilter pathFilter)
+	    throws IOException {
+	try (RevWalk revWalk = new RevWalk(reader); TreeWalk treeWalk = new TreeWalk(reader)) {
+
+	    if (oldRevision == null)
+		treeWalk.addTree(new EmptyTreeIterator());
+	    else
+		treeWalk.addTree(revWalk.parseCommit(ObjectId.fromString(oldRevision)).getTree());
+	    treeWalk.addTree(revWalk.parseCommit(ObjectId.fromString(newRevision)).getTree());
+
+	    treeWalk.setRecursive(true);
+	    treeWalk.setFilter(AndTreeFilter.create(pathFilter, TreeFilter.ANY_DIFF));
+
+	    return DiffEntry.scan(treeWalk);
+
+	}
+    }
+
+    /**
+     * Reads the contents of a blob as UTF-8 text.
+     *
+     * @param blobId
+     *            The id of the blob. The zero id (i.e., the file does not exist in
+     *            this version) yields the empty string.
+     * @return The contents of the blob.
+     */
+    public String read(AnyObjectId blobId) throws IOException {
+
+	if (ObjectId.zeroId().equals(blobId))
+	    return "";
+
+	ObjectId id = blobId.toObjectId();
+	String content = cache.get(id);
+
+	if (content == null) {
+	    byte[] data = reader.open(id, Constants.OBJ_BLOB).getCachedBytes();
+	    content = new String(data, StandardCharsets.UTF_8);
+	    cache.put(id, content);
+	}
+
+	return content;
+
+    }
+
+    @Override
+    public void close() {
+	reader.close();
+    }
+
+}
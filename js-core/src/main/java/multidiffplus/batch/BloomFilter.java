@@ -0,0 +1,99 @@
+package multidiffplus.batch;
+
+/**
+ * A set of strings in a fixed amount of memory, which may report that a string
+ * was added when it was not (a false positive), but never the reverse.
+ *
+ * The filter is sized for an expected number of strings and a false positive
+ * rate. Adding more strings than expected does not use more memory, but raises
+ * the false positive rate.
+ *
+ * An instance is not thread safe.
+ */
+public class BloomFilter {
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long[] bits;
+
+    /** The number of bits. **/
+    private long size;
+
+    /** The number of bits set for each string. **/
+    private int hashes;
+
+    /**
+     * @param expected
+     *            The number of strings which are expected to be added.
+     * @param falsePositiveRate
+     *            The probability that a string which was not added is reported
+     *            as added, once the expected number of strings have been added.
+     */
+    public BloomFilter(long expected, double falsePositiveRate) {
+	expected = Math.max(1, expected);
+	double bitsPerString = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+	long words = Math.max(1, (long) Math.ceil(expected * bitsPerString / 64));
+	if (words > Integer.MAX_VALUE - 8)
+	    throw new IllegalArgumentException("A filter for " + expected
+		    + " strings with a false positive rate of " + falsePositiveRate
+		    + " is too large.");
+	this.bits = new long[(int) words];
+	this.size = words * 64;
+	this.hashes = Math.max(1, (int) Math.round(bitsPerString * Math.log(2)));
+    }
+
+    /**
+     * Adds a string to the set.
+     *
+     * @return True if the string was not in the set. False if it was, or if it is
+     *         a false positive.
+     */
+    public boolean add(String item) {
+	long h1 = hash(item, 0xcbf29ce484222325L);
+	long h2 = hash(item, 0x84222325cbf29ce4L);
+	boolean added = false;
+	for (int i = 0; i < hashes; i++) {
+	    long bit = Math.floorMod(h1 + i * h2, size);
+	    long mask = 1L << bit;
+	    int word = (int) (bit >>> 6);
+	    if ((bits[word] & mask) == 0) {
+		bits[word] |= mask;
+		added = true;
+	    }
+	}
+	return added;
+    }
+
+    /**
+     * @return True if the string may be in the set, false if it is not.
+     */
+    public boolean mightContain(String item) {
+	long h1 = hash(item, 0xcbf29ce484222325L);
+	long h2 = hash(item, 0x84222325cbf29ce4L);
+	for (int i = 0; i < hashes; i++) {
+	    long bit = Math.floorMod(h1 + i * h2, size);
+	    if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+		return false;
+	}
+	return true;
+    }
+
+    /**
+     * FNV-1a over the characters of the string, followed by the finalizer of
+     * MurmurHash3 so that every bit of the hash depends on every character.
+     */
+    private static long hash(String item, long basis) {
+	long h = basis;
+	for (int i = 0; i < item.length(); i++) {
+	    h ^= item.charAt(i);
+	    h *= FNV_PRIME;
+	}
+	h ^= h >>> 33;
+	h *= 0xff51afd7ed558ccdL;
+	h ^= h >>> 33;
+	h *= 0xc4ceb9fe1a85ec53L;
+	h ^= h >>> 33;
+	return h;
+    }
+
+}
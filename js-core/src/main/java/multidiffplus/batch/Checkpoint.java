@@ -0,0 +1,213 @@
+package multidiffplus.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the progress of a mining run so that it can be resumed after a crash
+ * or preemption.
+ *
+ * Each unit of work (e.g., a project) has an append-only log in the checkpoint
+ * directory. The log records each completed item (e.g., a commit) along with
+ * the size of the output file after the item's results were written, and a
+ * quarantine list of items and files which threw, timed out or ran out of
+ * memory. A restarted run skips completed and quarantined items.
+ *
+ * The methods are thread safe.
+ */
+public class Checkpoint implements AutoCloseable {
+
+    /** The extension of checkpoint logs. **/
+    private static final String EXTENSION = ".checkpoint";
+
+    private static final String DONE = "DONE";
+    private static final String QUARANTINE = "QUARANTINE";
+
+    /** Marks a quarantine record which applies to the whole item. **/
+    private static final String ALL_FILES = "*";
+
+    /** The items which have been completed. **/
+    private Set<String> done;
+
+    /** The items (or item/file pairs) which have been quarantined. **/
+    private Set<String> quarantined;
+
+    /** The largest output offset recorded in the log. **/
+    private long outputOffset;
+
+    /** Appends records to the log. **/
+    private BufferedWriter log;
+
+    private Checkpoint(File file) throws IOException {
+
+	this.done = ConcurrentHashMap.newKeySet();
+	this.quarantined = ConcurrentHashMap.newKeySet();
+	this.outputOffset = 0;
+
+	if (file.exists())
+	    this.load(file);
+
+	this.log = new BufferedWriter(
+		new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+
+    }
+
+    /**
+     * @return {@code true} if the item was completed by a previous run.
+     */
+    public boolean isDone(String item) {
+	return done.contains(item);
+    }
+
+    /**
+     * @return {@code true} if the whole item was quarantined by a previous run.
+     */
+    public boolean isQuarantined(String item) {
+	return quarantined.contains(key(item, ALL_FILES));
+    }
+
+    /**
+     * @return {@code true} if the file in the item was quarantined by a previous
+     *         run.
+     */
+    public boolean isQuarantined(String item, String file) {
+	return isQuarantined(item) || quarantined.contains(key(item, file));
+    }
+
+    /**
+     * Records that an item has been completed and its results are in the output.
+     *
+     * @param outputOffset
+     *            The size of the output file after the item's results were
+     *            written.
+     */
+    public synchronized void markDone(String item, long outputOffset) throws IOException {
+	done.add(item);
+	this.outputOffset = Math.max(this.outputOffset, outputOffset);
+	append(DONE + "\t" + item + "\t" + outputOffset);
+    }
+
+    /**
+     * Records that an item, or one file in an item, should not be analyzed again.
+     *
+     * @param file
+     *            The file which caused the problem, or {@code null} if the whole
+     *            item should be skipped.
+     * @param reason
+     *            Why the item was quarantined (e.g., the exception).
+     */
+    public synchronized void quarantine(String item, String file, String reason)
+	    throws IOException {
+	String path = file == null ? ALL_FILES : file;
+	quarantined.add(key(item, path));
+	append(QUARANTINE + "\t" + item + "\t" + path + "\t" + reason.replaceAll("\\s+", " "));
+    }
+
+    /**
+     * @return The largest output offset recorded in the log.
+     */
+    public synchronized long getOutputOffset() {
+	return outputOffset;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+	log.close();
+    }
+
+    /**
+     * Writes a record and flushes it so that it survives a crash.
+     */
+    private void append(String record) throws IOException {
+	log.write(record);
+	log.newLine();
+	log.flush();
+    }
+
+    /**
+     * Reads the records of a previous run. A truncated last record (e.g., from a
+     * crash) is ignored.
+     */
+    private void load(File file) throws IOException {
+	try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+	    for (String line; (line = br.readLine()) != null;) {
+		String[] record = line.split("\t");
+		try {
+		    if (record[0].equals(DONE) && record.length == 3) {
+			done.add(record[1]);
+			outputOffset = Math.max(outputOffset, Long.parseLong(record[2]));
+		    } else if (record[0].equals(QUARANTINE) && record.length == 4) {
+			quarantined.add(key(record[1], record[2]));
+		    }
+		} catch (NumberFormatException e) {
+		    System.err.println("Ignoring malformed checkpoint record: " + line);
+		}
+	    }
+	}
+    }
+
+    private static String key(String item, String file) {
+	return item + "\t" + file;
+    }
+
+    /*
+     * Static factory methods
+     */
+
+    /**
+     * Opens (or creates) the checkpoint log for a unit of work.
+     *
+     * @param directory
+     *            The directory containing the checkpoint logs.
+     * @param name
+     *            The name of the unit of work (e.g., the project name).
+     */
+    public static Checkpoint open(File directory, String name) throws IOException {
+	directory.mkdirs();
+	return new Checkpoint(new File(directory, name + EXTENSION));
+    }
+
+    /**
+     * Removes results from the end of an output file which were written after the
+     * last checkpoint (i.e., by an item which was not marked as done before a
+     * crash), so that resuming does not duplicate them. Nothing is removed if
+     * there are no checkpoint logs.
+     *
+     * @param directory
+     *            The directory containing the checkpoint logs.
+     * @param output
+     *            The output file shared by the checkpointed units of work.
+     */
+    public static void recoverOutput(File directory, File output) throws IOException {
+
+	File[] logs = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+	if (logs == null || logs.length == 0 || !output.exists())
+	    return;
+
+	long offset = 0;
+	for (File log : logs) {
+	    Checkpoint checkpoint = new Checkpoint(log);
+	    offset = Math.max(offset, checkpoint.getOutputOffset());
+	    checkpoint.close();
+	}
+
+	if (output.length() > offset) {
+	    System.err.println("[RECOVER] truncating " + output + " from " + output.length()
+		    + " to " + offset + " bytes");
+	    try (RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+		file.setLength(offset);
+	    }
+	}
+
+    }
+
+}
@@ -0,0 +1,83 @@
+package multidiffplus.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Converts mined data sets between the CSV format and the columnar format.
+ *
+ * Usage: ColumnarConverter (--to-csv | --from-csv) input output
+ */
+public class ColumnarConverter {
+
+    /**
+     * Converts a columnar data set to CSV.
+     *
+     * @return The number of rows converted.
+     */
+    public static long toCSV(File columnar, File csv) throws IOException {
+	long rows = 0;
+	try (ColumnarReader reader = new ColumnarReader(columnar);
+		BufferedWriter writer = Files.newBufferedWriter(csv.toPath(),
+			StandardCharsets.UTF_8)) {
+	    for (AnnotationRow row; (row = reader.read()) != null; rows++) {
+		writer.write(row.toCSV());
+		writer.newLine();
+	    }
+	}
+	return rows;
+    }
+
+    /**
+     * Converts a CSV data set to the columnar format. The CSV format does not
+     * store the positions of the annotations, so they are unknown.
+     *
+     * @return The number of rows converted.
+     * @throws IOException
+     *             if a row is not in the CSV format.
+     */
+    public static long fromCSV(File csv, File columnar) throws IOException {
+	long rows = 0;
+	long lines = 0;
+	try (BufferedReader reader = Files.newBufferedReader(csv.toPath(),
+		StandardCharsets.UTF_8); ColumnarWriter writer = new ColumnarWriter(columnar)) {
+	    for (String line; (line = reader.readLine()) != null;) {
+		lines++;
+		if (line.isEmpty())
+		    continue;
+		try {
+		    writer.write(AnnotationRow.fromCSV(line));
+		    rows++;
+		} catch (IllegalArgumentException e) {
+		    throw new IOException("Line " + lines + " of " + csv + ": " + e.getMessage());
+		}
+	    }
+	}
+	return rows;
+    }
+
+    public static void main(String[] args) {
+
+	if (args.length != 3 || !(args[0].equals("--to-csv") || args[0].equals("--from-csv"))) {
+	    System.out.println("Usage: ColumnarConverter (--to-csv | --from-csv) input output");
+	    return;
+	}
+
+	File input = new File(args[1]);
+	File output = new File(args[2]);
+
+	try {
+	    long rows = args[0].equals("--to-csv") ? toCSV(input, output)
+		    : fromCSV(input, output);
+	    System.out.println("Converted " + rows + " rows.");
+	} catch (IOException e) {
+	    System.err.println("Error while converting " + input + ": " + e.getMessage());
+	}
+
+    }
+
+}
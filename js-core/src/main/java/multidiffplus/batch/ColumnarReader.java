@@ -0,0 +1,249 @@
+package multidiffplus.batch;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import multidiffplus.batch.AnnotationRow.Column;
+
+/**
+ * Reads a data set written by {@link ColumnarWriter}.
+ *
+ * Only the requested columns are decompressed; the others are skipped, and the
+ * rows which are read contain {@code null} (or zero) for them. For example, the
+ * labels of a data set can be scanned without decompressing the file paths:
+ *
+ * <pre>
+ * try (ColumnarReader reader = new ColumnarReader(file, EnumSet.of(Column.LABEL))) {
+ *     for (AnnotationRow row; (row = reader.read()) != null;)
+ *         count(row.getLabel());
+ * }
+ * </pre>
+ */
+public class ColumnarReader implements Closeable {
+
+    private DataInputStream in;
+    private Inflater inflater;
+    private Set<Column> columns;
+
+    /** The decoded columns of the current block (null if skipped). **/
+    private String[][] strings;
+    private int[][] ints;
+
+    /** The number of columns in each block, which depends on the version. **/
+    private int columnCount;
+
+    /** The number of rows in the current block, and the next row to read. **/
+    private int rows;
+    private int next;
+
+    /**
+     * Opens a data set and reads all of its columns.
+     */
+    public ColumnarReader(File file) throws IOException {
+	this(file, EnumSet.allOf(Column.class));
+    }
+
+    /**
+     * Opens a data set.
+     *
+     * @param columns
+     *            The columns to decode.
+     * @throws IOException
+     *             if the file is not in the columnar format.
+     */
+    public ColumnarReader(File file, Set<Column> columns) throws IOException {
+	this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+	this.inflater = new Inflater();
+	this.columns = EnumSet.copyOf(columns);
+	this.strings = new String[Column.values().length][];
+	this.ints = new int[Column.values().length][];
+
+	try {
+	    byte[] magic = new byte[ColumnarWriter.MAGIC.length];
+	    in.readFully(magic);
+	    if (!Arrays.equals(magic, ColumnarWriter.MAGIC))
+		throw new IOException(file + " is not a columnar data set.");
+	    int version = in.readInt();
+	    if (version < 1 || version > ColumnarWriter.VERSION)
+		throw new IOException("Unsupported columnar data set version " + version + ".");
+	    this.columnCount = ColumnarWriter.getColumnCount(version);
+	} catch (IOException e) {
+	    close();
+	    throw e instanceof EOFException
+		    ? new IOException(file + " is not a columnar data set.")
+		    : e;
+	}
+    }
+
+    /**
+     * @return The next row, or {@code null} at the end of the data set.
+     */
+    public AnnotationRow read() throws IOException {
+	if (next == rows && !readBlock())
+	    return null;
+	int row = next++;
+	return new AnnotationRow(string(Column.PROJECT, row), string(Column.COMMIT, row),
+		integer(Column.TIMESTAMP, row), string(Column.FILE, row),
+		string(Column.OLD_SOURCE, row), string(Column.NEW_SOURCE, row),
+		string(Column.LABEL, row), integer(Column.LINE, row),
+		integer(Column.POSITION, row), matcher(row));
+    }
+
+    @Override
+    public void close() throws IOException {
+	inflater.end();
+	in.close();
+    }
+
+    private String string(Column column, int row) {
+	String[] values = strings[column.ordinal()];
+	return values == null ? null : values[row];
+    }
+
+    /**
+     * @return The matcher, which is {@code null} if it is unknown.
+     */
+    private String matcher(int row) {
+	String matcher = string(Column.MATCHER, row);
+	return ColumnarWriter.UNKNOWN.equals(matcher) ? null : matcher;
+    }
+
+    private int integer(Column column, int row) {
+	int[] values = ints[column.ordinal()];
+	return values == null ? 0 : values[row];
+    }
+
+    /**
+     * Reads the next block, decoding the requested columns.
+     *
+     * @return False at the end of the data set.
+     */
+    private boolean readBlock() throws IOException {
+	do {
+	    try {
+		rows = in.readInt();
+	    } catch (EOFException e) {
+		return false;
+	    }
+	} while (rows == 0);
+	next = 0;
+
+	for (Column column : Column.values()) {
+	    strings[column.ordinal()] = null;
+	    ints[column.ordinal()] = null;
+
+	    /* Older versions do not have the last columns. */
+	    if (column.ordinal() >= columnCount)
+		continue;
+
+	    int rawLength = in.readInt();
+	    int compressedLength = in.readInt();
+
+	    if (!columns.contains(column)) {
+		skip(compressedLength);
+		continue;
+	    }
+
+	    byte[] compressed = new byte[compressedLength];
+	    in.readFully(compressed);
+	    Decoder decoder = new Decoder(decompress(compressed, rawLength));
+
+	    if (ColumnarWriter.isString(column))
+		strings[column.ordinal()] = decodeStrings(decoder);
+	    else
+		ints[column.ordinal()] = decodeInts(decoder);
+	}
+
+	return true;
+    }
+
+    private String[] decodeStrings(Decoder decoder) {
+	String[] dictionary = new String[decoder.readVarint()];
+	for (int i = 0; i < dictionary.length; i++)
+	    dictionary[i] = decoder.readString();
+	String[] values = new String[rows];
+	for (int i = 0; i < rows; i++)
+	    values[i] = dictionary[decoder.readVarint()];
+	return values;
+    }
+
+    private int[] decodeInts(Decoder decoder) {
+	int[] values = new int[rows];
+	int previous = 0;
+	for (int i = 0; i < rows; i++) {
+	    int zigzag = decoder.readVarint();
+	    previous += (zigzag >>> 1) ^ -(zigzag & 1);
+	    values[i] = previous;
+	}
+	return values;
+    }
+
+    private byte[] decompress(byte[] compressed, int rawLength) throws IOException {
+	byte[] raw = new byte[rawLength];
+	inflater.reset();
+	inflater.setInput(compressed);
+	try {
+	    int n = 0;
+	    while (n < rawLength && !inflater.finished())
+		n += inflater.inflate(raw, n, rawLength - n);
+	    if (n != rawLength)
+		throw new IOException("Truncated column in columnar data set.");
+	} catch (DataFormatException e) {
+	    throw new IOException("Corrupt column in columnar data set.", e);
+	}
+	return raw;
+    }
+
+    private void skip(int length) throws IOException {
+	while (length > 0) {
+	    int skipped = in.skipBytes(length);
+	    if (skipped <= 0)
+		throw new EOFException("Truncated block in columnar data set.");
+	    length -= skipped;
+	}
+    }
+
+    /**
+     * Reads the values of a decompressed column.
+     */
+    private static class Decoder {
+
+	private byte[] bytes;
+	private int position;
+
+	Decoder(byte[] bytes) {
+	    this.bytes = bytes;
+	    this.position = 0;
+	}
+
+	int readVarint() {
+	    int value = 0;
+	    for (int shift = 0;; shift += 7) {
+		byte b = bytes[position++];
+		value |= (b & 0x7F) << shift;
+		if ((b & 0x80) == 0)
+		    return value;
+	    }
+	}
+
+	String readString() {
+	    int length = readVarint();
+	    String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+	    position += length;
+	    return value;
+	}
+
+    }
+
+}
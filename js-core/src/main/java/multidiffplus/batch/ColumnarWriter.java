@@ -0,0 +1,295 @@
+package multidiffplus.batch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import multidiffplus.batch.AnnotationRow.Column;
+
+/**
+ * Writes the mined data set in a block-compressed columnar format.
+ *
+ * Rows are buffered into blocks. Each block stores every column separately and
+ * compresses it with {@link Deflater}, so that a reader can skip the columns it
+ * does not need without decompressing them. Columns of strings (project,
+ * commit, file paths, label and matcher) are dictionary encoded, and the integer columns
+ * (timestamp, line and position) are delta encoded. Blocks do not depend on
+ * each other, so a file truncated at the end of a block is valid. Version 1
+ * files do not have the matcher column.
+ *
+ * The layout of a file is:
+ *
+ * <pre>
+ * file   := MAGIC VERSION block*
+ * block  := rows:int (rawLength:int compressedLength:int bytes)[one per column]
+ * string column := dictionarySize:varint (length:varint utf8)* id:varint[rows]
+ * int column    := zigzag(value - previous):varint[rows]
+ * </pre>
+ */
+public class ColumnarWriter implements Closeable {
+
+    /** Identifies the format. **/
+    static final byte[] MAGIC = { 'M', 'D', 'P', 'C' };
+
+    /** The version of the format. **/
+    static final int VERSION = 2;
+
+    /** Encodes a {@code null} string (e.g., an unknown matcher). **/
+    static final String UNKNOWN = "";
+
+    /** The number of rows in a full block. **/
+    public static final int BLOCK_ROWS = 16384;
+
+    private DataOutputStream out;
+    private Deflater deflater;
+    private ColumnEncoder[] encoders;
+    private int rows;
+
+    /**
+     * Creates a writer which appends to a stream.
+     *
+     * @param out
+     *            The stream to write to.
+     * @param writeHeader
+     *            True if the stream is at the start of the file.
+     */
+    public ColumnarWriter(OutputStream out, boolean writeHeader) throws IOException {
+	this.out = new DataOutputStream(out);
+	this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+	this.encoders = new ColumnEncoder[Column.values().length];
+	for (Column column : Column.values())
+	    encoders[column.ordinal()] = isString(column) ? new StringEncoder()
+		    : new IntEncoder();
+	this.rows = 0;
+
+	if (writeHeader) {
+	    this.out.write(MAGIC);
+	    this.out.writeInt(VERSION);
+	}
+    }
+
+    /**
+     * Creates a writer for a new file.
+     */
+    public ColumnarWriter(File file) throws IOException {
+	this(new FileOutputStream(file), true);
+    }
+
+    /**
+     * Checks that rows can be appended to an existing file, whose blocks must have
+     * the columns of this version.
+     *
+     * @throws IOException
+     *             if the file is not a columnar data set of this version.
+     */
+    public static void checkAppendable(File file) throws IOException {
+	try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+	    byte[] magic = new byte[MAGIC.length];
+	    in.readFully(magic);
+	    if (!Arrays.equals(magic, MAGIC))
+		throw new IOException(file + " is not a columnar data set.");
+	    int version = in.readInt();
+	    if (version != VERSION)
+		throw new IOException("Cannot append to " + file + ", which is version "
+			+ version + " of the columnar format.");
+	} catch (EOFException e) {
+	    throw new IOException(file + " is not a columnar data set.");
+	}
+    }
+
+    /**
+     * Adds a row to the current block.
+     *
+     * @return True if the block was full and has been written, so that all the
+     *         rows written so far have been handed to the stream.
+     */
+    public boolean write(AnnotationRow row) throws IOException {
+	encoders[Column.PROJECT.ordinal()].add(row.getProject());
+	encoders[Column.COMMIT.ordinal()].add(row.getCommit());
+	encoders[Column.TIMESTAMP.ordinal()].add(row.getTimestamp());
+	encoders[Column.FILE.ordinal()].add(row.getFile());
+	encoders[Column.OLD_SOURCE.ordinal()].add(row.getOldSource());
+	encoders[Column.NEW_SOURCE.ordinal()].add(row.getNewSource());
+	encoders[Column.LABEL.ordinal()].add(row.getLabel());
+	encoders[Column.LINE.ordinal()].add(row.getLine());
+	encoders[Column.POSITION.ordinal()].add(row.getPosition());
+	encoders[Column.MATCHER.ordinal()]
+		.add(row.getMatcher() == null ? UNKNOWN : row.getMatcher());
+	rows++;
+
+	if (rows < BLOCK_ROWS)
+	    return false;
+	flush();
+	return true;
+    }
+
+    /**
+     * @return The number of rows in the current block, which have not been
+     *         written.
+     */
+    public int getPendingRows() {
+	return rows;
+    }
+
+    /**
+     * Writes the current block, even if it is not full, and flushes the stream.
+     */
+    public void flush() throws IOException {
+	if (rows > 0) {
+	    out.writeInt(rows);
+	    for (ColumnEncoder encoder : encoders) {
+		byte[] raw = encoder.finish();
+		byte[] compressed = compress(raw);
+		out.writeInt(raw.length);
+		out.writeInt(compressed.length);
+		out.write(compressed);
+	    }
+	    rows = 0;
+	}
+	out.flush();
+    }
+
+    /**
+     * Writes the current block and closes the stream.
+     */
+    @Override
+    public void close() throws IOException {
+	try {
+	    flush();
+	} finally {
+	    deflater.end();
+	    out.close();
+	}
+    }
+
+    private byte[] compress(byte[] raw) {
+	deflater.reset();
+	deflater.setInput(raw);
+	deflater.finish();
+	ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+	byte[] buffer = new byte[8192];
+	while (!deflater.finished()) {
+	    int n = deflater.deflate(buffer);
+	    compressed.write(buffer, 0, n);
+	}
+	return compressed.toByteArray();
+    }
+
+    /**
+     * @return The number of columns in the blocks of a version of the format.
+     */
+    static int getColumnCount(int version) {
+	return version == 1 ? Column.MATCHER.ordinal() : Column.values().length;
+    }
+
+    /**
+     * @return True if the column is dictionary encoded.
+     */
+    static boolean isString(Column column) {
+	switch (column) {
+	case TIMESTAMP:
+	case LINE:
+	case POSITION:
+	    return false;
+	default:
+	    return true;
+	}
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, int value) {
+	while ((value & ~0x7F) != 0) {
+	    out.write((value & 0x7F) | 0x80);
+	    value >>>= 7;
+	}
+	out.write(value);
+    }
+
+    /**
+     * Encodes the values of one column of a block.
+     */
+    private static abstract class ColumnEncoder {
+
+	void add(String value) {
+	    throw new IllegalStateException();
+	}
+
+	void add(int value) {
+	    throw new IllegalStateException();
+	}
+
+	/**
+	 * @return The encoded column, and resets the encoder for the next block.
+	 */
+	abstract byte[] finish();
+
+    }
+
+    private static class StringEncoder extends ColumnEncoder {
+
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+	private ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+	private ByteArrayOutputStream values = new ByteArrayOutputStream();
+
+	@Override
+	void add(String value) {
+	    Integer id = ids.get(value);
+	    if (id == null) {
+		id = ids.size();
+		ids.put(value, id);
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarint(dictionary, bytes.length);
+		dictionary.write(bytes, 0, bytes.length);
+	    }
+	    writeVarint(values, id);
+	}
+
+	@Override
+	byte[] finish() {
+	    ByteArrayOutputStream column = new ByteArrayOutputStream(
+		    dictionary.size() + values.size() + 5);
+	    writeVarint(column, ids.size());
+	    column.write(dictionary.toByteArray(), 0, dictionary.size());
+	    column.write(values.toByteArray(), 0, values.size());
+	    ids.clear();
+	    dictionary.reset();
+	    values.reset();
+	    return column.toByteArray();
+	}
+
+    }
+
+    private static class IntEncoder extends ColumnEncoder {
+
+	private ByteArrayOutputStream values = new ByteArrayOutputStream();
+	private int previous = 0;
+
+	@Override
+	void add(int value) {
+	    int delta = value - previous;
+	    writeVarint(values, (delta << 1) ^ (delta >> 31));
+	    previous = value;
+	}
+
+	@Override
+	byte[] finish() {
+	    byte[] column = values.toByteArray();
+	    values.reset();
+	    previous = 0;
+	    return column;
+	}
+
+    }
+
+}
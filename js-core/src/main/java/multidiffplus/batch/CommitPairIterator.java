@@ -0,0 +1,165 @@
+package multidiffplus.batch;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+/**
+ * Lazily walks the history of a repository (most recent commit first) and
+ * yields the revision identifier pair of each commit. Nothing is read ahead, so
+ * the first pair is available as soon as HEAD has been parsed.
+ *
+ * Filters are pushed down: the {@code RevFilter} is applied by the walk itself
+ * (e.g., to select a date range or message), and the signature filter is
+ * applied before a pair is yielded (e.g., to skip merges or checkpointed
+ * commits).
+ *
+ * The walk may be limited to the commits made since a previous walk (e.g.,
+ * {@code since..HEAD}). Commits which are reachable from {@code since} are not
+ * visited, so if the history was rewritten (e.g., by a force push), the walk
+ * stops at the merge base of {@code since} and HEAD.
+ *
+ * The iterator must be closed to release the walk.
+ */
+public class CommitPairIterator implements Iterator<CommitSignature>, AutoCloseable {
+
+    /** Walks the history. **/
+    private RevWalk walk;
+
+    /** Selects the pairs which are yielded. **/
+    private Predicate<CommitSignature> filter;
+
+    /** The next pair to yield, or {@code null} if it has not been found yet. **/
+    private CommitSignature next;
+
+    /** The commit the walk started from, or {@code null} if there is no history. **/
+    private ObjectId head;
+
+    /** Set when the walk has no more commits. **/
+    private boolean done;
+
+    /**
+     * @param repository
+     *            The repository to walk.
+     * @param revFilter
+     *            Selects the commits the walk visits.
+     * @param filter
+     *            Selects the pairs which are yielded.
+     * @throws IOException
+     *             if HEAD cannot be parsed.
+     */
+    public CommitPairIterator(Repository repository, RevFilter revFilter,
+	    Predicate<CommitSignature> filter) throws IOException {
+	this(repository, null, revFilter, filter);
+    }
+
+    /**
+     * @param repository
+     *            The repository to walk.
+     * @param since
+     *            The commit the previous walk started from, or {@code null} to walk
+     *            the whole history. It must be in the repository.
+     * @param revFilter
+     *            Selects the commits the walk visits.
+     * @param filter
+     *            Selects the pairs which are yielded.
+     * @throws IOException
+     *             if HEAD or {@code since} cannot be parsed.
+     */
+    public CommitPairIterator(Repository repository, ObjectId since, RevFilter revFilter,
+	    Predicate<CommitSignature> filter) throws IOException {
+
+	this.walk = new RevWalk(repository);
+	this.filter = filter;
+	this.next = null;
+	this.done = false;
+
+	this.head = repository.resolve(Constants.HEAD);
+	if (head == null) {
+	    /* An empty repository has no history. */
+	    this.done = true;
+	    return;
+	}
+
+	walk.setRevFilter(revFilter);
+	walk.markStart(walk.parseCommit(head));
+	if (since != null)
+	    walk.markUninteresting(walk.parseCommit(since));
+
+    }
+
+    /**
+     * @return The commit the walk started from (HEAD), or {@code null} if the
+     *         repository has no history.
+     */
+    public ObjectId getHead() {
+	return head;
+    }
+
+    @Override
+    public boolean hasNext() {
+	while (next == null && !done) {
+	    RevCommit commit;
+	    try {
+		commit = walk.next();
+	    } catch (MissingObjectException e) {
+		throw new IllegalStateException("The history is missing an object.", e);
+	    } catch (IOException e) {
+		throw new IllegalStateException("Could not read the history.", e);
+	    }
+
+	    if (commit == null) {
+		done = true;
+		break;
+	    }
+
+	    CommitSignature commitSignature = GitProject.getCommitSignature(commit);
+
+	    /* The walk keeps visited commits; the message is no longer needed. */
+	    commit.disposeBody();
+
+	    if (filter.test(commitSignature))
+		next = commitSignature;
+	}
+	return next != null;
+    }
+
+    @Override
+    public CommitSignature next() {
+	if (!hasNext())
+	    throw new NoSuchElementException();
+	CommitSignature commitSignature = next;
+	next = null;
+	return commitSignature;
+    }
+
+    /**
+     * @return A sequential stream of the remaining pairs. Closing the stream closes
+     *         the iterator.
+     */
+    public Stream<CommitSignature> stream() {
+	return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+		Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false)
+		.onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+	done = true;
+	walk.close();
+    }
+
+}
@@ -0,0 +1,181 @@
+package multidiffplus.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Counts the files and lines of the files selected by the path rules in the
+ * HEAD tree of a repository. The blobs are read directly from the object
+ * database by several threads (each with its own {@code ObjectReader}).
+ *
+ * Results are cached in the repository's git directory, keyed by the tree id
+ * and the path rules, so the metrics of an unchanged HEAD are not recomputed.
+ */
+public class FileMetrics {
+
+    /** The name of the cache file in the git directory. **/
+    private static final String CACHE_FILE = "multidiffplus-metrics";
+
+    /** The number of files selected by the path rules. **/
+    private int files;
+
+    /** The number of lines in the files selected by the path rules. **/
+    private long lines;
+
+    private FileMetrics(int files, long lines) {
+	this.files = files;
+	this.lines = lines;
+    }
+
+    /** @return The number of files selected by the path rules. */
+    public int getFiles() {
+	return files;
+    }
+
+    /** @return The number of lines in the files selected by the path rules. */
+    public long getLines() {
+	return lines;
+    }
+
+    /**
+     * Computes (or reads from the cache) the metrics of the HEAD tree.
+     *
+     * @param repository
+     *            The repository to measure.
+     * @param pathRules
+     *            Selects the files to count.
+     * @param nThreads
+     *            The number of threads which read blobs.
+     * @return The metrics, which are zero if the repository has no HEAD.
+     * @throws IOException
+     */
+    public static FileMetrics compute(Repository repository, PathRules pathRules, int nThreads)
+	    throws IOException {
+
+	ObjectId tree = repository.resolve(Constants.HEAD + "^{tree}");
+	if (tree == null)
+	    return new FileMetrics(0, 0);
+
+	/* The cache is keyed by the tree and the rules which select the files. */
+	String key = tree.name() + " " + pathRules.getFingerprint();
+	File cache = new File(repository.getDirectory(), CACHE_FILE);
+
+	FileMetrics cached = readCache(cache, key);
+	if (cached != null)
+	    return cached;
+
+	/* Find the blobs selected by the path rules. */
+	List<ObjectId> blobs = new ArrayList<ObjectId>();
+	try (TreeWalk treeWalk = new TreeWalk(repository)) {
+	    treeWalk.addTree(tree);
+	    treeWalk.setRecursive(true);
+	    treeWalk.setFilter(pathRules.toTreeFilter());
+	    while (treeWalk.next()) {
+		if (treeWalk.getFileMode(0).getObjectType() == Constants.OBJ_BLOB)
+		    blobs.add(treeWalk.getObjectId(0));
+	    }
+	}
+
+	/* Count the lines of each share of the blobs on a separate thread. */
+	nThreads = Math.max(1, Math.min(nThreads, blobs.size()));
+	ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+	long lines = 0;
+	try {
+	    List<Future<Long>> shares = new ArrayList<Future<Long>>();
+	    for (int i = 0; i < nThreads; i++) {
+		List<ObjectId> share = blobs.subList(i * blobs.size() / nThreads,
+			(i + 1) * blobs.size() / nThreads);
+		shares.add(executor.submit(() -> countLines(repository, share)));
+	    }
+	    for (Future<Long> share : shares)
+		lines += share.get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Interrupted while counting lines.", e);
+	} catch (ExecutionException e) {
+	    throw new IOException("Could not count lines: " + e.getCause().getMessage(),
+		    e.getCause());
+	} finally {
+	    executor.shutdown();
+	}
+
+	FileMetrics metrics = new FileMetrics(blobs.size(), lines);
+	writeCache(cache, key, metrics);
+	return metrics;
+
+    }
+
+    /**
+     * Counts the lines in a set of blobs. The last line is counted even if it
+     * does not end with a newline.
+     */
+    private static long countLines(Repository repository, List<ObjectId> blobs)
+	    throws IOException {
+	long lines = 0;
+	byte[] buffer = new byte[8192];
+	try (ObjectReader reader = repository.newObjectReader()) {
+	    for (ObjectId blob : blobs) {
+		try (InputStream in = reader.open(blob, Constants.OBJ_BLOB).openStream()) {
+		    byte last = '\n';
+		    for (int n; (n = in.read(buffer)) > 0;) {
+			for (int i = 0; i < n; i++) {
+			    if (buffer[i] == '\n')
+				lines++;
+			}
+			last = buffer[n - 1];
+		    }
+		    if (last != '\n')
+			lines++;
+		}
+	    }
+	}
+	return lines;
+    }
+
+    /**
+     * @return The cached metrics for the key, or {@code null} if there are none.
+     */
+    private static FileMetrics readCache(File cache, String key) {
+	if (!cache.exists())
+	    return null;
+	try (BufferedReader br = new BufferedReader(new FileReader(cache))) {
+	    for (String line; (line = br.readLine()) != null;) {
+		String[] entry = line.split(" ");
+		if (entry.length == 4 && line.startsWith(key + " "))
+		    return new FileMetrics(Integer.parseInt(entry[2]), Long.parseLong(entry[3]));
+	    }
+	} catch (IOException | NumberFormatException e) {
+	    System.err.println("Ignoring metrics cache " + cache + ": " + e.getMessage());
+	}
+	return null;
+    }
+
+    /**
+     * Appends the metrics for the key to the cache.
+     */
+    private static synchronized void writeCache(File cache, String key, FileMetrics metrics) {
+	try (PrintStream stream = new PrintStream(new FileOutputStream(cache, true))) {
+	    stream.println(key + " " + metrics.files + " " + metrics.lines);
+	} catch (IOException e) {
+	    System.err.println("Could not write metrics cache " + cache + ": " + e.getMessage());
+	}
+    }
+
+}
@@ -1,14 +1,12 @@
 package multidiffplus.batch;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -21,11 +19,13 @@ import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.InvalidRemoteException;
 import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryBuilder;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.kohsuke.github.GHRepository;
 import org.kohsuke.github.GitHub;
 
@@ -37,6 +37,14 @@ import multidiffplus.commit.Commit.Type;
 public class GitProject {
     protected final Logger logger = LogManager.getLogger(GitProject.class);
 
+    /** Labels merge commits from their commit message. **/
+    private static final Pattern MERGE_PATTERN = Pattern.compile("merge",
+	    Pattern.CASE_INSENSITIVE);
+
+    /** Labels bug fixing commits from their commit message. **/
+    private static final Pattern BUG_FIX_PATTERN = Pattern.compile("(fix|bug|repair)",
+	    Pattern.CASE_INSENSITIVE);
+
     /** The Git instance. **/
     protected Git git;
 
@@ -61,6 +69,15 @@ public class GitProject {
     /** The number of commit authors (uniquely identified by their emails) **/
     protected Integer numberAuthors;
 
+    /** Selects the commits which are mined. **/
+    protected RevFilter commitFilter = RevFilter.ALL;
+
+    /** The types of commits which are mined. **/
+    protected Set<Type> commitTypes = EnumSet.complementOf(EnumSet.of(Type.MERGE));
+
+    /** Selects the files which are mined and measured. **/
+    protected PathRules pathRules = PathRules.defaults();
+
     /** The number of javascript files **/
     protected Integer numberOfFiles;
 
@@ -115,35 +132,35 @@ public class GitProject {
 
     public Integer getTotalCommits() {
 	if (this.totalCommits == null)
-	    getCommitPairs();
+	    getHistoryMetrics();
 
 	return this.totalCommits;
     }
 
     public Integer getBugFixingCommits() {
 	if (this.mergeCommits == null || this.totalCommits == null)
-	    getCommitPairs();
+	    getHistoryMetrics();
 
 	return this.mergeCommits - this.totalCommits;
     }
 
     public Integer getNumberAuthors() {
 	if (this.numberAuthors == null)
-	    getCommitPairs();
+	    getHistoryMetrics();
 
 	return this.numberAuthors;
     }
 
     public Date getLastCommitDate() {
 	if (this.lastCommitDate == null)
-	    getCommitPairs();
+	    getHistoryMetrics();
 
 	return this.lastCommitDate;
     }
 
     public Date getFirstCommitDate() {
 	if (this.firstCommitDate == null)
-	    getCommitPairs();
+	    getHistoryMetrics();
 
 	return this.firstCommitDate;
     }
@@ -195,39 +212,25 @@ public class GitProject {
     }
 
     /**
-     * Uses the command line tool "ohcount" to get the number of javascript files
-     * and the number of javascript lines of code on the repository
+     * Sets the rules which select the files to mine (and measure).
      */
-    protected void getFilesMetrics() {
-	Runtime runtime = Runtime.getRuntime();
-	Process process;
-
-	String[] command = { "/bin/sh", "-c",
-		"ohcount " + repository.getDirectory().getParent().toString()
-			+ " | grep javascript | tr -s ' ' | cut -d ' ' -f 2,3" };
+    public void setPathRules(PathRules pathRules) {
+	this.pathRules = pathRules;
+	this.numberOfFiles = null;
+	this.numberOfLines = null;
+    }
 
+    /**
+     * Counts the number of javascript files and the number of javascript lines of
+     * code at HEAD. Only the files selected by the path rules are counted.
+     */
+    protected void getFilesMetrics() {
 	try {
-	    /* Check if ohcount is available */
-	    process = runtime.exec("which ohcount");
-	    process.waitFor();
-	    if (process.exitValue() != 0)
-		throw new RuntimeException(
-			"Could not find ohcount command tool. Perphaphs not installed?");
-
-	    /* Run command */
-	    process = runtime.exec(command);
-	    process.waitFor();
-
-	    /* Get the output */
-	    BufferedReader bufferedReader = new BufferedReader(
-		    new InputStreamReader(process.getInputStream()));
-	    String[] output = bufferedReader.readLine().split(" ");
-
-	    this.numberOfFiles = Integer.parseInt(output[0]);
-	    this.numberOfLines = Integer.parseInt(output[1]);
-
-	    bufferedReader.close();
-	} catch (IOException | InterruptedException e) {
+	    FileMetrics metrics = FileMetrics.compute(repository, pathRules,
+		    Runtime.getRuntime().availableProcessors());
+	    this.numberOfFiles = metrics.getFiles();
+	    this.numberOfLines = (int) Math.min(Integer.MAX_VALUE, metrics.getLines());
+	} catch (IOException e) {
 	    e.printStackTrace();
 
 	    this.numberOfFiles = 0;
@@ -236,22 +239,63 @@ public class GitProject {
     }
 
     /**
-     * Extracts revision identifier pairs from bug fixing commits. The pair includes
-     * the bug fixing commit and the previous (buggy) commit.
+     * Sets the filter which selects the commits to mine (e.g., a date range). The
+     * filter is applied by the history walk.
+     */
+    public void setCommitFilter(RevFilter commitFilter) {
+	this.commitFilter = commitFilter;
+    }
+
+    /**
+     * Sets the types of commits (inferred from the commit message) to mine.
+     */
+    public void setCommitTypes(Set<Type> commitTypes) {
+	this.commitTypes = EnumSet.copyOf(commitTypes);
+    }
+
+    /**
+     * Lazily walks the history, most recent commit first, and yields the revision
+     * identifier pair of each commit which passes the commit filter and has one
+     * of the commit types. The caller must close the iterator.
      *
-     * @param git
-     *            The project git instance.
-     * @param repository
-     *            The project git repository.
-     * @param buggyRevision
-     *            The hash that identifies the buggy revision.
-     * @param bugFixingRevision
-     *            The hash that identifies the fixed revision.
+     * @param filter
+     *            An additional filter on the pairs (e.g., to skip commits which
+     *            were already mined).
      * @throws IOException
-     * @throws GitAPIException
+     *             if HEAD cannot be read.
      */
-    protected List<CommitSignature> getCommitPairs() {
-	List<CommitSignature> bugFixingCommits = new ArrayList<CommitSignature>();
+    public CommitPairIterator commitPairs(Predicate<CommitSignature> filter)
+	    throws IOException {
+	return commitPairs(null, filter);
+    }
+
+    /**
+     * Lazily walks the history made since a commit (i.e., {@code since..HEAD}). If
+     * the history was rewritten, the walk stops at the merge base of
+     * {@code since} and HEAD. The caller must close the iterator.
+     *
+     * @param since
+     *            The commit which was HEAD when the history was last walked, or
+     *            {@code null} to walk the whole history.
+     * @param filter
+     *            An additional filter on the pairs.
+     * @throws IOException
+     *             if HEAD or {@code since} cannot be read.
+     */
+    public CommitPairIterator commitPairs(ObjectId since, Predicate<CommitSignature> filter)
+	    throws IOException {
+	Set<Type> types = this.commitTypes;
+	return new CommitPairIterator(repository, since, commitFilter,
+		commitSignature -> types.contains(commitSignature.getType())
+			&& filter.test(commitSignature));
+    }
+
+    /**
+     * Computes the history metrics (number of commits and authors, and the dates
+     * of the first and last commits). This is a separate pass over the whole
+     * history, so it is only run when one of the metrics is requested.
+     */
+    protected void getHistoryMetrics() {
 	int mergeCommits = 0, commitCounter = 0;
 
 	Set<String> authorsEmails = new HashSet<>();
@@ -267,7 +311,7 @@ public class GitProject {
 	    commits = git.log().call();
 	} catch (GitAPIException e) {
 	    e.printStackTrace();
-	    return bugFixingCommits;
+	    return;
 	}
 
 	/* Starts with the most recent commit and goes back in time. */
@@ -279,36 +323,8 @@ public class GitProject {
 	    PersonIdent authorIdent = commit.getAuthorIdent();
 	    authorsEmails.add(authorIdent.getEmailAddress());
 
-	    /* Try to infer the commit type from the commit message. */
-	    Type commitMessageType = Type.OTHER;
-	    String message = commit.getFullMessage();
 	    commitCounter++;
 
-	    /* Merge pattern */
-	    Pattern pEx = Pattern.compile("merge", Pattern.CASE_INSENSITIVE);
-	    Matcher mEx = pEx.matcher(message);
-
-	    /* Bug fixing commit pattern */
-	    Pattern pBFC = Pattern.compile("(fix|bug|repair)", Pattern.CASE_INSENSITIVE);
-	    Matcher mBFC = pBFC.matcher(message);
-
-	    if (mEx.find())
-		commitMessageType = Type.MERGE;
-	    else if (mBFC.find())
-		commitMessageType = Type.BUG_FIX;
-
-	    /*
-	     * If the commit message contains one of our fix keywords, label it as a bug
-	     * fixing commit.
-	     */
-	    if (commit.getParentCount() > 0) {
-		bugFixingCommits.add(new CommitSignature(commit.getParent(0).name(), commit.name(),
-			commitMessageType, commit.getCommitTime()));
-	    } else {
-		bugFixingCommits.add(new CommitSignature(null, commit.name(), commitMessageType,
-			commit.getCommitTime()));
-	    }
-
 	    /*
 	     * First commit on iteration is most recent one (what we call "last")
 	     */
@@ -321,6 +337,9 @@ public class GitProject {
 	     */
 	    firstCommitDate = authorIdent.getWhen();
 
+	    /* We only need the author, so don't keep the message in memory. */
+	    commit.disposeBody();
+
 	}
 
 	/* Keep track of the number of commits and other metrics for reporting. */
@@ -329,8 +348,36 @@ public class GitProject {
 	this.numberAuthors = authorsEmails.size();
 	this.lastCommitDate = lastCommitDate;
 	this.firstCommitDate = firstCommitDate;
+    }
+
+    /**
+     * Builds the revision identifier pair for a commit. The pair includes the
+     * commit and its first parent (or {@code null} for a root commit).
+     *
+     * @param commit
+     *            The commit.
+     * @return The signature of the commit, labeled with the commit type inferred
+     *         from the commit message.
+     */
+    protected static CommitSignature getCommitSignature(RevCommit commit) {
+
+	/* Try to infer the commit type from the commit message. */
+	Type commitMessageType = Type.OTHER;
+	String message = commit.getFullMessage();
+
+	if (MERGE_PATTERN.matcher(message).find())
+	    commitMessageType = Type.MERGE;
+	else if (BUG_FIX_PATTERN.matcher(message).find())
+	    commitMessageType = Type.BUG_FIX;
+
+	if (commit.getParentCount() > 0) {
+	    return new CommitSignature(commit.getParent(0).name(), commit.name(),
+		    commitMessageType, commit.getCommitTime());
+	} else {
+	    return new CommitSignature(null, commit.name(), commitMessageType,
+		    commit.getCommitTime());
+	}
 
-	return bugFixingCommits;
     }
 
     /**
@@ -1,53 +1,107 @@
 package multidiffplus.batch;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.lang3.time.StopWatch;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.eclipse.jgit.api.DiffCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.InvalidRemoteException;
 import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.errors.IncorrectObjectTypeException;
-import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectReader;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
-import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
+import multidiffplus.analysis.Budget;
+import multidiffplus.analysis.BudgetExceededException;
 import multidiffplus.analysis.CommitAnalysis;
 import multidiffplus.commit.Commit;
-import multidiffplus.commit.Commit.Type;
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.factories.ICommitAnalysisFactory;
 import multidiffplus.facts.Annotation;
+import multidiffplus.facts.FactContext;
 import multidiffplus.facts.MiningFactBase;
 
 /**
- * Performs analysis on a Git project using an AnalysisRunner
+ * Performs analysis on a Git project using an AnalysisRunner.
+ *
+ * Commits flow through a pipeline of stages connected by bounded queues: a
+ * producer walks the history, fetch threads diff the trees and read the blobs,
+ * the commit analysis (AST diff and flow analysis) runs on the commit executor,
+ * and the calling thread writes the results in commit order. The stages
+ * overlap, and the number of commits in the pipeline is bounded regardless of
+ * the length of the history.
  */
 public class GitProjectAnalysis extends GitProject {
 
     protected static final Logger logger = LogManager.getLogger(GitProjectAnalysis.class);
 
+    /** How long a blocked stage waits before checking if the pipeline stopped. **/
+    private static final long POLL_MILLIS = 100;
+
     /** Runs an analysis on a source file. **/
     private ICommitAnalysisFactory commitAnalysisFactory;
 
-    /** Directory to write source code to. **/
+    /** Directory to store the snapshots of the source code in. **/
     private File sourceDir;
 
     /** CSV file to write results to. **/
     private File csvFile;
 
+    /**
+     * The maximum number of commits which may be in the pipeline (produced but not
+     * yet flushed) at once. Bounds the memory used by commits which are waiting
+     * for their predecessors to finish.
+     */
+    private int maxPendingCommits = 4 * Runtime.getRuntime().availableProcessors();
+
+    /** The number of threads which diff trees and read blobs. **/
+    private int fetchThreads = 2;
+
+    /** The number of commits which may wait for a fetch thread. **/
+    private int fetchQueueDepth = 16;
+
+    /** The number of fetched commits which may wait for the commit executor. **/
+    private int analysisQueueDepth = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** The number of bytes of decoded file contents to cache for the project. **/
+    private long blobCacheSize = 64L * 1024 * 1024;
+
+    /** Selects the files to mine. **/
+    private TreeFilter pathFilter = PathRules.defaults().toTreeFilter();
+
+    /** The directory to store progress checkpoints (if null, there are none). **/
+    private File checkpointDir = null;
+
+    /** The progress of the current analysis (if null, progress is not saved). **/
+    private Checkpoint checkpoint = null;
+
+    /** Stores the commit each project was last mined up to (if null, none are). **/
+    private WatermarkStore watermarks = null;
+
+    /** The format of the output file. **/
+    private ResultWriter.Format outputFormat = ResultWriter.Format.LINES;
+
+    /** Writes the results of the current analysis (if null, they are not stored). **/
+    private ResultWriter resultWriter = null;
+
+    /** Stores the source code which the results refer to. **/
+    private SnapshotStore snapshotStore = null;
+
     /**
      * Constructor that is used by our static factory methods.
      */
@@ -60,157 +114,333 @@ public class GitProjectAnalysis extends GitProject {
     }
 
     /**
-     * Analyze the repository (extract repairs).
+     * Analyze the repository (extract repairs). Commits are analyzed on the fetch
+     * threads.
      *
      * @throws GitAPIException
      * @throws IOException
      */
     public void analyze() throws GitAPIException, IOException, Exception {
+	analyze(null);
+    }
+
+    /**
+     * Analyze the repository (extract repairs). Each fetched commit is submitted
+     * as a separate task to {@code commitExecutor}, which may be shared by several
+     * projects. Results are flushed in commit order on the calling thread, so the
+     * output is the same as a serial analysis.
+     *
+     * @param commitExecutor
+     *            The executor which runs the commit analyses, or {@code null} to
+     *            analyze the commits on the fetch threads.
+     * @throws GitAPIException
+     * @throws IOException
+     */
+    public void analyze(ExecutorService commitExecutor)
+	    throws GitAPIException, IOException, Exception {
 
-	/* Time the analysis so we can stop if it gets out of hand. */
-	StopWatch projectTimer = new StopWatch();
-	projectTimer.start();
+	/* A run which runs out of time only records the commits it mined in the checkpoint. */
+	if (watermarks != null && checkpointDir == null)
+	    throw new IllegalStateException("A watermark directory requires a checkpoint directory.");
 
 	long startTime = System.currentTimeMillis();
 	logger.info("[START ANALYSIS] {}", this.getURI());
 
-	/* Get the list of bug fixing commits from version history. */
-	List<CommitSignature> commitSignatures = this.getCommitPairs();
+	/* Resume from where a previous run left off. */
+	if (checkpointDir != null)
+	    checkpoint = Checkpoint.open(checkpointDir, this.projectID);
 
-	logger.info(" [ANALYZING] {} bug fixing commits", commitSignatures.size());
+	/* Results are written by a writer shared with the other projects. */
+	if (csvFile != null)
+	    resultWriter = ResultWriter.forFile(csvFile, outputFormat);
+	if (sourceDir != null)
+	    snapshotStore = SnapshotStore.open(sourceDir);
+
+	/* Only mine the commits made since the last run. */
+	Pipeline pipeline = new Pipeline(commitExecutor, getWatermark());
+
+	/* The HEAD which every commit up to has been mined. */
+	ObjectId minedHead = null;
+
+	try {
 
-	/* Analyze the changes made in each bug fixing commit. */
-	for (CommitSignature commitSignature : commitSignatures) {
+	    pipeline.start();
 
-	    /* Abort if the analysis goes over 10 minutes. */
-	    if (projectTimer.getTime() > 600000) {
-		logger.warn(" [WARNING] {} aborting due to project timeout", this.getURI());
-		break;
+	    /*
+	     * Write stage: flush the commits in the order they were produced. Handing a
+	     * commit to the result writer waits while its queue is full, so the commits
+	     * in the pipeline stay bounded when the disk falls behind.
+	     */
+	    for (PendingCommit pendingCommit; (pendingCommit = pipeline.writeQueue
+		    .take()) != PendingCommit.END;) {
+		this.flushCommit(pendingCommit);
+		pipeline.inFlight.release();
 	    }
 
-	    try {
-		this.analyzeDiff(commitSignature);
-	    } catch (Exception e) {
-		logger.error("[ERROR] {}, {}", commitSignature.getNewRevision(), e.getMessage());
-		e.printStackTrace();
+	    /*
+	     * Commits which were skipped by a project timeout must be mined again. The
+	     * walk is most recent commit first, so the watermark can not cover the commits
+	     * which were mined. They are skipped by the next run, since they are marked in
+	     * the checkpoint.
+	     */
+	    if (!pipeline.projectBudget.isExceeded())
+		minedHead = pipeline.walkedHead;
+	    else if (watermarks != null)
+		logger.warn(" [WARNING] {} watermark not advanced, resume from the checkpoint",
+			getURI());
+
+	} finally {
+
+	    pipeline.stop();
+
+	    /* The checkpoint is marked by the writer, so wait for it. */
+	    if (resultWriter != null) {
+		resultWriter.sync();
+		resultWriter = null;
+	    }
+
+	    if (checkpoint != null) {
+		checkpoint.close();
+		checkpoint = null;
 	    }
 
 	}
 
+	/* The results are on disk, so the next run can start from here. */
+	if (watermarks != null && minedHead != null)
+	    watermarks.put(this.projectID, minedHead);
+
 	long endTime = System.currentTimeMillis();
-	logger.info("[END ANALYSIS] {}. Time (in seconds): {} ", this.getURI(),
-		(endTime - startTime) / 1000.0);
+	logger.info("[END ANALYSIS] {}. {} commits. Time (in seconds): {} ", this.getURI(),
+		pipeline.produced.get(), (endTime - startTime) / 1000.0);
     }
 
     /**
-     * Extract the source files from Git and analyze them with the analysis runner.
-     *
-     * @param buggyRevision
-     *            The hash that identifies the buggy revision.
-     * @param bugFixingRevision
-     *            The hash that identifies the fixed revision.
-     * @param bugFixingCommit
-     *            True if the commit is labeled as a bug fixing commit (from NLP).
-     * @throws IOException
-     * @throws GitAPIException
+     * Sets the format of the output file: CSV rows ({@code LINES}) or the
+     * compressed columnar format.
      */
-    private void analyzeDiff(CommitSignature commitSignature)
-	    throws IOException, GitAPIException, Exception {
+    public void setOutputFormat(ResultWriter.Format outputFormat) {
+	this.outputFormat = outputFormat;
+    }
 
-	ObjectId buggy = this.repository.resolve(commitSignature.getOldRevision() + "^{tree}");
-	ObjectId repaired = this.repository.resolve(commitSignature.getNewRevision() + "^{tree}");
+    /**
+     * Sets the maximum number of commits which may be in the pipeline at once.
+     */
+    public void setMaxPendingCommits(int maxPendingCommits) {
+	this.maxPendingCommits = Math.max(1, maxPendingCommits);
+    }
 
-	ObjectReader reader = this.repository.newObjectReader();
+    /**
+     * Sets the number of threads which diff trees and read blobs.
+     */
+    public void setFetchThreads(int fetchThreads) {
+	this.fetchThreads = Math.max(1, fetchThreads);
+    }
 
-	CanonicalTreeParser buggyTreeIter = new CanonicalTreeParser();
-	if (commitSignature.getOldRevision() != null)
-	    buggyTreeIter.reset(reader, buggy);
-	else
-	    buggyTreeIter.reset();
+    /**
+     * Sets the number of commits which may wait for a fetch thread.
+     */
+    public void setFetchQueueDepth(int fetchQueueDepth) {
+	this.fetchQueueDepth = Math.max(1, fetchQueueDepth);
+    }
 
-	CanonicalTreeParser repairedTreeIter = new CanonicalTreeParser();
-	repairedTreeIter.reset(reader, repaired);
+    /**
+     * Sets the number of fetched commits which may wait for the commit executor.
+     */
+    public void setAnalysisQueueDepth(int analysisQueueDepth) {
+	this.analysisQueueDepth = Math.max(1, analysisQueueDepth);
+    }
 
-	DiffCommand diffCommand = this.git.diff().setShowNameAndStatusOnly(true)
-		.setOldTree(buggyTreeIter).setNewTree(repairedTreeIter);
+    /**
+     * Sets the number of bytes of decoded file contents to cache while analyzing
+     * the project. Zero disables the cache.
+     */
+    public void setBlobCacheSize(long blobCacheSize) {
+	this.blobCacheSize = Math.max(0, blobCacheSize);
+    }
 
-	List<DiffEntry> diffs = diffCommand.call();
+    /**
+     * Sets the rules which select the files to mine.
+     */
+    @Override
+    public void setPathRules(PathRules pathRules) {
+	super.setPathRules(pathRules);
+	this.pathFilter = pathRules.toTreeFilter();
+    }
 
-	/* The {@code Commit} is meta data and a set of source code changes. */
-	Commit commit = new Commit(this.projectID, this.projectHomepage,
-		commitSignature.getOldRevision(), commitSignature.getNewRevision(),
-		commitSignature.getType(), commitSignature.getTimestamp());
+    /**
+     * Sets the directory where progress is checkpointed. Commits which were
+     * completed or quarantined by a previous run with the same directory are
+     * skipped.
+     */
+    public void setCheckpointDirectory(File checkpointDir) {
+	this.checkpointDir = checkpointDir;
+    }
 
-	/* Skip merge commits. */
-	if (commit.commitMessageType == Type.MERGE) {
-	    logger.info("[SKIP_COMMIT] merge commit: " + commit.repairedCommitID);
+    /**
+     * Sets the directory where the commit each project was last mined up to is
+     * stored. The next analysis with the same directory only mines the commits
+     * made since (i.e., {@code watermark..HEAD}) and appends their results to the
+     * output. If the history was rewritten, the commits since the merge base are
+     * mined.
+     *
+     * The watermark is only advanced once every commit since the previous watermark
+     * has been mined. A run which goes over the project's budget only records the
+     * commits it mined in the checkpoint, so a checkpoint directory must be set too.
+     */
+    public void setWatermarkDirectory(File watermarkDir) {
+	this.watermarks = watermarkDir == null ? null : new WatermarkStore(watermarkDir);
+    }
+
+    /**
+     * @return The commit the project was last mined up to, or {@code null} if the
+     *         whole history must be mined.
+     */
+    private ObjectId getWatermark() throws IOException {
+	if (watermarks == null)
+	    return null;
+	ObjectId watermark = watermarks.get(this.projectID);
+	if (watermark != null && !repository.getObjectDatabase().has(watermark)) {
+	    /* e.g., the commit was removed by a force push and garbage collected. */
+	    logger.warn(" [WARNING] {} watermark {} is not in the repository", getURI(),
+		    watermark.name());
+	    return null;
+	}
+	if (watermark != null)
+	    logger.info("[INCREMENTAL] {} mining commits since {}", getURI(), watermark.name());
+	return watermark;
+    }
+
+    /**
+     * Waits for a commit analysis to finish and flushes its results. The facts of
+     * the commit are released once its rows are built.
+     */
+    private void flushCommit(PendingCommit pendingCommit)
+	    throws IOException, InterruptedException {
+	try (FactContext facts = pendingCommit.facts) {
+	    flushCommit(pendingCommit, facts);
+	}
+    }
+
+    private void flushCommit(PendingCommit pendingCommit, FactContext facts)
+	    throws IOException, InterruptedException {
+
+	Commit commit;
+	try {
+	    commit = pendingCommit.result.get();
+	} catch (ExecutionException e) {
+	    logger.error("[ERROR] {}", e.getCause().getMessage());
+	    this.quarantine(pendingCommit.signature, null, e.getCause());
 	    return;
 	}
 
+	/* Commits which were aborted (e.g., by the project's budget) must be mined again. */
+	if (pendingCommit.aborted)
+	    return;
+
 	/*
-	 * Iterate through the modified files and add them as {@code
-	 * SourceCodeFileChange}s in the commit.
+	 * Hand the results of the analysis to the writer. The checkpoint is marked
+	 * once the rows are on disk, so that the recorded offset covers exactly the
+	 * rows of the commits which are marked as done.
 	 */
-	for (DiffEntry diff : diffs) {
+	List<AnnotationRow> rows = new ArrayList<AnnotationRow>();
+	Map<String, String> snapshots = new LinkedHashMap<String, String>();
 
-	    /* Skip files in dist folder. */
-	    if (diff.getNewPath().matches("^dist/.*$")
-		    || diff.getNewPath().matches("^.*/dist/.*$")) {
-		logger.info("[SKIP_FILE] dist file: " + diff.getNewPath());
-		continue;
-	    }
+	if (commit != null && sourceDir != null && csvFile != null) {
+	    for (SourceCodeFileChange fileChange : commit.sourceCodeFileChanges) {
 
-	    /*
-	     * Skip files in lib folder. TODO: Projects often store their own code in the
-	     * lib folder, so skipping everything is bad. Maybe a heuristic?
-	     */
-	    // if (diff.getNewPath().matches("^lib/.*$") ||
-	    // diff.getNewPath().matches("^.*/lib/.*$")) {
-	    // logger.info("[SKIP_FILE] lib file: " + diff.getNewPath());
-	    // continue;
-	    // }
-
-	    /* Skip files in bin folder. */
-	    if (diff.getNewPath().matches("^bin/.*$") || diff.getNewPath().matches("^.*/bin/.*$")) {
-		logger.info("[SKIP_FILE] bin file: " + diff.getNewPath());
-		continue;
-	    }
+		/* Files which used up their budget have incomplete facts. */
+		if (fileChange.abandonedReason != null) {
+		    checkpointTimeout(pendingCommit.signature, fileChange);
+		    continue;
+		}
 
-	    /* Skip test files. */
-	    if (diff.getNewPath().matches("^.*test.*$")
-		    || diff.getNewPath().matches("^.*test.*$")) {
-		logger.info("[SKIP_FILE] test file: " + diff.getNewPath());
-		continue;
+		getResults(commit, fileChange, facts.getMiningFactBase(fileChange), rows,
+			snapshots);
 	    }
+	}
 
-	    /* Skip files inside node modules. */
-	    if (diff.getNewPath().matches("^.*node_modules/.*$")) {
-		logger.info("[SKIP_FILE] node module or plugin file: " + diff.getNewPath());
-		continue;
-	    }
+	if (resultWriter != null)
+	    resultWriter.write(new ResultWriter.Record(rows, snapshotStore, snapshots,
+		    checkpoint, pendingCommit.signature.getNewRevision()));
+	else if (checkpoint != null)
+	    checkpoint.markDone(pendingCommit.signature.getNewRevision(), 0);
 
-	    /* Skip jquery files. */
-	    if (diff.getNewPath().matches("^.*jquery.*$")
-		    || diff.getNewPath().matches("^.*jquery.*$")) {
-		logger.info("[SKIP_FILE] jquery file: " + diff.getNewPath());
-		continue;
-	    }
+    }
 
-	    /* Skip gulp files. */
-	    if (diff.getNewPath().matches("^.*gulpfile.js$")) {
-		logger.info("[SKIP_FILE] gulp file: " + diff.getNewPath());
-		continue;
-	    }
+    /**
+     * Records that a commit (or one file in a commit) failed, so that it is not
+     * analyzed again when the analysis is resumed.
+     */
+    private void quarantine(CommitSignature commitSignature, String file, Throwable cause) {
+	if (checkpoint == null)
+	    return;
+	try {
+	    checkpoint.quarantine(commitSignature.getNewRevision(), file, cause.toString());
+	} catch (IOException e) {
+	    logger.error("[ERROR] could not write checkpoint: {}", e.getMessage());
+	}
+    }
+
+    /**
+     * Writes a timeout record for a file which was abandoned.
+     */
+    private void checkpointTimeout(CommitSignature commitSignature,
+	    SourceCodeFileChange fileChange) {
+	logger.warn("[TIMEOUT] {} {} {}", commitSignature.getNewRevision(),
+		fileChange.repairedFile, fileChange.abandonedReason);
+	if (checkpoint == null)
+	    return;
+	try {
+	    checkpoint.quarantine(commitSignature.getNewRevision(), fileChange.repairedFile,
+		    "TIMEOUT " + fileChange.abandonedReason);
+	} catch (IOException e) {
+	    logger.error("[ERROR] could not write checkpoint: {}", e.getMessage());
+	}
+    }
 
-	    /* Skip minified files. */
-	    if (diff.getNewPath().endsWith(".min.js") || diff.getNewPath().endsWith(".min.js")) {
-		logger.info("[SKIP_FILE] Skipping minifed file: " + diff.getNewPath());
+    /**
+     * Extract the source files of a commit from Git.
+     *
+     * @param commitSignature
+     *            The buggy and bug fixing revisions.
+     * @param blobs
+     *            The calling thread's blob reader.
+     * @return The commit and its file changes.
+     * @throws IOException
+     */
+    private Commit fetchCommit(CommitSignature commitSignature, BlobReader blobs)
+	    throws IOException {
+
+	/* The {@code Commit} is meta data and a set of source code changes. */
+	Commit commit = new Commit(this.projectID, this.projectHomepage,
+		commitSignature.getOldRevision(), commitSignature.getNewRevision(),
+		commitSignature.getType(), commitSignature.getTimestamp());
+
+	/*
+	 * Compare the two trees (this also gives us the blob ids of each file). Paths
+	 * which are excluded by the path rules (e.g., dist, tests, node_modules and
+	 * non-js files) are filtered out during the tree walk.
+	 */
+	List<DiffEntry> diffs = blobs.diff(commitSignature.getOldRevision(),
+		commitSignature.getNewRevision(), pathFilter);
+
+	/*
+	 * Iterate through the modified files and add them as {@code
+	 * SourceCodeFileChange}s in the commit.
+	 */
+	for (DiffEntry diff : diffs) {
+
+	    /* Skip deleted files (there is nothing to analyze after the commit). */
+	    if (diff.getChangeType() == DiffEntry.ChangeType.DELETE) {
+		logger.info("[SKIP_FILE] deleted file: " + diff.getOldPath());
 		continue;
 	    }
 
-	    /* Skip anything that is not a js file. */
-	    if (!diff.getNewPath().endsWith(".js") || !diff.getNewPath().endsWith(".js")) {
-		logger.info("[SKIP_FILE] Skipping non-js file: " + diff.getNewPath());
+	    /* Skip files which were quarantined by a previous run. */
+	    if (checkpoint != null
+		    && checkpoint.isQuarantined(commit.repairedCommitID, diff.getNewPath())) {
+		logger.info("[SKIP_FILE] quarantined file: " + diff.getNewPath());
 		continue;
 	    }
 
@@ -220,16 +450,38 @@ public class GitProjectAnalysis extends GitProject {
 
 	    /* Add this source code file change to the commit. */
 
-	    String oldFile = commitSignature.getOldRevision() == null ? ""
-		    : this.fetchBlob(commitSignature.getOldRevision(), diff.getOldPath());
-
-	    String newFile = this.fetchBlob(commitSignature.getNewRevision(), diff.getNewPath());
+	    String oldFile = blobs.read(diff.getOldId().toObjectId());
+	    String newFile = blobs.read(diff.getNewId().toObjectId());
 
-	    commit.addSourceCodeFileChange(new SourceCodeFileChange(diff.getOldPath(),
-		    diff.getNewPath(), oldFile, newFile));
+	    SourceCodeFileChange sourceCodeFileChange = new SourceCodeFileChange(
+		    diff.getOldPath(), diff.getNewPath(), oldFile, newFile);
+	    sourceCodeFileChange.setBlobIDs(diff.getOldId().name(), diff.getNewId().name());
+	    commit.addSourceCodeFileChange(sourceCodeFileChange);
 
 	}
 
+	return commit;
+
+    }
+
+    /**
+     * Analyze the source files of a commit with the analysis runner.
+     *
+     * @param commitSignature
+     *            The buggy and bug fixing revisions.
+     * @param commit
+     *            The commit and its file changes.
+     * @param facts
+     *            Stores the facts from the analysis.
+     * @param commitAnalysis
+     *            The commit analysis of the pipeline.
+     * @return The analyzed commit, or {@code null} if its analysis failed.
+     * @throws BudgetExceededException
+     *             if the project's budget ran out before the commit was analyzed.
+     */
+    private Commit analyzeCommit(CommitSignature commitSignature, Commit commit,
+	    FactContext facts, CommitAnalysis commitAnalysis) {
+
 	/* Run the {@code CommitAnalysis} through the AnalysisRunner. */
 
 	try {
@@ -237,133 +489,401 @@ public class GitProjectAnalysis extends GitProject {
 	    System.out.println(commit.url + "/commit/" + commit.repairedCommitID);
 
 	    /* Run the analysis with GumTree diff. */
-	    CommitAnalysis commitAnalysis = commitAnalysisFactory.newInstance();
-	    commitAnalysis.analyze(commit);
+	    commitAnalysis.analyze(commit, facts);
 
-	    /* Flush the results of the analysis to persistent storage. */
-	    if (sourceDir != null && csvFile != null) {
-
-		for (SourceCodeFileChange fileChange : commit.sourceCodeFileChanges) {
-		    flushToFile(commit, fileChange, sourceDir, csvFile);
-		}
-
-	    }
+	    /* The results are flushed in commit order by the project's thread. */
+	    return commit;
 
+	} catch (BudgetExceededException e) {
+	    /* The project's budget is not the commit's fault, so don't quarantine it. */
+	    System.err.println("[TIMEOUT] " + e.getMessage() + ": " + commit.repairedCommitID);
+	    if (e.getLevel() == Budget.Level.PROJECT)
+		throw e;
+	    this.quarantine(commitSignature, null, e);
 	} catch (Exception ignore) {
 	    System.err.println("Ignoring exception in ProjectAnalysis.runSDJSB.\nBuggy Revision: "
 		    + commitSignature.getOldRevision() + "\nBug Fixing Revision: "
 		    + commitSignature.getNewRevision());
 	    ignore.printStackTrace();
+	    this.quarantine(commitSignature, null, ignore);
 	} catch (Error e) {
 	    System.err.println("Ignoring error in ProjectAnalysis.runSDJSB.\nBuggy Revision: "
 		    + commitSignature.getOldRevision() + "\nBug Fixing Revision: "
 		    + commitSignature.getNewRevision());
 	    e.printStackTrace();
+	    this.quarantine(commitSignature, null, e);
 	}
 
+	return null;
+
     }
 
     /**
-     * Fetches the string contents of a file from a specific revision. from
-     * http://stackoverflow.com/questions/1685228/how-to-cat-a-file-in-jgit
-     *
-     * @param repo
-     *            The repository to fetch the file from.
-     * @param revSpec
-     *            The commit id.
-     * @param path
-     *            The path to the file.
-     * @return The contents of the text file.
-     * @throws MissingObjectException
-     * @throws IncorrectObjectTypeException
-     * @throws IOException
+     * A commit which is in the pipeline. The result is completed once the commit
+     * has been analyzed (or skipped).
      */
-    private String fetchBlob(String revSpec, String path)
-	    throws MissingObjectException, IncorrectObjectTypeException, IOException {
-
-	// Resolve the revision specification
-	final ObjectId id = this.repository.resolve(revSpec);
-
-	// Makes it simpler to release the allocated resources in one go
-	try (ObjectReader reader = this.repository.newObjectReader()) {
-	    try (RevWalk walk = new RevWalk(reader)) {
-		// Get the commit object for that revision
-		RevCommit commit = walk.parseCommit(id);
-
-		// Get the revision's file tree
-		RevTree tree = commit.getTree();
-		// .. and narrow it down to the single file's path
-		TreeWalk treewalk = TreeWalk.forPath(reader, path, tree);
-
-		if (treewalk != null) {
-		    // use the blob id to read the file's data
-		    byte[] data = reader.open(treewalk.getObjectId(0)).getBytes();
-		    return new String(data, "utf-8");
-		} else {
-		    return "";
-		}
-	    }
+    private static class PendingCommit {
+
+	/** Marks the end of a queue. **/
+	private static final PendingCommit END = new PendingCommit(null);
+
+	private CommitSignature signature;
+	private CompletableFuture<Commit> result;
+
+	/** Set if the commit was not analyzed, so it must not be marked as done. **/
+	private volatile boolean aborted;
+
+	/** The facts of the commit, released when the commit is flushed. **/
+	private FactContext facts;
+
+	private PendingCommit(CommitSignature signature) {
+	    this.signature = signature;
+	    this.result = new CompletableFuture<Commit>();
+	    this.facts = new FactContext();
+	    this.aborted = false;
+	}
+
+	/**
+	 * Completes a commit which will not be analyzed by this run.
+	 */
+	private void abort() {
+	    aborted = true;
+	    result.complete(null);
 	}
 
     }
 
     /**
-     * Appends the annotations to a file for persistent storage.
-     * 
-     * @throws IOException
-     *             if a path does not exist.
+     * The producer and fetch stages of one analysis, and the queues which connect
+     * the stages. The write stage runs on the thread which called
+     * {@code analyze}.
      */
-    private static synchronized void flushToFile(Commit commit,
-	    SourceCodeFileChange sourceCodeFileChange, File sourceDir, File csvFile)
-	    throws IOException {
+    private class Pipeline {
 
-	MiningFactBase factBase = MiningFactBase.getInstance(sourceCodeFileChange);
+	/** Commits waiting for a fetch thread. **/
+	private BlockingQueue<PendingCommit> fetchQueue;
 
-	if (csvFile == null
-		// || commit.sourceCodeFileChanges.size() > 1
-		// || factBase.getUpdatedStatements() > 6
-		// || factBase.getInsertedStatements() > 0
-		// || factBase.getRemovedStatements() > 0
-		|| factBase.getAnnotations().isEmpty())
-	    return;
+	/**
+	 * Commits in the order they must be flushed. Not bounded itself, since the
+	 * number of commits in the pipeline is bounded by {@code inFlight}.
+	 */
+	private BlockingQueue<PendingCommit> writeQueue;
 
-	/*
-	 * Write the src/dst files to disk so that we can run a flow analysis on them
-	 * later.
+	/** Permits for commits in the pipeline (released once flushed). **/
+	private Semaphore inFlight;
+
+	/** Permits for commits waiting for or running on the commit executor. **/
+	private Semaphore analysisSlots;
+
+	/** Runs the commit analyses (if null, they run on the fetch threads). **/
+	private ExecutorService commitExecutor;
+
+	/** Analyzes the commits. It is stateless, so the threads share it. **/
+	private CommitAnalysis commitAnalysis;
+
+	/** The decoded file contents, shared by the fetch threads. **/
+	private BlobCache blobCache;
+
+	/** Limits the time spent on the project. **/
+	private Budget projectBudget;
+
+	/** The number of commits produced. **/
+	private AtomicInteger produced;
+
+	/** The commit the history was walked from (if null, the walk has not finished). **/
+	private volatile ObjectId walkedHead;
+
+	/** The commit the previous analysis was walked from (if null, there was none). **/
+	private ObjectId since;
+
+	/** Set when the pipeline is shutting down. **/
+	private volatile boolean stopped;
+
+	private Thread producer;
+	private List<Thread> fetchers;
+
+	private Pipeline(ExecutorService commitExecutor, ObjectId since) {
+	    this.fetchQueue = new ArrayBlockingQueue<PendingCommit>(fetchQueueDepth);
+	    this.writeQueue = new LinkedBlockingQueue<PendingCommit>();
+	    this.inFlight = new Semaphore(maxPendingCommits);
+	    this.analysisSlots = new Semaphore(analysisQueueDepth);
+	    this.commitExecutor = commitExecutor;
+	    this.commitAnalysis = commitAnalysisFactory.newInstance();
+	    this.blobCache = new BlobCache(blobCacheSize);
+	    this.projectBudget = Budget.create(Budget.Level.PROJECT);
+	    this.produced = new AtomicInteger(0);
+	    this.since = since;
+	    this.walkedHead = null;
+	    this.stopped = false;
+	    this.fetchers = new ArrayList<Thread>();
+	}
+
+	private void start() {
+	    producer = new Thread(this::produce, "produce-" + projectID);
+	    producer.start();
+	    for (int i = 0; i < fetchThreads; i++) {
+		Thread fetcher = new Thread(this::fetch, "fetch-" + projectID + "-" + i);
+		fetchers.add(fetcher);
+		fetcher.start();
+	    }
+	}
+
+	/**
+	 * Stops the producer and fetch stages and waits for the commits which are
+	 * still being analyzed.
 	 */
-	File srcFile = new File(sourceDir, sourceCodeFileChange.getID() + "_old.js");
-	File dstFile = new File(sourceDir, sourceCodeFileChange.getID() + "_new.js");
+	private void stop() throws InterruptedException {
 
-	sourceDir.mkdirs();
-	srcFile.createNewFile();
-	dstFile.createNewFile();
+	    stopped = true;
+
+	    /* Abort the analyses which are still running. */
+	    projectBudget.cancel();
+
+	    producer.join();
+	    for (Thread fetcher : fetchers)
+		fetcher.join();
+
+	    /* Commits which were never fetched will not be analyzed. */
+	    for (PendingCommit pendingCommit : fetchQueue) {
+		if (pendingCommit != PendingCommit.END)
+		    pendingCommit.abort();
+	    }
+
+	    /* Commits which are on the commit executor may still be running. */
+	    for (PendingCommit pendingCommit : writeQueue) {
+		if (pendingCommit == PendingCommit.END)
+		    continue;
+		try {
+		    pendingCommit.result.get();
+		} catch (ExecutionException ignore) {
+		}
+	    }
 
-	try (PrintStream stream = new PrintStream(new FileOutputStream(srcFile, false))) {
-	    stream.print(sourceCodeFileChange.buggyCode);
 	}
 
-	try (PrintStream stream = new PrintStream(new FileOutputStream(dstFile, false))) {
-	    stream.print(sourceCodeFileChange.repairedCode);
+	/**
+	 * Producer stage: walks the history (most recent commit first) and feeds the
+	 * commits to the fetch and write stages.
+	 */
+	private void produce() {
+
+	    /* Skip commits which were finished or quarantined by a previous run. */
+	    try (CommitPairIterator commitPairs = commitPairs(since, this::isNotCheckpointed)) {
+
+		while (true) {
+
+		    if (stopped)
+			break;
+
+		    /* The whole history has been walked. */
+		    if (!commitPairs.hasNext()) {
+			walkedHead = commitPairs.getHead();
+			break;
+		    }
+
+		    /* Abort if the analysis goes over the project's budget. */
+		    if (projectBudget.isExceeded()) {
+			logger.warn(" [WARNING] {} aborting due to project timeout", getURI());
+			break;
+		    }
+
+		    CommitSignature commitSignature = commitPairs.next();
+
+		    /* Wait for room in the pipeline. */
+		    while (!inFlight.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+			if (stopped)
+			    return;
+		    }
+
+		    PendingCommit pendingCommit = new PendingCommit(commitSignature);
+		    writeQueue.put(pendingCommit);
+		    if (!offer(fetchQueue, pendingCommit)) {
+			pendingCommit.abort();
+			return;
+		    }
+		    produced.incrementAndGet();
+
+		}
+
+	    } catch (IOException | InterruptedException e) {
+		logger.error("[ERROR] {}, {}", getURI(), e.getMessage());
+	    } catch (RuntimeException e) {
+		/* The history walk failed (e.g., a corrupt object). */
+		logger.error("[ERROR] {}, {}", getURI(), e.getMessage());
+		e.printStackTrace();
+	    } finally {
+
+		/* Tell the fetch threads and the writer that there are no more commits. */
+		try {
+		    for (int i = 0; i < fetchThreads; i++)
+			offer(fetchQueue, PendingCommit.END);
+		    writeQueue.put(PendingCommit.END);
+		} catch (InterruptedException e) {
+		    logger.error("[ERROR] {}, {}", getURI(), e.getMessage());
+		}
+
+	    }
+
 	}
 
-	/* Write the annotations to the CSV file. */
-	csvFile.getParentFile().mkdirs();
-	csvFile.createNewFile();
+	/**
+	 * @return {@code false} if the commit was finished or quarantined by a
+	 *         previous run.
+	 */
+	private boolean isNotCheckpointed(CommitSignature commitSignature) {
+	    String commitID = commitSignature.getNewRevision();
+	    if (checkpoint != null
+		    && (checkpoint.isDone(commitID) || checkpoint.isQuarantined(commitID))) {
+		logger.info("[SKIP_COMMIT] checkpointed commit: " + commitID);
+		return false;
+	    }
+	    return true;
+	}
 
-	try (PrintStream stream = new PrintStream(new FileOutputStream(csvFile, true))) {
+	/**
+	 * Fetch stage: diffs the trees and reads the blobs of each commit, then hands
+	 * the commit to the commit executor.
+	 */
+	private void fetch() {
 
-	    /* Write the data set. */
-	    for (Annotation annotation : factBase.getAnnotations()) {
-		stream.println(commit.toString() + "," + commit.timestamp + ","
-			+ sourceCodeFileChange.toString() + "," + srcFile.getName() + ","
-			+ dstFile.getName() + "," + annotation.getLabel() + ","
-			+ annotation.getLine());
+	    try (BlobReader blobs = new BlobReader(repository, blobCache)) {
+
+		for (PendingCommit pendingCommit; (pendingCommit = poll(
+			fetchQueue)) != PendingCommit.END && pendingCommit != null;) {
+
+		    CommitSignature commitSignature = pendingCommit.signature;
+
+		    Commit commit;
+		    try {
+			commit = fetchCommit(commitSignature, blobs);
+		    } catch (Exception e) {
+			logger.error("[ERROR] {}, {}", commitSignature.getNewRevision(),
+				e.getMessage());
+			e.printStackTrace();
+			quarantine(commitSignature, null, e);
+			commit = null;
+		    } catch (Error e) {
+			pendingCommit.result.completeExceptionally(e);
+			continue;
+		    }
+
+		    /* Failed commits go straight to the writer. */
+		    if (commit == null) {
+			pendingCommit.result.complete(null);
+			continue;
+		    }
+
+		    analyze(pendingCommit, commit);
+
+		}
+
+	    } catch (InterruptedException e) {
+		logger.error("[ERROR] {}, {}", getURI(), e.getMessage());
+	    }
+
+	}
+
+	/**
+	 * Analysis stage: runs the commit analysis on the commit executor (or on the
+	 * calling thread if there is no executor).
+	 */
+	private void analyze(PendingCommit pendingCommit, Commit commit)
+		throws InterruptedException {
+
+	    Runnable task = () -> {
+		try (Budget.Entered project = projectBudget.enter();
+			Budget.Entered commitBudget = Budget.open(Budget.Level.COMMIT)) {
+		    pendingCommit.result.complete(analyzeCommit(pendingCommit.signature, commit,
+			    pendingCommit.facts, commitAnalysis));
+		} catch (BudgetExceededException e) {
+		    pendingCommit.abort();
+		} catch (Throwable t) {
+		    pendingCommit.result.completeExceptionally(t);
+		}
+	    };
+
+	    if (commitExecutor == null) {
+		task.run();
+		return;
+	    }
+
+	    /* Wait for room in the analysis queue. */
+	    while (!analysisSlots.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+		if (stopped) {
+		    pendingCommit.abort();
+		    return;
+		}
+	    }
+
+	    try {
+		commitExecutor.execute(() -> {
+		    try {
+			task.run();
+		    } finally {
+			analysisSlots.release();
+		    }
+		});
+	    } catch (RejectedExecutionException e) {
+		analysisSlots.release();
+		pendingCommit.result.completeExceptionally(e);
 	    }
 
 	}
 
-	/* We are done with the factbase and can recover the memory. */
-	MiningFactBase.removeInstance(sourceCodeFileChange);
+	/**
+	 * Adds an item to a bounded queue, giving up if the pipeline stops.
+	 *
+	 * @return {@code false} if the pipeline stopped before there was room.
+	 */
+	private boolean offer(BlockingQueue<PendingCommit> queue, PendingCommit item)
+		throws InterruptedException {
+	    while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+		if (stopped)
+		    return false;
+	    }
+	    return true;
+	}
+
+	/**
+	 * Takes an item from a queue, giving up if the pipeline stops.
+	 *
+	 * @return The item, or {@code null} if the pipeline stopped.
+	 */
+	private PendingCommit poll(BlockingQueue<PendingCommit> queue)
+		throws InterruptedException {
+	    for (PendingCommit item; !stopped;) {
+		if ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) != null)
+		    return item;
+	    }
+	    return null;
+	}
+
+    }
+
+    /**
+     * Builds the rows for the annotations of a file change, and the snapshots of
+     * the source code to store so that we can run a flow analysis on them later.
+     * The rows refer to the snapshots by their git blob IDs.
+     */
+    private static void getResults(Commit commit, SourceCodeFileChange sourceCodeFileChange,
+	    MiningFactBase factBase, List<AnnotationRow> rows, Map<String, String> snapshots) {
+
+	if (!factBase.getAnnotations().isEmpty()) {
+
+	    String oldSource = sourceCodeFileChange.getBuggyBlobID();
+	    String newSource = sourceCodeFileChange.getRepairedBlobID();
+
+	    snapshots.put(oldSource, sourceCodeFileChange.buggyCode);
+	    snapshots.put(newSource, sourceCodeFileChange.repairedCode);
+
+	    for (Annotation annotation : factBase.getAnnotations()) {
+		rows.add(new AnnotationRow(commit.url, commit.repairedCommitID,
+			commit.timestamp, sourceCodeFileChange.toString(), oldSource, newSource,
+			annotation.getLabel(), annotation.getLine(),
+			annotation.getAbsolutePosition(), sourceCodeFileChange.matcher));
+	    }
+
+	}
 
     }
 
@@ -382,7 +902,7 @@ public class GitProjectAnalysis extends GitProject {
      * @param commitAnalysis
      *            The analysis to run on each commit.
      * @param sourceDir
-     *            The directory to write source files.
+     *            The directory to store the snapshots of the source code in.
      * @param outFile
      *            The file to output results (if null, no results will be stored)
      * @return An instance of GitProjectAnalysis.
@@ -396,6 +916,25 @@ public class GitProjectAnalysis extends GitProject {
 	return new GitProjectAnalysis(gitProject, commitAnalysisFactory, sourceDir, outFile);
     }
 
+    /**
+     * Creates a new GitProjectAnalysis instance from a repository which has
+     * already been acquired (e.g., by {@link RepositoryAcquisition}).
+     *
+     * @param gitProject
+     *            The cloned repository.
+     * @param commitAnalysis
+     *            The analysis to run on each commit.
+     * @param sourceDir
+     *            The directory to store the snapshots of the source code in.
+     * @param outFile
+     *            The file to output results (if null, no results will be stored)
+     * @return An instance of GitProjectAnalysis.
+     */
+    public static GitProjectAnalysis fromGitProject(GitProject gitProject,
+	    ICommitAnalysisFactory commitAnalysisFactory, File sourceDir, File outFile) {
+	return new GitProjectAnalysis(gitProject, commitAnalysisFactory, sourceDir, outFile);
+    }
+
     /**
      * Creates a new GitProjectAnalysis instance from a URI.
      *
@@ -409,7 +948,7 @@ public class GitProjectAnalysis extends GitProject {
      * @param commitAnalysis
      *            The analysis to run on each commit.
      * @param sourceDir
-     *            The directory to write source files.
+     *            The directory to store the snapshots of the source code in.
      * @param outFile
      *            The file to output results (if null, no results will be stored)
      * @return An instance of GitProjectAnalysis.
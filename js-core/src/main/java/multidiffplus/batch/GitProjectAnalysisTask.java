@@ -2,6 +2,7 @@ package multidiffplus.batch;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -16,16 +17,27 @@ public class GitProjectAnalysisTask implements Callable<Void> {
 
 	private GitProjectAnalysis gitProjectAnalysis;
 	private CountDownLatch latch;
+	private ExecutorService commitExecutor;
 
 	public GitProjectAnalysisTask(GitProjectAnalysis gitProjectAnalysis, CountDownLatch latch) {
+		this(gitProjectAnalysis, latch, null);
+	}
+
+	/**
+	 * @param commitExecutor The (possibly shared) executor which analyzes the
+	 * 		  project's commits, or {@code null} to analyze them on this task's thread.
+	 */
+	public GitProjectAnalysisTask(GitProjectAnalysis gitProjectAnalysis, CountDownLatch latch,
+			ExecutorService commitExecutor) {
 		this.gitProjectAnalysis = gitProjectAnalysis;
 		this.latch = latch;
+		this.commitExecutor = commitExecutor;
 	}
 
 	@Override
 	public Void call() throws Exception {
 		try {
-			gitProjectAnalysis.analyze();
+			gitProjectAnalysis.analyze(commitExecutor);
 		} catch (Exception e) {
 			System.err.println("[ERR] Exception on GitProjectAnalysisTask");
 			e.printStackTrace();
@@ -0,0 +1,231 @@
+package multidiffplus.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Selects which files in a repository are mined. The rules are read from a
+ * file (see {@code path-rules.txt} for the format and the default rules) and
+ * compiled once into a single pattern for the exclude rules and a single
+ * pattern for the include rules.
+ *
+ * The rules are applied as a JGit {@code TreeFilter}, so excluded directories
+ * (e.g., {@code node_modules/}) are never descended into and excluded files
+ * never reach the diff.
+ */
+public class PathRules {
+
+    /** The classpath location of the default rules. **/
+    private static final String DEFAULT_RULES = "/multidiffplus/batch/path-rules.txt";
+
+    /** Matches any path which is excluded, or {@code null} if none are. **/
+    private Pattern exclude;
+
+    /** Matches any path which is included, or {@code null} if all are. **/
+    private Pattern include;
+
+    private PathRules(Pattern exclude, Pattern include) {
+	this.exclude = exclude;
+	this.include = include;
+    }
+
+    /**
+     * @param path
+     *            The path of a file, relative to the root of the repository.
+     * @return {@code true} if the file should be mined.
+     */
+    public boolean accepts(String path) {
+	if (exclude != null && exclude.matcher(path).matches())
+	    return false;
+	return include == null || include.matcher(path).matches();
+    }
+
+    /**
+     * @param path
+     *            The path of a directory, relative to the root of the repository.
+     * @return {@code true} if the directory may contain files which should be
+     *         mined.
+     */
+    public boolean acceptsDirectory(String path) {
+	return exclude == null || !exclude.matcher(path + "/").matches();
+    }
+
+    /**
+     * @return A string which identifies the rules (e.g., for cache keys).
+     */
+    public String getFingerprint() {
+	String rules = String.valueOf(exclude) + "\n" + String.valueOf(include);
+	return Integer.toHexString(rules.hashCode());
+    }
+
+    /**
+     * @return A tree filter which applies these rules during a tree walk.
+     */
+    public TreeFilter toTreeFilter() {
+	return new RulesFilter();
+    }
+
+    /**
+     * @return The default rules, which skip build output, tests, third party
+     *         code and non-JavaScript files.
+     */
+    public static PathRules defaults() {
+	try (InputStream in = PathRules.class.getResourceAsStream(DEFAULT_RULES)) {
+	    return parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+	} catch (IOException e) {
+	    throw new IllegalStateException("Could not read the default path rules.", e);
+	}
+    }
+
+    /**
+     * @param file
+     *            The file containing the rules.
+     * @return The compiled rules.
+     * @throws IOException
+     *             if the file cannot be read or contains a malformed rule.
+     */
+    public static PathRules fromFile(File file) throws IOException {
+	try (Reader reader = new FileReader(file)) {
+	    return parse(reader);
+	}
+    }
+
+    /**
+     * Reads and compiles the rules.
+     */
+    private static PathRules parse(Reader reader) throws IOException {
+
+	List<String> excludes = new LinkedList<String>();
+	List<String> includes = new LinkedList<String>();
+
+	BufferedReader br = new BufferedReader(reader);
+	int lineNumber = 0;
+	for (String line; (line = br.readLine()) != null;) {
+	    lineNumber++;
+	    line = line.trim();
+
+	    /* Skip blank lines and comments. */
+	    if (line.isEmpty() || line.startsWith("#"))
+		continue;
+
+	    String[] rule = line.split("\\s+", 3);
+	    if (rule.length != 3)
+		throw new IOException("Malformed path rule on line " + lineNumber + ": " + line);
+
+	    String regex;
+	    switch (rule[1]) {
+	    case "glob":
+		regex = globToRegex(rule[2]);
+		break;
+	    case "regex":
+		regex = rule[2];
+		break;
+	    default:
+		throw new IOException("Unknown pattern type on line " + lineNumber + ": " + rule[1]);
+	    }
+
+	    switch (rule[0]) {
+	    case "exclude":
+		excludes.add(regex);
+		break;
+	    case "include":
+		includes.add(regex);
+		break;
+	    default:
+		throw new IOException("Unknown rule type on line " + lineNumber + ": " + rule[0]);
+	    }
+
+	}
+
+	return new PathRules(compile(excludes), compile(includes));
+
+    }
+
+    /**
+     * Combines the patterns into one alternation, so each path is matched once.
+     *
+     * @return The combined pattern, or {@code null} if there are no patterns.
+     */
+    private static Pattern compile(List<String> regexes) {
+	if (regexes.isEmpty())
+	    return null;
+	StringBuilder alternation = new StringBuilder();
+	for (String regex : regexes) {
+	    if (alternation.length() > 0)
+		alternation.append('|');
+	    alternation.append("(?:").append(regex).append(')');
+	}
+	return Pattern.compile(alternation.toString());
+    }
+
+    /**
+     * Converts a glob to a regular expression. {@code **} matches any number of
+     * directories, {@code *} and {@code ?} match within one path segment.
+     */
+    public static String globToRegex(String glob) {
+	StringBuilder regex = new StringBuilder();
+	for (int i = 0; i < glob.length(); i++) {
+	    char c = glob.charAt(i);
+	    if (glob.startsWith("**/", i)) {
+		regex.append("(?:.*/)?");
+		i += 2;
+	    } else if (glob.startsWith("**", i)) {
+		regex.append(".*");
+		i += 1;
+	    } else if (c == '*') {
+		regex.append("[^/]*");
+	    } else if (c == '?') {
+		regex.append("[^/]");
+	    } else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+		regex.append('\\').append(c);
+	    } else {
+		regex.append(c);
+	    }
+	}
+	return regex.toString();
+    }
+
+    /**
+     * Applies the rules to the entries of a tree walk. Excluded subtrees are not
+     * entered when the walk is recursive.
+     */
+    private class RulesFilter extends TreeFilter {
+
+	@Override
+	public boolean include(TreeWalk walker) {
+	    if (walker.isSubtree())
+		return acceptsDirectory(walker.getPathString());
+	    return accepts(walker.getPathString());
+	}
+
+	@Override
+	public boolean shouldBeRecursive() {
+	    return false;
+	}
+
+	@Override
+	public TreeFilter clone() {
+	    /* The rules are immutable. */
+	    return this;
+	}
+
+	@Override
+	public String toString() {
+	    return "PATH_RULES";
+	}
+
+    }
+
+}
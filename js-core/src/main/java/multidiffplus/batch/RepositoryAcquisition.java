@@ -0,0 +1,222 @@
+package multidiffplus.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Clones (or pulls) repositories on a dedicated pool of threads, so that
+ * projects can be analyzed as soon as they are ready instead of waiting for
+ * every repository to be acquired.
+ *
+ * Repositories are acquired largest first, so that the projects which take the
+ * longest to analyze are started early. The size of a repository can only be
+ * estimated before it is acquired when it has been checked out before or when
+ * its remote is on the local file system (e.g., file:///path/to/project.git);
+ * other repositories are acquired afterwards, in the order they were given.
+ */
+public class RepositoryAcquisition {
+
+    protected static final Logger logger = LogManager.getLogger(RepositoryAcquisition.class);
+
+    /** Receives the repositories as they are acquired. **/
+    public interface Listener {
+
+	/**
+	 * Called on an acquisition thread once the repository is up to date.
+	 *
+	 * @param gitProject
+	 *            The cloned (or pulled) repository.
+	 * @param size
+	 *            The size of the repository on disk, in bytes.
+	 */
+	void acquired(GitProject gitProject, long size);
+
+	/**
+	 * Called on an acquisition thread when the repository could not be cloned
+	 * or pulled.
+	 */
+	void failed(String uri, Exception e);
+
+    }
+
+    /** The directory that stores the cloned repositories. **/
+    private String directory;
+
+    /** The pool which clones and pulls repositories. **/
+    private ExecutorService executor;
+
+    public RepositoryAcquisition(String directory, int nThreads) {
+	this.directory = directory;
+	this.executor = newLargestFirstPool(nThreads);
+    }
+
+    /**
+     * Schedules the acquisition of the repositories, largest first. This method
+     * does not wait for the repositories to be acquired.
+     *
+     * @param uris
+     *            The remote .git addresses.
+     * @param listener
+     *            Receives each repository once it is ready.
+     */
+    public void acquire(List<String> uris, Listener listener) {
+
+	/*
+	 * Sort before submitting, since the first tasks are handed directly to idle
+	 * threads and would otherwise bypass the priority queue.
+	 */
+	List<SizedTask> tasks = new ArrayList<SizedTask>();
+	for (String uri : uris) {
+	    tasks.add(new SizedTask(estimateSize(uri, directory), () -> {
+		try {
+		    GitProject gitProject = GitProject.fromURI(uri, directory);
+		    listener.acquired(gitProject,
+			    getSize(gitProject.repository.getDirectory()));
+		} catch (Exception e) {
+		    logger.error("[IMPORTANT] Project " + uri + " could not be acquired");
+		    listener.failed(uri, e);
+		}
+	    }));
+	}
+	tasks.sort(null);
+
+	for (SizedTask task : tasks)
+	    executor.execute(task);
+    }
+
+    /**
+     * Stops accepting repositories. Acquisitions which have been scheduled are
+     * still completed.
+     */
+    public void shutdown() {
+	executor.shutdown();
+    }
+
+    /**
+     * Wraps a task so that, when it is executed by a pool created with
+     * {@link #newLargestFirstPool(int)}, it runs before the queued tasks of
+     * smaller repositories.
+     */
+    public static Runnable sized(long size, Runnable task) {
+	return new SizedTask(size, task);
+    }
+
+    /**
+     * Creates a fixed size pool which runs the tasks wrapped by
+     * {@link #sized(long, Runnable)} largest first. Tasks must be given to
+     * {@code execute}, since {@code submit} wraps them in futures which cannot be
+     * ordered.
+     */
+    public static ExecutorService newLargestFirstPool(int nThreads) {
+	return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+		new PriorityBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Estimates the size of a repository before it is acquired.
+     *
+     * @return The size (in bytes) of the existing checkout or of the local remote,
+     *         or zero if the size is not known.
+     */
+    protected static long estimateSize(String uri, String directory) {
+	try {
+	    File checkout = getGitDirectory(uri, directory);
+	    if (checkout.exists())
+		return getSize(checkout);
+	} catch (GitProjectAnalysisException e) {
+	    return 0;
+	}
+
+	File remote = null;
+	if (uri.startsWith("file:")) {
+	    try {
+		remote = new File(new URI(uri));
+	    } catch (URISyntaxException | IllegalArgumentException e) {
+		return 0;
+	    }
+	} else if (!uri.contains("://")) {
+	    remote = new File(uri);
+	}
+
+	return remote != null && remote.exists() ? getSize(remote) : 0;
+    }
+
+    /**
+     * @return The total size (in bytes) of the files in the directory.
+     */
+    protected static long getSize(File directory) {
+	try (Stream<Path> files = Files.walk(directory.toPath())) {
+	    return files.mapToLong(file -> {
+		try {
+		    BasicFileAttributes attributes = Files.readAttributes(file,
+			    BasicFileAttributes.class);
+		    return attributes.isRegularFile() ? attributes.size() : 0;
+		} catch (IOException e) {
+		    return 0;
+		}
+	    }).sum();
+	} catch (IOException | RuntimeException e) {
+	    return 0;
+	}
+    }
+
+    /**
+     * The directory into which {@link GitProject#fromURI} clones the repository.
+     */
+    private static File getGitDirectory(String uri, String directory)
+	    throws GitProjectAnalysisException {
+	return new File(GitProject.getGitDirectory(uri, directory), ".git");
+    }
+
+    /**
+     * A task which is ordered by the size of its repository (largest first), and
+     * then by the order in which it was created.
+     */
+    private static class SizedTask implements Runnable, Comparable<SizedTask> {
+
+	private static final AtomicLong sequence = new AtomicLong();
+
+	private static final Comparator<SizedTask> ORDER = Comparator
+		.comparingLong((SizedTask task) -> -task.size)
+		.thenComparingLong(task -> task.order);
+
+	private final long size;
+	private final long order;
+	private final Runnable task;
+
+	SizedTask(long size, Runnable task) {
+	    this.size = size;
+	    this.order = sequence.getAndIncrement();
+	    this.task = task;
+	}
+
+	@Override
+	public void run() {
+	    task.run();
+	}
+
+	@Override
+	public int compareTo(SizedTask other) {
+	    return ORDER.compare(this, other);
+	}
+
+    }
+
+}
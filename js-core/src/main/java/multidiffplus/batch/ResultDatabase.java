@@ -0,0 +1,279 @@
+package multidiffplus.batch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Writes {@link AnnotationRow}s to an embedded (SQLite) database, so that a data
+ * set can be queried without loading the CSV output first.
+ *
+ * The rows are normalized into four tables:
+ *
+ * <pre>
+ * projects     (id, url)
+ * commits      (id, project_id, hash, timestamp)
+ * file_changes (id, commit_id, path, old_source, new_source, matcher)
+ * annotations  (file_change_id, label, line, position)
+ * </pre>
+ *
+ * Inserts are batched with prepared statements and are only visible once they
+ * are committed. The database is in write-ahead logging mode, so it can be
+ * queried while a run is still writing to it.
+ *
+ * Rows must be written grouped by commit and by file change (as the miner
+ * produces them). If a commit is already in the database (e.g., because a run
+ * was interrupted after writing it but before checkpointing it), its file
+ * changes and annotations are replaced.
+ *
+ * An instance is not thread safe; it is used by the thread of a
+ * {@link ResultWriter}.
+ */
+public class ResultDatabase implements Closeable {
+
+    /** The number of rows after which the batched inserts are executed. **/
+    public static final int BATCH_ROWS = 1024;
+
+    private static final String[] SCHEMA = {
+	    "CREATE TABLE IF NOT EXISTS projects (id INTEGER PRIMARY KEY, url TEXT NOT NULL UNIQUE)",
+	    "CREATE TABLE IF NOT EXISTS commits (id INTEGER PRIMARY KEY, project_id INTEGER NOT NULL REFERENCES projects(id), hash TEXT NOT NULL, timestamp INTEGER NOT NULL, UNIQUE (project_id, hash))",
+	    "CREATE TABLE IF NOT EXISTS file_changes (id INTEGER PRIMARY KEY, commit_id INTEGER NOT NULL REFERENCES commits(id), path TEXT NOT NULL, old_source TEXT, new_source TEXT, matcher TEXT)",
+	    "CREATE TABLE IF NOT EXISTS annotations (file_change_id INTEGER NOT NULL REFERENCES file_changes(id), label TEXT NOT NULL, line INTEGER NOT NULL, position INTEGER NOT NULL)",
+	    "CREATE INDEX IF NOT EXISTS annotations_label ON annotations (label)",
+	    "CREATE INDEX IF NOT EXISTS annotations_file_change ON annotations (file_change_id)",
+	    "CREATE INDEX IF NOT EXISTS file_changes_commit ON file_changes (commit_id)",
+	    "CREATE INDEX IF NOT EXISTS commits_project ON commits (project_id)" };
+
+    private Connection connection;
+
+    private PreparedStatement insertProject;
+    private PreparedStatement insertCommit;
+    private PreparedStatement insertFileChange;
+    private PreparedStatement insertAnnotation;
+    private PreparedStatement selectProject;
+    private PreparedStatement selectCommit;
+    private PreparedStatement deleteAnnotations;
+    private PreparedStatement deleteFileChanges;
+
+    /** The largest IDs in use. New rows are numbered here so inserts can be batched. **/
+    private long lastProject;
+    private long lastCommit;
+    private long lastFileChange;
+
+    /** The IDs of the projects, by URL. **/
+    private Map<String, Long> projects;
+
+    /** The commit and file change which the last row belonged to. **/
+    private String currentCommit;
+    private long currentCommitID;
+    private AnnotationRow currentFileChange;
+    private long currentFileChangeID;
+
+    /** The number of rows in the batches which have not been executed. **/
+    private int pendingRows;
+
+    /**
+     * Opens (or creates) a database.
+     */
+    public ResultDatabase(File file) throws IOException {
+	if (file.getParentFile() != null)
+	    file.getParentFile().mkdirs();
+	try {
+	    this.connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+	    try (Statement statement = connection.createStatement()) {
+		statement.execute("PRAGMA journal_mode=WAL");
+		statement.execute("PRAGMA synchronous=FULL");
+		for (String sql : SCHEMA)
+		    statement.execute(sql);
+		addMatcherColumn(statement);
+		lastProject = max(statement, "projects");
+		lastCommit = max(statement, "commits");
+		lastFileChange = max(statement, "file_changes");
+	    }
+	    connection.setAutoCommit(false);
+
+	    insertProject = connection.prepareStatement("INSERT INTO projects VALUES (?, ?)");
+	    insertCommit = connection.prepareStatement("INSERT INTO commits VALUES (?, ?, ?, ?)");
+	    insertFileChange = connection
+		    .prepareStatement("INSERT INTO file_changes VALUES (?, ?, ?, ?, ?, ?)");
+	    insertAnnotation = connection
+		    .prepareStatement("INSERT INTO annotations VALUES (?, ?, ?, ?)");
+	    selectProject = connection.prepareStatement("SELECT id FROM projects WHERE url = ?");
+	    selectCommit = connection
+		    .prepareStatement("SELECT id FROM commits WHERE project_id = ? AND hash = ?");
+	    deleteAnnotations = connection.prepareStatement(
+		    "DELETE FROM annotations WHERE file_change_id IN (SELECT id FROM file_changes WHERE commit_id = ?)");
+	    deleteFileChanges = connection
+		    .prepareStatement("DELETE FROM file_changes WHERE commit_id = ?");
+	} catch (SQLException e) {
+	    throw new IOException("Could not open the database " + file, e);
+	}
+	this.projects = new HashMap<String, Long>();
+    }
+
+    /**
+     * Adds a row to the batched inserts.
+     */
+    public void write(AnnotationRow row) throws IOException {
+	try {
+	    String commit = row.getProject() + "/commit/" + row.getCommit();
+	    if (!commit.equals(currentCommit)) {
+		currentCommitID = getCommitID(getProjectID(row.getProject()), row);
+		currentCommit = commit;
+		currentFileChange = null;
+	    }
+
+	    if (currentFileChange == null || !isSameFileChange(currentFileChange, row)) {
+		currentFileChangeID = ++lastFileChange;
+		currentFileChange = row;
+		insertFileChange.setLong(1, currentFileChangeID);
+		insertFileChange.setLong(2, currentCommitID);
+		insertFileChange.setString(3, row.getFile());
+		insertFileChange.setString(4, row.getOldSource());
+		insertFileChange.setString(5, row.getNewSource());
+		insertFileChange.setString(6, row.getMatcher());
+		insertFileChange.addBatch();
+	    }
+
+	    insertAnnotation.setLong(1, currentFileChangeID);
+	    insertAnnotation.setString(2, row.getLabel());
+	    insertAnnotation.setInt(3, row.getLine());
+	    insertAnnotation.setInt(4, row.getPosition());
+	    insertAnnotation.addBatch();
+	} catch (SQLException e) {
+	    throw new IOException("Could not insert " + row, e);
+	}
+
+	if (++pendingRows >= BATCH_ROWS)
+	    flush();
+    }
+
+    /**
+     * Executes the batched inserts. They are not visible until they are committed.
+     */
+    public void flush() throws IOException {
+	if (pendingRows == 0)
+	    return;
+	try {
+	    /* In the order of the foreign keys. */
+	    insertProject.executeBatch();
+	    insertCommit.executeBatch();
+	    insertFileChange.executeBatch();
+	    insertAnnotation.executeBatch();
+	} catch (SQLException e) {
+	    throw new IOException("Could not insert into the database", e);
+	}
+	pendingRows = 0;
+    }
+
+    /**
+     * Executes the batched inserts and commits them to disk.
+     */
+    public void commit() throws IOException {
+	flush();
+	try {
+	    connection.commit();
+	} catch (SQLException e) {
+	    throw new IOException("Could not commit to the database", e);
+	}
+    }
+
+    /**
+     * Commits the batched inserts and closes the database.
+     */
+    @Override
+    public void close() throws IOException {
+	try {
+	    commit();
+	} finally {
+	    try {
+		connection.close();
+	    } catch (SQLException e) {
+		throw new IOException("Could not close the database", e);
+	    }
+	}
+    }
+
+    private long getProjectID(String url) throws SQLException {
+	Long id = projects.get(url);
+	if (id != null)
+	    return id;
+
+	selectProject.setString(1, url);
+	try (ResultSet result = selectProject.executeQuery()) {
+	    if (result.next()) {
+		id = result.getLong(1);
+	    } else {
+		id = ++lastProject;
+		insertProject.setLong(1, id);
+		insertProject.setString(2, url);
+		insertProject.addBatch();
+	    }
+	}
+	projects.put(url, id);
+	return id;
+    }
+
+    /**
+     * @return The ID of the row's commit. If the commit was written by an earlier
+     *         run, its file changes and annotations are deleted so that they can
+     *         be written again.
+     */
+    private long getCommitID(long projectID, AnnotationRow row) throws SQLException {
+	selectCommit.setLong(1, projectID);
+	selectCommit.setString(2, row.getCommit());
+	try (ResultSet result = selectCommit.executeQuery()) {
+	    if (result.next()) {
+		long id = result.getLong(1);
+		deleteAnnotations.setLong(1, id);
+		deleteAnnotations.executeUpdate();
+		deleteFileChanges.setLong(1, id);
+		deleteFileChanges.executeUpdate();
+		return id;
+	    }
+	}
+
+	long id = ++lastCommit;
+	insertCommit.setLong(1, id);
+	insertCommit.setLong(2, projectID);
+	insertCommit.setString(3, row.getCommit());
+	insertCommit.setInt(4, row.getTimestamp());
+	insertCommit.addBatch();
+	return id;
+    }
+
+    private static boolean isSameFileChange(AnnotationRow a, AnnotationRow b) {
+	return Objects.equals(a.getFile(), b.getFile())
+		&& Objects.equals(a.getOldSource(), b.getOldSource())
+		&& Objects.equals(a.getNewSource(), b.getNewSource());
+    }
+
+    /**
+     * Adds the matcher column to a database created before it existed.
+     */
+    private static void addMatcherColumn(Statement statement) throws SQLException {
+	try (ResultSet columns = statement.executeQuery("PRAGMA table_info(file_changes)")) {
+	    while (columns.next()) {
+		if (columns.getString("name").equals("matcher"))
+		    return;
+	    }
+	}
+	statement.execute("ALTER TABLE file_changes ADD COLUMN matcher TEXT");
+    }
+
+    private static long max(Statement statement, String table) throws SQLException {
+	try (ResultSet result = statement.executeQuery("SELECT MAX(id) FROM " + table)) {
+	    return result.next() ? result.getLong(1) : 0;
+	}
+    }
+
+}
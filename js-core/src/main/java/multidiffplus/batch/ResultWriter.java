@@ -0,0 +1,648 @@
+package multidiffplus.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Appends results to an output file on a dedicated thread.
+ *
+ * Analysis threads hand the writer immutable {@link Record}s through a lock-free
+ * queue and continue without waiting for the disk. The queue holds a bounded
+ * number of records (see {@link #setCapacity(int)}), so if the disk falls
+ * behind, the submitters wait for room instead of filling the heap. The writer
+ * drains the queue in batches into a buffered channel which stays open for the
+ * whole run, and forces the channel to disk periodically. A record's checkpoint is only marked
+ * as done once the record's results are on disk, so that a resumed run never
+ * truncates the output to an offset which was lost in a crash.
+ *
+ * There is one writer per output file, shared by all the analyses which write
+ * to that file (see {@link #forFile(File, Format)}).
+ *
+ * For the {@link Format#DATABASE} format, the output file is a database and
+ * the results are committed to it in transactions instead.
+ */
+public class ResultWriter {
+
+    protected static final Logger logger = LogManager.getLogger(ResultWriter.class);
+
+    /** How often the output is forced to disk. **/
+    private static final long SYNC_MILLIS = 1000;
+
+    /** How long the writer sleeps when there is nothing to write. **/
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /** The number of records new writers queue before submitters wait. **/
+    private static volatile int capacity = 1024;
+
+    /** How results are encoded in the output file. **/
+    public enum Format {
+	/** One line of text per result (e.g., CSV rows or JSON objects). **/
+	LINES,
+	/** {@link AnnotationRow}s in the format of {@link ColumnarWriter}. **/
+	COLUMNAR,
+	/** {@link AnnotationRow}s in the tables of a {@link ResultDatabase}. **/
+	DATABASE
+    }
+
+    /**
+     * A result which writes itself to the output, so that large results (e.g.,
+     * JSON trees) do not need to be converted to a string first.
+     */
+    public interface Line {
+
+	/**
+	 * Writes the result (without a line separator).
+	 */
+	void writeTo(Writer out) throws IOException;
+
+    }
+
+    /** The open writers, by output file. **/
+    private static final Map<File, ResultWriter> writers = new HashMap<File, ResultWriter>();
+
+    /** The file the results are appended to. **/
+    private File file;
+
+    /** Records waiting to be written. **/
+    private ConcurrentLinkedQueue<Record> queue;
+
+    /** Permits for the result records in the queue (barriers are not counted). **/
+    private Semaphore room;
+
+    /** Records which are encoded, but may not be in the file yet. **/
+    private List<Record> unwritten;
+
+    /** Records which are in the file, and whose checkpoints wait for the next sync. **/
+    private List<Record> unsynced;
+
+    /** Snapshot stores which were written to since the last sync. **/
+    private Set<SnapshotStore> snapshotStores;
+
+    /** Barriers which wait for the next sync. **/
+    private List<CompletableFuture<Void>> barriers;
+
+    private Sink sink;
+    private Thread thread;
+
+    /** The time of the last sync. **/
+    private long lastSync;
+
+    /** True if results were written since the last sync. **/
+    private boolean dirty;
+
+    /** Set once no more records will be submitted. **/
+    private volatile boolean closed;
+
+    /** Set once the writer thread has stopped, so records are no longer written. **/
+    private volatile boolean stopped;
+
+    /** The first error on the writer thread (reported to the submitters). **/
+    private volatile Throwable error;
+
+    private ResultWriter(File file, Format format) throws IOException {
+	this.file = file;
+	this.queue = new ConcurrentLinkedQueue<Record>();
+	this.room = new Semaphore(capacity);
+	this.unwritten = new ArrayList<Record>();
+	this.unsynced = new ArrayList<Record>();
+	this.barriers = new ArrayList<CompletableFuture<Void>>();
+	this.snapshotStores = new HashSet<SnapshotStore>();
+
+	if (format == Format.DATABASE) {
+	    this.sink = new DatabaseSink(new ResultDatabase(file));
+	} else {
+	    if (file.getParentFile() != null)
+		file.getParentFile().mkdirs();
+	    if (format == Format.COLUMNAR && file.length() > 0)
+		ColumnarWriter.checkAppendable(file);
+	    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+		    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	    this.sink = format == Format.COLUMNAR ? new ColumnarSink(channel)
+		    : new LineSink(channel);
+	}
+	this.lastSync = System.currentTimeMillis();
+
+	this.thread = new Thread(this::run, "result-writer-" + file.getName());
+	this.thread.setDaemon(true);
+	this.thread.start();
+    }
+
+    /**
+     * @return The writer which appends lines to the file, opening it if needed.
+     */
+    public static ResultWriter forFile(File file) throws IOException {
+	return forFile(file, Format.LINES);
+    }
+
+    /**
+     * @return The writer which appends to the file, opening it if needed. All the
+     *         analyses writing to a file must use the same format.
+     */
+    public static ResultWriter forFile(File file, Format format) throws IOException {
+	File key = file.getAbsoluteFile();
+	synchronized (writers) {
+	    ResultWriter writer = writers.get(key);
+	    if (writer == null) {
+		writer = new ResultWriter(key, format);
+		writers.put(key, writer);
+	    }
+	    return writer;
+	}
+    }
+
+    /**
+     * Sets the number of records which new writers queue before the submitters
+     * wait for the writer thread.
+     */
+    public static void setCapacity(int records) {
+	if (records < 1)
+	    throw new IllegalArgumentException("The capacity must be positive: " + records);
+	capacity = records;
+    }
+
+    /**
+     * Writes and closes all open writers.
+     */
+    public static void closeAll() throws IOException, InterruptedException {
+	synchronized (writers) {
+	    IOException failure = null;
+	    for (ResultWriter writer : writers.values()) {
+		try {
+		    writer.close();
+		} catch (IOException e) {
+		    if (failure == null)
+			failure = e;
+		}
+	    }
+	    writers.clear();
+	    if (failure != null)
+		throw failure;
+	}
+    }
+
+    /**
+     * Queues a record to be written. Does not wait for the disk, but waits for
+     * room if the queue is full.
+     *
+     * @throws IOException
+     *             if an earlier record could not be written, or the thread was
+     *             interrupted while waiting for room.
+     */
+    public void write(Record record) throws IOException {
+	if (error != null)
+	    throw new IOException("Could not write to " + file, error);
+	if (closed)
+	    throw new IOException("The writer for " + file + " is closed.");
+	if (record.barrier == null)
+	    waitForRoom();
+	queue.add(record);
+	LockSupport.unpark(thread);
+
+	/* The writer thread may have stopped before it could see the record. */
+	if (stopped) {
+	    queue.remove(record);
+	    throw getStoppedException();
+	}
+    }
+
+    /**
+     * Waits until the queue has room for a record, or the writer thread stops.
+     */
+    private void waitForRoom() throws IOException {
+	try {
+	    while (!room.tryAcquire(IDLE_NANOS, TimeUnit.NANOSECONDS)) {
+		if (stopped)
+		    throw getStoppedException();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Interrupted while waiting to write to " + file);
+	}
+    }
+
+    /**
+     * Waits until all records queued so far are on disk and their checkpoints
+     * are marked as done.
+     *
+     * @throws IOException
+     *             if a record could not be written.
+     */
+    public void sync() throws IOException, InterruptedException {
+	CompletableFuture<Void> barrier = new CompletableFuture<Void>();
+	write(new Record(barrier));
+	try {
+	    barrier.get();
+	} catch (ExecutionException e) {
+	    throw new IOException("Could not write to " + file, e.getCause());
+	}
+    }
+
+    /**
+     * Writes the queued records and closes the file.
+     */
+    private void close() throws IOException, InterruptedException {
+	closed = true;
+	LockSupport.unpark(thread);
+	thread.join();
+	if (error != null)
+	    throw new IOException("Could not write to " + file, error);
+    }
+
+    /**
+     * The writer thread.
+     */
+    private void run() {
+	try {
+	    while (true) {
+		Record record = queue.poll();
+
+		if (record != null) {
+		    append(record);
+		    if (record.barrier == null)
+			room.release();
+		    continue;
+		}
+
+		/* The queue is drained, so finish the batch. */
+		if (!barriers.isEmpty()) {
+		    sink.finish();
+		    written();
+		    force();
+		} else {
+		    sink.flush();
+		    if ((dirty || !unsynced.isEmpty())
+			    && System.currentTimeMillis() - lastSync >= SYNC_MILLIS)
+			force();
+		}
+
+		if (closed && queue.isEmpty())
+		    break;
+
+		LockSupport.parkNanos(this, IDLE_NANOS);
+	    }
+	    sink.finish();
+	    written();
+	    force();
+	    sink.close();
+	} catch (Throwable e) {
+	    /* Includes runtime errors in the sink, snapshot store or checkpoints. */
+	    logger.error("[ERROR] could not write to {}: {}", file, e.toString());
+	    error = e;
+	} finally {
+
+	    /* Fail the barriers which wait for a sync, so that no submitter hangs. */
+	    stopped = true;
+	    IOException cause = getStoppedException();
+	    for (CompletableFuture<Void> barrier : barriers)
+		barrier.completeExceptionally(cause);
+	    barriers.clear();
+	    for (Record record; (record = queue.poll()) != null;) {
+		if (record.barrier != null)
+		    record.barrier.completeExceptionally(cause);
+		else if (error == null)
+		    logger.error("[ERROR] a record was submitted after {} was closed", file);
+	    }
+
+	}
+    }
+
+    /**
+     * @return Why records can no longer be written.
+     */
+    private IOException getStoppedException() {
+	return error != null ? new IOException("Could not write to " + file, error)
+		: new IOException("The writer for " + file + " is closed.");
+    }
+
+    /**
+     * Writes a record to the buffer (or holds a barrier until the next sync).
+     */
+    private void append(Record record) throws IOException {
+
+	if (record.barrier != null) {
+	    barriers.add(record.barrier);
+	    return;
+	}
+
+	if (!record.snapshots.isEmpty()) {
+	    for (Map.Entry<String, String> snapshot : record.snapshots.entrySet())
+		record.snapshotStore.put(snapshot.getKey(), snapshot.getValue());
+	    snapshotStores.add(record.snapshotStore);
+	}
+
+	for (Object result : record.results)
+	    sink.append(result);
+	dirty |= !record.results.isEmpty();
+
+	if (record.checkpoint != null)
+	    unwritten.add(record);
+	if (!sink.isPending())
+	    written();
+
+    }
+
+    /**
+     * Called once all the encoded records are in the file.
+     */
+    private void written() {
+	unsynced.addAll(unwritten);
+	unwritten.clear();
+    }
+
+    /**
+     * Forces the written results to disk, then marks the checkpoints of the
+     * written records as done.
+     */
+    private void force() throws IOException {
+	sink.flush();
+	if (dirty)
+	    sink.force();
+	dirty = false;
+	lastSync = System.currentTimeMillis();
+
+	/* The rows refer to the snapshots, so they must be durable too. */
+	for (SnapshotStore snapshotStore : snapshotStores)
+	    snapshotStore.sync();
+	snapshotStores.clear();
+
+	long offset = sink.size();
+	for (Record record : unsynced)
+	    record.checkpoint.markDone(record.item, offset);
+	unsynced.clear();
+
+	for (CompletableFuture<Void> barrier : barriers)
+	    barrier.complete(null);
+	barriers.clear();
+    }
+
+    /**
+     * Encodes results into the output file.
+     */
+    private static abstract class Sink {
+
+	/** Encodes a result. **/
+	abstract void append(Object result) throws IOException;
+
+	/**
+	 * @return True if some encoded results will not be in the file when the sink
+	 *         is flushed (i.e., until it is finished).
+	 */
+	boolean isPending() {
+	    return false;
+	}
+
+	/** Hands the encoded results which are complete to the file. **/
+	abstract void flush() throws IOException;
+
+	/** Hands all the encoded results to the file (e.g., a partial block). **/
+	void finish() throws IOException {
+	    flush();
+	}
+
+	/** Forces the results in the file to disk. **/
+	abstract void force() throws IOException;
+
+	/** @return The size of the file, which is recorded in the checkpoints. **/
+	abstract long size() throws IOException;
+
+	abstract void close() throws IOException;
+
+    }
+
+    /**
+     * A sink which appends to a file channel.
+     */
+    private static abstract class ChannelSink extends Sink {
+
+	protected FileChannel channel;
+
+	ChannelSink(FileChannel channel) {
+	    this.channel = channel;
+	}
+
+	@Override
+	void force() throws IOException {
+	    channel.force(false);
+	}
+
+	@Override
+	long size() throws IOException {
+	    return channel.size();
+	}
+
+    }
+
+    /**
+     * Writes each result as a line of text.
+     */
+    private static class LineSink extends ChannelSink {
+
+	private Writer out;
+
+	LineSink(FileChannel channel) {
+	    super(channel);
+	    this.out = new BufferedWriter(
+		    Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1),
+		    1 << 16);
+	}
+
+	@Override
+	void append(Object result) throws IOException {
+	    if (result instanceof Line)
+		((Line) result).writeTo(out);
+	    else
+		out.write(result.toString());
+	    out.write(System.lineSeparator());
+	}
+
+	@Override
+	void flush() throws IOException {
+	    out.flush();
+	}
+
+	@Override
+	void close() throws IOException {
+	    out.close();
+	}
+
+    }
+
+    /**
+     * Writes the results in blocks of the columnar format. A block is written once
+     * it is full, or when a sync is requested.
+     */
+    private static class ColumnarSink extends ChannelSink {
+
+	private ColumnarWriter out;
+
+	ColumnarSink(FileChannel channel) throws IOException {
+	    super(channel);
+	    this.out = new ColumnarWriter(
+		    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16),
+		    channel.size() == 0);
+	}
+
+	@Override
+	void append(Object result) throws IOException {
+	    if (!(result instanceof AnnotationRow))
+		throw new IllegalArgumentException(
+			"The columnar format only stores annotation rows.");
+	    out.write((AnnotationRow) result);
+	}
+
+	@Override
+	boolean isPending() {
+	    return out.getPendingRows() > 0;
+	}
+
+	@Override
+	void flush() {
+	    /* Partial blocks are only written when a sync is requested. */
+	}
+
+	@Override
+	void finish() throws IOException {
+	    out.flush();
+	}
+
+	@Override
+	void close() throws IOException {
+	    out.close();
+	}
+
+    }
+
+    /**
+     * Inserts the results into a database. The inserts are committed when the
+     * writer syncs, so the checkpoints only cover committed results.
+     */
+    private static class DatabaseSink extends Sink {
+
+	private ResultDatabase out;
+
+	DatabaseSink(ResultDatabase out) {
+	    this.out = out;
+	}
+
+	@Override
+	void append(Object result) throws IOException {
+	    if (!(result instanceof AnnotationRow))
+		throw new IllegalArgumentException("The database only stores annotation rows.");
+	    out.write((AnnotationRow) result);
+	}
+
+	@Override
+	void flush() throws IOException {
+	    out.flush();
+	}
+
+	@Override
+	void force() throws IOException {
+	    out.commit();
+	}
+
+	/**
+	 * A database is not recovered by truncating it, so no size is recorded.
+	 */
+	@Override
+	long size() {
+	    return 0;
+	}
+
+	@Override
+	void close() throws IOException {
+	    out.close();
+	}
+
+    }
+
+    /**
+     * The results of one unit of work (e.g., a commit or a candidate).
+     */
+    public static class Record {
+
+	/** The lines or rows to append to the output file. **/
+	private final List<?> results;
+
+	/** The store to put the snapshots in. **/
+	private final SnapshotStore snapshotStore;
+
+	/** The source code which the results refer to, by git blob ID. **/
+	private final Map<String, String> snapshots;
+
+	/** The checkpoint to mark the unit of work as done in, or {@code null}. **/
+	private final Checkpoint checkpoint;
+	private final String item;
+
+	/** Completed by the writer at the next sync (for {@link #sync()}). **/
+	private final CompletableFuture<Void> barrier;
+
+	/**
+	 * Results which do not refer to any source code.
+	 */
+	public Record(List<?> results, Checkpoint checkpoint, String item) {
+	    this(results, null, Collections.<String, String> emptyMap(), checkpoint, item);
+	}
+
+	/**
+	 * @param results
+	 *            The lines (strings or {@link Line}s, or {@link AnnotationRow}s for
+	 *            the columnar format) to append to the output file.
+	 * @param snapshotStore
+	 *            The store to put the snapshots in.
+	 * @param snapshots
+	 *            The source code which the results refer to, by git blob ID.
+	 * @param checkpoint
+	 *            Where to mark the unit of work as done once the results are on
+	 *            disk (if null, progress is not saved).
+	 * @param item
+	 *            The unit of work's key in the checkpoint.
+	 */
+	public Record(List<?> results, SnapshotStore snapshotStore,
+		Map<String, String> snapshots, Checkpoint checkpoint, String item) {
+	    this.results = Collections.unmodifiableList(new ArrayList<Object>(results));
+	    this.snapshotStore = snapshotStore;
+	    this.snapshots = Collections
+		    .unmodifiableMap(new LinkedHashMap<String, String>(snapshots));
+	    this.checkpoint = checkpoint;
+	    this.item = item;
+	    this.barrier = null;
+	}
+
+	private Record(CompletableFuture<Void> barrier) {
+	    this.results = Collections.emptyList();
+	    this.snapshotStore = null;
+	    this.snapshots = Collections.emptyMap();
+	    this.checkpoint = null;
+	    this.item = null;
+	    this.barrier = barrier;
+	}
+
+    }
+
+}
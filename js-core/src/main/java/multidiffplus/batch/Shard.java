@@ -0,0 +1,84 @@
+package multidiffplus.batch;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * One of {@code n} disjoint parts of a corpus, so that the corpus can be mined
+ * by several processes (or machines sharing a file system) without
+ * coordinating them.
+ *
+ * Work items are assigned to shards by a stable hash of their key (e.g., the
+ * project, or the project and file), so every process agrees on the
+ * partitioning without communicating, and a shard which is run again mines the
+ * same items. Each shard writes its own part of the output (see
+ * {@link #part(File)}), and the parts are combined by {@link ShardMerger}.
+ */
+public class Shard {
+
+    /** The prefix of the suffix which names the parts written by a shard. **/
+    public static final String PART = ".shard-";
+
+    /** The index of the shard, from zero. **/
+    private int index;
+
+    /** The number of shards. **/
+    private int count;
+
+    public Shard(int index, int count) {
+	if (count < 1 || index < 0 || index >= count)
+	    throw new IllegalArgumentException("Shard " + index + "/" + count + " does not exist.");
+	this.index = index;
+	this.count = count;
+    }
+
+    public int getIndex() {
+	return index;
+    }
+
+    public int getCount() {
+	return count;
+    }
+
+    /**
+     * @return True if the work item with the key belongs to this shard.
+     */
+    public boolean contains(String key) {
+	CRC32 crc = new CRC32();
+	crc.update(key.getBytes(StandardCharsets.UTF_8));
+	return crc.getValue() % count == index;
+    }
+
+    /**
+     * @return The file (or directory) which this shard writes in place of the
+     *         given one, e.g., {@code out.csv.shard-2-of-8}.
+     */
+    public File part(File file) {
+	return new File(file.getPath() + PART + index + "-of-" + count);
+    }
+
+    @Override
+    public String toString() {
+	return index + "/" + count;
+    }
+
+    /**
+     * Parses a shard given as {@code i/n}, where {@code 0 <= i < n}.
+     *
+     * @throws IllegalArgumentException
+     *             if the shard is not in this format.
+     */
+    public static Shard parse(String shard) {
+	String[] values = shard.split("/");
+	if (values.length != 2)
+	    throw new IllegalArgumentException("Shard " + shard + " is not in the format i/n.");
+	try {
+	    return new Shard(Integer.parseInt(values[0].trim()),
+		    Integer.parseInt(values[1].trim()));
+	} catch (NumberFormatException e) {
+	    throw new IllegalArgumentException("Shard " + shard + " is not in the format i/n.");
+	}
+    }
+
+}
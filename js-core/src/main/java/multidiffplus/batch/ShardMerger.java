@@ -0,0 +1,194 @@
+package multidiffplus.batch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Combines the parts written by the shards of a run (see {@link Shard}) into
+ * the final output.
+ *
+ * The parts are concatenated in shard order and duplicate rows are dropped
+ * (e.g., when the repository lists given to the shards overlap). Only a digest
+ * of each row is kept in memory, so data sets larger than the heap can be
+ * merged. The snapshot stores written by the shards are merged into one store,
+ * which is given to the flow miner.
+ *
+ * Usage: ShardMerger (--lines | --columnar | --snapshots) output
+ */
+public class ShardMerger {
+
+    private static final Pattern PART = Pattern
+	    .compile(Pattern.quote(Shard.PART) + "(\\d+)-of-(\\d+)$");
+
+    /**
+     * Finds the parts written in place of the output by the shards of a run.
+     *
+     * @return The parts, in shard order.
+     * @throws IOException
+     *             if there are no parts, or the parts of a shard are missing.
+     */
+    public static List<File> findParts(File output) throws IOException {
+	File directory = output.getAbsoluteFile().getParentFile();
+	String prefix = output.getName() + Shard.PART;
+	File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix));
+	if (files == null || files.length == 0)
+	    throw new IOException("No shards have written parts of " + output);
+
+	TreeMap<Integer, File> parts = new TreeMap<Integer, File>();
+	int count = -1;
+	for (File file : files) {
+	    Matcher matcher = PART.matcher(file.getName());
+	    if (!matcher.find() || matcher.start() != output.getName().length())
+		continue;
+	    int n = Integer.parseInt(matcher.group(2));
+	    if (count >= 0 && n != count)
+		throw new IOException("The parts of " + output + " were written by runs with "
+			+ count + " and " + n + " shards.");
+	    count = n;
+	    parts.put(Integer.parseInt(matcher.group(1)), file);
+	}
+
+	List<Integer> missing = new ArrayList<Integer>();
+	for (int i = 0; i < count; i++) {
+	    if (!parts.containsKey(i))
+		missing.add(i);
+	}
+	if (!missing.isEmpty())
+	    throw new IOException("Shards " + missing + " of " + count
+		    + " have not written parts of " + output);
+
+	return new ArrayList<File>(parts.values());
+    }
+
+    /**
+     * Merges parts in a line-oriented format (CSV or JSON lines).
+     *
+     * @return The number of lines written.
+     */
+    public static long mergeLines(List<File> parts, File output) throws IOException {
+	long lines = 0;
+	Set<ByteBuffer> written = new HashSet<ByteBuffer>();
+	MessageDigest digest = newDigest();
+	try (BufferedWriter writer = Files.newBufferedWriter(output.toPath(),
+		StandardCharsets.UTF_8)) {
+	    for (File part : parts) {
+		try (BufferedReader reader = Files.newBufferedReader(part.toPath(),
+			StandardCharsets.UTF_8)) {
+		    for (String line; (line = reader.readLine()) != null;) {
+			if (line.isEmpty() || !written.add(digest(digest, line)))
+			    continue;
+			writer.write(line);
+			writer.newLine();
+			lines++;
+		    }
+		}
+	    }
+	}
+	return lines;
+    }
+
+    /**
+     * Merges parts in the columnar format.
+     *
+     * @return The number of rows written.
+     */
+    public static long mergeColumnar(List<File> parts, File output) throws IOException {
+	long rows = 0;
+	Set<ByteBuffer> written = new HashSet<ByteBuffer>();
+	MessageDigest digest = newDigest();
+	try (ColumnarWriter writer = new ColumnarWriter(output)) {
+	    for (File part : parts) {
+		try (ColumnarReader reader = new ColumnarReader(part)) {
+		    for (AnnotationRow row; (row = reader.read()) != null;) {
+			if (!written.add(digest(digest, row.toCSV() + "," + row.getPosition())))
+			    continue;
+			writer.write(row);
+			rows++;
+		    }
+		}
+	    }
+	}
+	return rows;
+    }
+
+    /**
+     * Copies the snapshots in the parts into the output store. The stores must
+     * be closed with {@link SnapshotStore#closeAll()}.
+     *
+     * @return The number of snapshots copied.
+     */
+    public static long mergeSnapshots(List<File> parts, File output) throws IOException {
+	long snapshots = 0;
+	SnapshotStore store = SnapshotStore.open(output);
+	for (File part : parts) {
+	    SnapshotStore partStore = SnapshotStore.open(part);
+	    for (String id : partStore.getIDs()) {
+		if (store.contains(id))
+		    continue;
+		store.put(id, partStore.get(id));
+		snapshots++;
+	    }
+	    store.sync();
+	}
+	return snapshots;
+    }
+
+    private static MessageDigest newDigest() {
+	try {
+	    return MessageDigest.getInstance("MD5");
+	} catch (NoSuchAlgorithmException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    private static ByteBuffer digest(MessageDigest digest, String row) {
+	return ByteBuffer.wrap(digest.digest(row.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    public static void main(String[] args) {
+
+	if (args.length != 2 || !(args[0].equals("--lines") || args[0].equals("--columnar")
+		|| args[0].equals("--snapshots"))) {
+	    System.out.println("Usage: ShardMerger (--lines | --columnar | --snapshots) output");
+	    return;
+	}
+
+	File output = new File(args[1]);
+
+	try {
+	    List<File> parts = findParts(output);
+	    switch (args[0]) {
+	    case "--lines":
+		System.out.println("Merged " + mergeLines(parts, output) + " lines from "
+			+ parts.size() + " shards.");
+		break;
+	    case "--columnar":
+		System.out.println("Merged " + mergeColumnar(parts, output) + " rows from "
+			+ parts.size() + " shards.");
+		break;
+	    default:
+		System.out.println("Merged " + mergeSnapshots(parts, output)
+			+ " snapshots from " + parts.size() + " shards.");
+		SnapshotStore.closeAll();
+	    }
+	} catch (IOException e) {
+	    System.err.println("Error while merging " + output + ": " + e.getMessage());
+	}
+
+    }
+
+}
@@ -0,0 +1,278 @@
+package multidiffplus.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A content-addressed store for the source code of mined file changes.
+ *
+ * Each version of a file is stored once, keyed by its git blob ID, no matter
+ * how many changes refer to it. Contents are appended to large pack files, and
+ * an index maps each ID to its pack, offset and length. Packs are read with
+ * memory-mapped I/O.
+ *
+ * The layout of a store directory is:
+ *
+ * <pre>
+ * snapshots.idx     := (id:20 bytes, pack:int, offset:long, length:int)*
+ * pack-NNNNN.pack   := UTF-8 contents, back to back
+ * </pre>
+ *
+ * Index entries are only written once the contents they refer to are on disk,
+ * so a crash leaves at most unreferenced bytes at the end of a pack. There is
+ * one store per directory (see {@link #open(File)}), and it is thread safe.
+ */
+public class SnapshotStore {
+
+    /** The name of the index file. **/
+    public static final String INDEX = "snapshots.idx";
+
+    /** The size after which a new pack is started. **/
+    private static final long PACK_SIZE = 256L * 1024 * 1024;
+
+    /** The size of an index entry. **/
+    private static final int ENTRY_SIZE = Constants.OBJECT_ID_LENGTH + 4 + 8 + 4;
+
+    /** The open stores, by directory. **/
+    private static final Map<File, SnapshotStore> stores = new HashMap<File, SnapshotStore>();
+
+    private File directory;
+
+    /** The location of every stored snapshot. **/
+    private Map<ObjectId, Location> index;
+
+    /** Index entries whose contents may not be on disk yet. **/
+    private List<ByteBuffer> unsynced;
+
+    private FileChannel indexChannel;
+
+    /** The pack which is being appended to. **/
+    private FileChannel packChannel;
+    private int pack;
+
+    /** Read-only mappings of the packs, by pack number. **/
+    private Map<Integer, MappedByteBuffer> mappings;
+
+    private SnapshotStore(File directory) throws IOException {
+	this.directory = directory;
+	this.index = new ConcurrentHashMap<ObjectId, Location>();
+	this.unsynced = new ArrayList<ByteBuffer>();
+	this.mappings = new ConcurrentHashMap<Integer, MappedByteBuffer>();
+
+	directory.mkdirs();
+	this.indexChannel = FileChannel.open(new File(directory, INDEX).toPath(),
+		StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	readIndex();
+
+	/* Append to the last pack. */
+	this.pack = 0;
+	for (Location location : index.values())
+	    this.pack = Math.max(this.pack, location.pack);
+    }
+
+    /**
+     * @return The store in the directory, opening (or creating) it if needed.
+     */
+    public static SnapshotStore open(File directory) throws IOException {
+	File key = directory.getAbsoluteFile();
+	synchronized (stores) {
+	    SnapshotStore store = stores.get(key);
+	    if (store == null) {
+		store = new SnapshotStore(key);
+		stores.put(key, store);
+	    }
+	    return store;
+	}
+    }
+
+    /**
+     * Writes and closes all open stores.
+     */
+    public static void closeAll() throws IOException {
+	synchronized (stores) {
+	    for (SnapshotStore store : stores.values())
+		store.close();
+	    stores.clear();
+	}
+    }
+
+    /**
+     * @return True if the store contains the snapshot.
+     */
+    public boolean contains(String id) {
+	return ObjectId.isId(id) && index.containsKey(ObjectId.fromString(id));
+    }
+
+    /**
+     * Stores a snapshot, unless it is already stored. The snapshot is not durable
+     * until the store is synced.
+     *
+     * @param id
+     *            The git blob ID of the contents.
+     * @param contents
+     *            The source code.
+     */
+    public synchronized void put(String id, String contents) throws IOException {
+	ObjectId objectId = ObjectId.fromString(id);
+	if (index.containsKey(objectId))
+	    return;
+
+	if (packChannel == null || packChannel.size() >= PACK_SIZE) {
+	    if (packChannel != null) {
+		packChannel.force(false);
+		packChannel.close();
+		pack++;
+	    }
+	    packChannel = FileChannel.open(getPackFile(pack).toPath(),
+		    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		    StandardOpenOption.APPEND);
+	}
+
+	byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+	long offset = packChannel.size();
+	ByteBuffer buffer = ByteBuffer.wrap(bytes);
+	while (buffer.hasRemaining())
+	    packChannel.write(buffer);
+
+	Location location = new Location(pack, offset, bytes.length);
+	index.put(objectId, location);
+
+	byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+	objectId.copyRawTo(raw, 0);
+	ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+	entry.put(raw).putInt(location.pack).putLong(location.offset).putInt(location.length);
+	entry.flip();
+	unsynced.add(entry);
+    }
+
+    /**
+     * @return The snapshot, or {@code null} if it is not in the store.
+     */
+    public String get(String id) throws IOException {
+	if (!ObjectId.isId(id))
+	    return null;
+	Location location = index.get(ObjectId.fromString(id));
+	if (location == null)
+	    return null;
+
+	ByteBuffer buffer = getMapping(location).duplicate();
+	buffer.position((int) location.offset);
+	byte[] bytes = new byte[location.length];
+	buffer.get(bytes);
+	return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The IDs of the stored snapshots.
+     */
+    public List<String> getIDs() {
+	List<String> ids = new ArrayList<String>(index.size());
+	for (ObjectId id : index.keySet())
+	    ids.add(id.name());
+	return ids;
+    }
+
+    /**
+     * Forces the stored snapshots to disk, then records them in the index.
+     */
+    public synchronized void sync() throws IOException {
+	if (unsynced.isEmpty())
+	    return;
+	packChannel.force(false);
+	long position = indexChannel.size();
+	for (ByteBuffer entry : unsynced) {
+	    while (entry.hasRemaining())
+		position += indexChannel.write(entry, position);
+	}
+	indexChannel.force(false);
+	unsynced.clear();
+    }
+
+    private synchronized void close() throws IOException {
+	sync();
+	if (packChannel != null)
+	    packChannel.close();
+	indexChannel.close();
+	mappings.clear();
+    }
+
+    /**
+     * @return A mapping of the pack which covers the snapshot, mapping the pack
+     *         again if it has grown.
+     */
+    private MappedByteBuffer getMapping(Location location) throws IOException {
+	MappedByteBuffer mapping = mappings.get(location.pack);
+	if (mapping != null && mapping.capacity() >= location.offset + location.length)
+	    return mapping;
+
+	synchronized (this) {
+	    /* The pack is new, or has grown since it was mapped. */
+	    try (FileChannel channel = FileChannel.open(getPackFile(location.pack).toPath(),
+		    StandardOpenOption.READ)) {
+		mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+	    }
+	    mappings.put(location.pack, mapping);
+	    return mapping;
+	}
+    }
+
+    /**
+     * Loads the index, ignoring a partial entry left by a crash.
+     */
+    private void readIndex() throws IOException {
+	long size = indexChannel.size();
+	long complete = size - size % ENTRY_SIZE;
+	if (complete < size)
+	    indexChannel.truncate(complete);
+
+	ByteBuffer entries = ByteBuffer.allocate((int) Math.min(complete, ENTRY_SIZE * 8192L));
+	byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+	for (long position = 0; position < complete;) {
+	    entries.clear();
+	    entries.limit((int) Math.min(entries.capacity(), complete - position));
+	    while (entries.hasRemaining())
+		position += indexChannel.read(entries, position);
+	    entries.flip();
+	    while (entries.remaining() >= ENTRY_SIZE) {
+		entries.get(id);
+		index.put(ObjectId.fromRaw(id),
+			new Location(entries.getInt(), entries.getLong(), entries.getInt()));
+	    }
+	}
+    }
+
+    private File getPackFile(int pack) {
+	return new File(directory, String.format("pack-%05d.pack", pack));
+    }
+
+    /**
+     * Where a snapshot is stored.
+     */
+    private static class Location {
+
+	private final int pack;
+	private final long offset;
+	private final int length;
+
+	Location(int pack, long offset, int length) {
+	    this.pack = pack;
+	    this.offset = offset;
+	    this.length = length;
+	}
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package multidiffplus.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Stores the commit which each project's history was last mined up to (its
+ * watermark), so that the next run only mines the commits made since.
+ *
+ * Each watermark is a file named after the project, containing the commit ID.
+ * A watermark is replaced atomically, so a crash leaves the old watermark in
+ * place.
+ */
+public class WatermarkStore {
+
+    /** The extension of the watermark files. **/
+    public static final String EXTENSION = ".head";
+
+    private File directory;
+
+    public WatermarkStore(File directory) {
+	this.directory = directory;
+    }
+
+    /**
+     * @return The commit the project was last mined up to, or {@code null} if the
+     *         project has not been mined (or its watermark is unreadable).
+     */
+    public ObjectId get(String projectID) {
+	File file = getFile(projectID);
+	if (!file.exists())
+	    return null;
+	try {
+	    String id = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)
+		    .trim();
+	    if (ObjectId.isId(id))
+		return ObjectId.fromString(id);
+	    System.err.println("Ignoring corrupt watermark " + file);
+	} catch (IOException e) {
+	    System.err.println("Could not read watermark " + file + ": " + e.getMessage());
+	}
+	return null;
+    }
+
+    /**
+     * Records that the project was mined up to the commit.
+     */
+    public void put(String projectID, ObjectId commit) throws IOException {
+	File file = getFile(projectID);
+	directory.mkdirs();
+
+	/* Write to a temporary file first so readers never see a partial watermark. */
+	File tmp = File.createTempFile(file.getName(), ".tmp", directory);
+	Files.write(tmp.toPath(), commit.name().getBytes(StandardCharsets.UTF_8));
+
+	try {
+	    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	} catch (AtomicMoveNotSupportedException e) {
+	    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+    }
+
+    private File getFile(String projectID) {
+	return new File(directory, projectID + EXTENSION);
+    }
+
+}
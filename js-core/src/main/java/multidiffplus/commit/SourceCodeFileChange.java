@@ -1,13 +1,12 @@
 package multidiffplus.commit;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.regex.Matcher;
 
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectInserter;
+
 /**
  * Stores the information that represents a change to a source code file.
  *
@@ -17,7 +16,8 @@ import java.util.regex.Matcher;
 public class SourceCodeFileChange {
 	
 	/** Used for generating unique SourceCodeFileChange IDs. **/
-	private static long unique = initUniqueID();
+	private static final UniqueIDAllocator ids = new UniqueIDAllocator(new File("./", ".scfcid"),
+			UniqueIDAllocator.BLOCK_SIZE);
 	
 	/** The unique id for the {@code SourceCodeFileChange}. **/
 	private long id;
@@ -37,6 +37,18 @@ public class SourceCodeFileChange {
 	/** The the time spent analyzing the file. **/
 	public long analysisRuntime;
 
+	/** Why the analysis of the file was abandoned (null if it finished). **/
+	public String abandonedReason;
+
+	/** The tier of the tree matcher which diffed the file (null if unknown). **/
+	public String matcher;
+
+	/** The git blob id of the code before the commit (computed if not set). **/
+	private String buggyBlobID;
+
+	/** The git blob id of the code after the commit (computed if not set). **/
+	private String repairedBlobID;
+
 	/**
 	 * @param buggyFile The path to the source file before the commit.
 	 * @param repairedFile The path to the source file after the commit.
@@ -45,7 +57,7 @@ public class SourceCodeFileChange {
 	 */
 	public SourceCodeFileChange(String buggyFile, String repairedFile,
 								String buggyCode, String repairedCode) {
-		this.id = getUniqueID();
+		this.id = ids.next();
 		this.buggyFile = buggyFile;
 		this.repairedFile = repairedFile;
 		this.buggyCode = buggyCode;
@@ -60,6 +72,32 @@ public class SourceCodeFileChange {
 		return id;
 	}
 
+	/**
+	 * Sets the git blob ids of the code, so they do not need to be computed.
+	 * @param buggyBlobID The blob id of the code before the commit.
+	 * @param repairedBlobID The blob id of the code after the commit.
+	 */
+	public void setBlobIDs(String buggyBlobID, String repairedBlobID) {
+		this.buggyBlobID = buggyBlobID;
+		this.repairedBlobID = repairedBlobID;
+	}
+
+	/**
+	 * @return the git blob id of the code before the commit.
+	 */
+	public synchronized String getBuggyBlobID() {
+		if(buggyBlobID == null) buggyBlobID = getBlobID(buggyCode);
+		return buggyBlobID;
+	}
+
+	/**
+	 * @return the git blob id of the code after the commit.
+	 */
+	public synchronized String getRepairedBlobID() {
+		if(repairedBlobID == null) repairedBlobID = getBlobID(repairedCode);
+		return repairedBlobID;
+	}
+
 	/**
 	 * @return the file name (without the full path).
 	 */
@@ -91,50 +129,14 @@ public class SourceCodeFileChange {
 		return repairedFile;
 	}
 	
-	private static synchronized long getUniqueID() {
-
-		long unique = SourceCodeFileChange.unique;
-		SourceCodeFileChange.unique++;
-
-		File file = new File("./", ".scfcid");
-		try(PrintStream stream = new PrintStream(new FileOutputStream(file, false))) {
-			stream.print(String.valueOf(unique));
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		}
-
-		return unique;
-
-	}
-	
 	/**
-	 * @return the lowest ID guaranteed to be unique (based on the last stored ID)
+	 * @return the id git would assign to a blob with the given contents.
 	 */
-	private static long initUniqueID() {
-
-		File file = new File("./", ".scfcid");
-		long unique = 1;
-		
-		if(file.exists()) {
-
-			try(BufferedReader br = new BufferedReader(new FileReader(file))) {
-				
-				try {
-					unique = Long.parseLong(br.readLine()) + 1;
-				}
-				catch(NumberFormatException e) {
-					e.printStackTrace();
-				}
-				
-			}
-			catch(Exception e) {
-				System.err.println("Error while reading URI file: " + e.getMessage());
-			}
-			
+	private static String getBlobID(String code) {
+		byte[] bytes = code.getBytes(StandardCharsets.UTF_8);
+		try(ObjectInserter.Formatter formatter = new ObjectInserter.Formatter()) {
+			return formatter.idFor(Constants.OBJ_BLOB, bytes).name();
 		}
-		
-		return unique;
-		
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,127 @@
+package multidiffplus.commit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates IDs which are unique across restarts and across processes which
+ * share the same ID file.
+ *
+ * IDs are handed out from a block which is reserved in the ID file, so the file
+ * is only locked and written once per block. Within a block, allocation is
+ * lock-free. IDs left in a block when the process exits are never used.
+ *
+ * The ID file contains the last reserved ID as text.
+ */
+public class UniqueIDAllocator {
+
+	/** The default number of IDs reserved at a time. **/
+	public static final long BLOCK_SIZE = 10000;
+
+	/** Serializes reservations within this process (file locks are per-process). **/
+	private static final Object reserving = new Object();
+
+	/** The file storing the last reserved ID. **/
+	private File file;
+
+	/** The number of IDs reserved at a time. **/
+	private long blockSize;
+
+	/** The block which IDs are currently allocated from. **/
+	private volatile Block block;
+
+	/**
+	 * @param file The file storing the last reserved ID.
+	 * @param blockSize The number of IDs reserved at a time.
+	 */
+	public UniqueIDAllocator(File file, long blockSize) {
+		this.file = file;
+		this.blockSize = blockSize;
+		this.block = new Block(0, 0);
+	}
+
+	/**
+	 * @return an ID which has not been allocated before.
+	 * @throws UncheckedIOException if a new block could not be reserved in the
+	 * 			ID file, since its IDs might collide with IDs issued before.
+	 */
+	public long next() {
+		while(true) {
+			Block current = this.block;
+			long id = current.next.getAndIncrement();
+			if(id < current.end) return id;
+			synchronized(this) {
+				if(this.block == current) this.block = reserve(current.end);
+			}
+		}
+	}
+
+	/**
+	 * Reserves the next block of IDs in the ID file.
+	 * @param end The end of the exhausted block.
+	 */
+	private Block reserve(long end) {
+		synchronized(reserving) {
+			try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+				FileLock lock = channel.lock()) {
+
+				long start = Math.max(end, readLastID(channel) + 1);
+				long last = start + blockSize - 1;
+
+				channel.truncate(0);
+				ByteBuffer buffer = ByteBuffer.wrap(String.valueOf(last).getBytes(StandardCharsets.UTF_8));
+				while(buffer.hasRemaining()) channel.write(buffer, buffer.position());
+				channel.force(false);
+
+				return new Block(start, last + 1);
+
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException("Could not reserve IDs in " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * @return the last reserved ID, or zero if none have been reserved.
+	 */
+	private static long readLastID(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(channel.size(), 64));
+		while(buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0);
+		String contents = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).trim();
+		if(contents.isEmpty()) return 0;
+		try {
+			return Long.parseLong(contents);
+		}
+		catch(NumberFormatException e) {
+			throw new IOException("The ID file is corrupt: " + contents, e);
+		}
+	}
+
+	/**
+	 * A reserved range of IDs.
+	 */
+	private static class Block {
+
+		/** The next ID to allocate. **/
+		private final AtomicLong next;
+
+		/** The end of the range (exclusive). **/
+		private final long end;
+
+		Block(long start, long end) {
+			this.next = new AtomicLong(start);
+			this.end = end;
+		}
+
+	}
+
+}
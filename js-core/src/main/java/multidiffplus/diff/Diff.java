@@ -2,6 +2,8 @@ package multidiffplus.diff;
 
 import java.io.IOException;
 import java.io.InvalidClassException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
 
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -11,13 +13,12 @@ import com.github.gumtreediff.actions.TreeClassifier;
 import com.github.gumtreediff.gen.TreeGenerator;
 import com.github.gumtreediff.matchers.MappingStore;
 import com.github.gumtreediff.matchers.Matcher;
-import com.github.gumtreediff.matchers.Matchers;
 import com.github.gumtreediff.tree.ITree;
 import com.github.gumtreediff.tree.TreeContext;
 
 import ca.ubc.ece.salt.gumtree.ast.ASTClassifier;
 import ca.ubc.ece.salt.gumtree.ast.ClassifiedASTNode;
-import multidiffplus.cfg.CfgMap;
+import multidiffplus.analysis.Budget;
 import multidiffplus.factories.ICFGFactory;
 
 /**
@@ -26,6 +27,9 @@ import multidiffplus.factories.ICFGFactory;
  */
 public class Diff {
 
+    /** Set to parse the source and destination files concurrently. **/
+    private static volatile boolean forkJoin = false;
+
     /** Stores the CFG and AST for analysis. **/
     private DiffContext context;
 
@@ -64,12 +68,38 @@ public class Diff {
      */
     public Diff(ICFGFactory cfgFactory, String[] args, String srcSourceCode, String dstSourceCode)
 	    throws Exception {
+	this(cfgFactory, args, srcSourceCode, dstSourceCode, null, null);
+    }
+
+    /**
+     * Creates the analysis context by control flow differencing the source and
+     * destination files (provided as a string). The parse trees of the files are
+     * cached by their blob ids if the {@code ParseTreeCache} is enabled.
+     * 
+     * @param cfgFactory
+     *            The factory class that builds the CFGs.
+     * @param args
+     *            The analysis/differencing options.
+     * @param srcSourceCode
+     *            The source file as a string.
+     * @param dstSourceCode
+     *            The destination file as a string.
+     * @param srcBlobID
+     *            The git blob id of the source file (or {@code null}).
+     * @param dstBlobID
+     *            The git blob id of the destination file (or {@code null}).
+     * @throws Exception
+     *             thrown when a problem occurs during control flow differencing.
+     */
+    public Diff(ICFGFactory cfgFactory, String[] args, String srcSourceCode, String dstSourceCode,
+	    String srcBlobID, String dstBlobID) throws Exception {
 
 	/* Get the analysis options. */
 	DiffOptions options = Diff.getAnalysisOptions(args);
 
 	/* Set up the analysis context. */
-	this.context = Diff.setup(cfgFactory, options, srcSourceCode, dstSourceCode);
+	this.context = Diff.setup(cfgFactory, options, srcSourceCode, dstSourceCode, srcBlobID,
+		dstBlobID);
 
     }
 
@@ -120,35 +150,112 @@ public class Diff {
      */
     public static DiffContext setup(ICFGFactory cfgFactory, DiffOptions options,
 	    String srcSourceCode, String dstSourceCode) throws Exception {
+	return setup(cfgFactory, options, srcSourceCode, dstSourceCode, null, null);
+    }
+
+    /**
+     * Compute the control flow changes.
+     * 
+     * @param options
+     *            The command line analysis options.
+     * @param srcBlobID
+     *            The git blob id of the source file, which identifies its cached
+     *            parse tree (or {@code null}).
+     * @param dstBlobID
+     *            The git blob id of the destination file (or {@code null}).
+     * @return The context for a control flow differencing analysis.
+     * @throws Exception
+     */
+    public static DiffContext setup(ICFGFactory cfgFactory, DiffOptions options,
+	    String srcSourceCode, String dstSourceCode, String srcBlobID, String dstBlobID)
+	    throws Exception {
 
 	/* Create the abstract GumTree representations of the ASTs. */
+	Callable<TreeContext> srcParse = () -> srcSourceCode == null
+		? Diff.createGumTree(cfgFactory, options.getDst(), options.getPreProcess())
+		: Diff.createGumTree(cfgFactory, srcSourceCode, srcBlobID, options.getDst(),
+			options.getPreProcess());
+	Callable<TreeContext> dstParse = () -> dstSourceCode == null
+		? Diff.createGumTree(cfgFactory, options.getDst(), options.getPreProcess())
+		: Diff.createGumTree(cfgFactory, dstSourceCode, dstBlobID, options.getDst(),
+			options.getPreProcess());
+
 	TreeContext src = null;
 	TreeContext dst = null;
-	if (srcSourceCode == null)
-	    src = Diff.createGumTree(cfgFactory, options.getDst(), options.getPreProcess());
-	else
-	    src = Diff.createGumTree(cfgFactory, srcSourceCode, options.getDst(),
-		    options.getPreProcess());
-	if (dstSourceCode == null)
-	    dst = Diff.createGumTree(cfgFactory, options.getDst(), options.getPreProcess());
-	else
-	    dst = Diff.createGumTree(cfgFactory, dstSourceCode, options.getDst(),
-		    options.getPreProcess());
+	if (forkJoin) {
+	    /* Parse the source on another thread while this thread parses the destination. */
+	    ForkJoinTask<TreeContext> srcTask = ForkJoinTask.adapt(Budget.propagate(srcParse))
+		    .fork();
+	    try {
+		dst = dstParse.call();
+	    } catch (Throwable t) {
+		/* Don't leave the source parse running on the pool, or lose its failure. */
+		if (!srcTask.tryUnfork()) {
+		    srcTask.quietlyJoin();
+		    if (srcTask.getException() != null)
+			t.addSuppressed(srcTask.getException());
+		}
+		throw t;
+	    }
+	    src = Diff.join(srcTask);
+	} else {
+	    src = srcParse.call();
+	    dst = dstParse.call();
+	}
+
+	/* Each phase can be slow on large files, so check the budget in between. */
+	Budget.check();
 
 	/* Match the source tree nodes to the destination tree nodes. */
-	Matcher matcher = Diff.matchTreeNodes(src.getRoot(), dst.getRoot());
+	TieredMatcher matcher = Diff.matchTreeNodes(src.getRoot(), dst.getRoot());
+	Budget.check();
 
 	Diff.classifyTreeNodes(src, dst, matcher);
+	Budget.check();
 
-	/* Create the CFGs. */
-	CfgMap srcCFGs = cfgFactory.createCFGs(src.getRoot().getClassifiedASTNode());
-	CfgMap dstCFGs = cfgFactory.createCFGs(dst.getRoot().getClassifiedASTNode());
-
-	/* Return the set up results (the context for a CFD analysis) */
+	/*
+	 * Return the set up results (the context for a CFD analysis). The CFGs of each
+	 * side are only built if the analysis uses them.
+	 */
 	ClassifiedASTNode srcRoot = src.getRoot().getClassifiedASTNode();
 	ClassifiedASTNode dstRoot = dst.getRoot().getClassifiedASTNode();
-	return new DiffContext(srcRoot, dstRoot, srcCFGs, dstCFGs);
+	DiffContext context = new DiffContext(srcRoot, dstRoot, cfgFactory);
+	context.setMatcher(matcher.getTier());
+	return context;
+
+    }
+
+    /**
+     * Enables (or disables) the fork-join execution mode, in which the source and
+     * destination files are parsed concurrently.
+     */
+    public static void setForkJoin(boolean enabled) {
+	forkJoin = enabled;
+    }
 
+    /**
+     * @return {@code true} if the fork-join execution mode is enabled.
+     */
+    public static boolean isForkJoin() {
+	return forkJoin;
+    }
+
+    /**
+     * Waits for a forked task.
+     * 
+     * @return The result of the task.
+     * @throws Exception
+     *             The exception thrown by the task.
+     */
+    static <T> T join(ForkJoinTask<T> task) throws Exception {
+	try {
+	    return task.join();
+	} catch (RuntimeException e) {
+	    /* Checked exceptions are wrapped by the fork-join task. */
+	    if (e.getClass() == RuntimeException.class && e.getCause() instanceof Exception)
+		throw (Exception) e.getCause();
+	    throw e;
+	}
     }
 
     /**
@@ -209,8 +316,16 @@ public class Diff {
      * trees. However, we're working with the JavaScript AstNodes from the Rhino
      * parser, so we need some language specific info from RhinoTreeGenerator.
      *
+     * If the {@code ParseTreeCache} is enabled, a version of a file which was
+     * already parsed (e.g., by the previous commit) is taken from the cache.
+     *
      * @param cfgFactory
      *            The factory class that builds the CFGs.
+     * @param source
+     *            The source code.
+     * @param blobID
+     *            The git blob id of the source code, which is its key in the
+     *            cache (or {@code null} if it should not be cached).
      * @param file
      *            The file containing the source code.
      * @param preProcess
@@ -219,8 +334,8 @@ public class Diff {
      * @throws IOException
      *             When something goes wrong reading the source file.
      */
-    private static TreeContext createGumTree(ICFGFactory cfgFactory, String source, String path,
-	    boolean preProcess) throws IOException {
+    private static TreeContext createGumTree(ICFGFactory cfgFactory, String source, String blobID,
+	    String path, boolean preProcess) throws IOException {
 
 	TreeContext tree = null;
 
@@ -230,7 +345,11 @@ public class Diff {
 	/* Use the TreeGenerator from the CFGFactory. */
 	if (extension != null) {
 	    TreeGenerator treeGenerator = cfgFactory.getTreeGenerator(extension);
-	    tree = treeGenerator.generateFromString(source, preProcess);
+	    ParseTreeCache cache = ParseTreeCache.getInstance();
+	    if (cache != null)
+		tree = cache.generate(treeGenerator, source, blobID, extension, preProcess);
+	    else
+		tree = treeGenerator.generateFromString(source, preProcess);
 	}
 
 	return tree;
@@ -244,14 +363,17 @@ public class Diff {
      * but other methods (like ChangeDistiller) could also be used with a bit more
      * instrumentation.
      * 
+     * The cost of matching large trees is bounded by falling back to cheaper
+     * matchers (see {@code TieredMatcher}).
+     * 
      * @param src
      *            The source GumTree (AST).
      * @param dst
      *            The destination GumTree (AST).
      * @return The data structure containing GumTree node mappings.
      */
-    private static Matcher matchTreeNodes(ITree src, ITree dst) {
-	Matcher matcher = Matchers.getInstance().getMatcher(src, dst);
+    private static TieredMatcher matchTreeNodes(ITree src, ITree dst) {
+	TieredMatcher matcher = new TieredMatcher(src, dst);
 	matcher.match();
 	return matcher;
     }
@@ -1,17 +1,32 @@
 package multidiffplus.diff;
 
+import java.util.concurrent.ForkJoinTask;
+
 import ca.ubc.ece.salt.gumtree.ast.ClassifiedASTNode;
+import multidiffplus.analysis.Budget;
 import multidiffplus.cfg.CfgMap;
+import multidiffplus.factories.ICFGFactory;
 
 /**
  * Stores the context for a control flow differencing analysis.
+ *
+ * The CFGs of each side are built the first time they are requested, so an
+ * analysis which only uses one side (e.g., the change impact analysis of the
+ * destination file) does not pay for the other.
  */
 public class DiffContext {
 
     public ClassifiedASTNode srcScript;
     public ClassifiedASTNode dstScript;
-    public CfgMap srcCFGs;
-    public CfgMap dstCFGs;
+
+    /** Builds the CFGs (if null, they were given). **/
+    private ICFGFactory cfgFactory;
+
+    private CfgMap srcCFGs;
+    private CfgMap dstCFGs;
+
+    /** The tier of the matcher which matched the ASTs (may be null). **/
+    private String matcher;
 
     /**
      * @param srcScript
@@ -31,4 +46,60 @@ public class DiffContext {
 	this.dstCFGs = dstCFGs;
     }
 
-}
\ No newline at end of file
+    /**
+     * @param srcScript
+     *            The root node for the class or script.
+     * @param dstScript
+     *            The root node for the class or script.
+     * @param cfgFactory
+     *            Builds the CFGs of a side when they are first requested.
+     */
+    public DiffContext(ClassifiedASTNode srcScript, ClassifiedASTNode dstScript,
+	    ICFGFactory cfgFactory) {
+	this.srcScript = srcScript;
+	this.dstScript = dstScript;
+	this.cfgFactory = cfgFactory;
+    }
+
+    /**
+     * @return The CFGs for each function in the source class or script.
+     */
+    public CfgMap getSrcCFGs() {
+	if (srcCFGs == null)
+	    srcCFGs = cfgFactory.createCFGs(srcScript);
+	return srcCFGs;
+    }
+
+    /**
+     * @return The CFGs for each function in the destination class or script.
+     */
+    public CfgMap getDstCFGs() {
+	if (dstCFGs == null)
+	    dstCFGs = cfgFactory.createCFGs(dstScript);
+	return dstCFGs;
+    }
+
+    /**
+     * Builds the CFGs of both sides, building the source CFGs on another thread.
+     * Used by analyses which need both sides in the fork-join execution mode.
+     */
+    public void buildCFGs() throws Exception {
+	ForkJoinTask<CfgMap> srcTask = ForkJoinTask.adapt(Budget.propagate(this::getSrcCFGs))
+		.fork();
+	getDstCFGs();
+	Diff.join(srcTask);
+    }
+
+    /**
+     * @return The tier of the matcher which matched the ASTs (e.g.,
+     *         {@code gumtree}), or {@code null} if it is not known.
+     */
+    public String getMatcher() {
+	return matcher;
+    }
+
+    public void setMatcher(String matcher) {
+	this.matcher = matcher;
+    }
+
+}
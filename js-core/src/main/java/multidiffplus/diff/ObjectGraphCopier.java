@@ -0,0 +1,317 @@
+package multidiffplus.diff;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Makes deep copies of object graphs, such as the ASTs and GumTree trees built
+ * by a {@code TreeGenerator}, which do not provide a copy method.
+ *
+ * Objects are copied field by field, and shared references (including the
+ * parent pointers of AST nodes) are preserved. The graph is walked with an
+ * explicit stack, since the sibling chains of large scripts are too deep to
+ * copy recursively. Immutable objects (strings, boxed primitives, enums and
+ * classes) are shared with the copy. JDK collections and maps are re-built with
+ * the copies of their elements. Other JDK objects can not be copied, so an
+ * {@code UnsupportedOperationException} is thrown.
+ */
+public class ObjectGraphCopier {
+
+    /** The instance fields of each class, including inherited fields. **/
+    private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>() {
+	@Override
+	protected Field[] computeValue(Class<?> type) {
+	    List<Field> fields = new ArrayList<Field>();
+	    for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+		if (isJDK(c))
+		    throw new UnsupportedOperationException("Cannot copy " + type.getName()
+			    + ", which extends " + c.getName());
+		for (Field field : c.getDeclaredFields()) {
+		    if (Modifier.isStatic(field.getModifiers()))
+			continue;
+		    field.setAccessible(true);
+		    fields.add(field);
+		}
+	    }
+	    return fields.toArray(new Field[fields.size()]);
+	}
+    };
+
+    /** Allocates objects without running their constructors (if available). **/
+    private static final Object UNSAFE;
+    private static final Method ALLOCATE_INSTANCE;
+
+    static {
+	Object unsafe = null;
+	Method allocateInstance = null;
+	try {
+	    Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+	    Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+	    theUnsafe.setAccessible(true);
+	    unsafe = theUnsafe.get(null);
+	    allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+	} catch (ReflectiveOperationException | RuntimeException e) {
+	    /* Fall back to the no-argument constructors. */
+	}
+	UNSAFE = unsafe;
+	ALLOCATE_INSTANCE = allocateInstance;
+    }
+
+    /** The copy of each object which has been reached, by identity. **/
+    private IdentityHashMap<Object, Object> copies;
+
+    /** The objects whose copies have been allocated but not filled. **/
+    private Deque<Object> unfilled;
+
+    /** The collections and maps, in the order they were reached. **/
+    private List<Object> containers;
+
+    private ObjectGraphCopier() {
+	this.copies = new IdentityHashMap<Object, Object>();
+	this.unfilled = new ArrayDeque<Object>();
+	this.containers = new ArrayList<Object>();
+    }
+
+    /**
+     * @return A deep copy of the object.
+     * @throws UnsupportedOperationException
+     *             if the graph contains an object which cannot be copied.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T copy(T object) {
+	try {
+	    return (T) new ObjectGraphCopier().copyGraph(object);
+	} catch (ReflectiveOperationException e) {
+	    throw new UnsupportedOperationException(e);
+	}
+    }
+
+    private Object copyGraph(Object root) throws ReflectiveOperationException {
+
+	Object copy = resolve(root);
+
+	/* Copy the fields of each object. */
+	while (!unfilled.isEmpty())
+	    fill(unfilled.pop());
+
+	/*
+	 * Fill the collections once their elements are complete, since hash codes may
+	 * depend on the elements. Nested collections are reached after the collections
+	 * which contain them, so they are filled first.
+	 */
+	for (int i = containers.size() - 1; i >= 0; i--)
+	    fillContainer(containers.get(i));
+
+	return copy;
+
+    }
+
+    /**
+     * @return The copy of the object. A new copy is allocated (but not filled) the
+     *         first time an object is reached.
+     */
+    private Object resolve(Object object) throws ReflectiveOperationException {
+
+	if (object == null || isImmutable(object))
+	    return object;
+
+	Object copy = copies.get(object);
+	if (copy != null)
+	    return copy;
+
+	Class<?> type = object.getClass();
+	if (type.isArray()) {
+	    if (type.getComponentType().isPrimitive()) {
+		copy = cloneArray(object);
+	    } else {
+		copy = Array.newInstance(type.getComponentType(), Array.getLength(object));
+		unfilled.push(object);
+	    }
+	} else if (object instanceof Collection || object instanceof Map) {
+	    if (!isJDK(type)) {
+		copy = allocate(type);
+		unfilled.push(object);
+	    } else {
+		copy = newContainer(object);
+		copies.put(object, copy);
+		containers.add(object);
+		for (Object element : elements(object))
+		    resolve(element);
+	    }
+	} else if (isJDK(type)) {
+	    throw new UnsupportedOperationException("Cannot copy " + type.getName());
+	} else {
+	    copy = allocate(type);
+	    unfilled.push(object);
+	}
+
+	copies.put(object, copy);
+	return copy;
+
+    }
+
+    /**
+     * Copies the fields (or elements) of the object to its copy.
+     */
+    private void fill(Object object) throws ReflectiveOperationException {
+	Object copy = copies.get(object);
+	if (object.getClass().isArray()) {
+	    for (int i = 0; i < Array.getLength(object); i++)
+		Array.set(copy, i, resolve(Array.get(object, i)));
+	    return;
+	}
+	for (Field field : FIELDS.get(object.getClass())) {
+	    Object value = field.get(object);
+	    field.set(copy, field.getType().isPrimitive() ? value : resolve(value));
+	}
+    }
+
+    /**
+     * Adds the copies of the elements of the collection (or map) to its copy.
+     */
+    @SuppressWarnings("unchecked")
+    private void fillContainer(Object object) {
+	Object copy = copies.get(object);
+	if (copy == object)
+	    return;
+	if (object instanceof Map) {
+	    Map<Object, Object> map = (Map<Object, Object>) copy;
+	    for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet())
+		map.put(copyOf(entry.getKey()), copyOf(entry.getValue()));
+	} else {
+	    Collection<Object> collection = (Collection<Object>) copy;
+	    for (Object element : (Collection<?>) object)
+		collection.add(copyOf(element));
+	}
+    }
+
+    /**
+     * @return The copy of an object which has already been reached.
+     */
+    private Object copyOf(Object object) {
+	if (object == null || isImmutable(object))
+	    return object;
+	return copies.get(object);
+    }
+
+    /**
+     * @return An empty collection (or map) of the same kind as the JDK collection.
+     *         Immutable empty collections are shared.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object newContainer(Object object) {
+
+	if (object == Collections.emptyList() || object == Collections.emptySet()
+		|| object == Collections.emptyMap())
+	    return object;
+
+	Class<?> type = object.getClass();
+	if (type == ArrayList.class)
+	    return new ArrayList<Object>(((Collection<?>) object).size());
+	if (type == LinkedList.class)
+	    return new LinkedList<Object>();
+	if (type == ArrayDeque.class)
+	    return new ArrayDeque<Object>();
+	if (type == HashSet.class)
+	    return new HashSet<Object>();
+	if (type == LinkedHashSet.class)
+	    return new LinkedHashSet<Object>();
+	if (type == HashMap.class)
+	    return new HashMap<Object, Object>();
+	if (type == LinkedHashMap.class)
+	    return new LinkedHashMap<Object, Object>();
+	if (type == IdentityHashMap.class)
+	    return new IdentityHashMap<Object, Object>();
+	if (object instanceof SortedMap)
+	    return new TreeMap<Object, Object>((Comparator<Object>) ((SortedMap<?, ?>) object).comparator());
+	if (object instanceof SortedSet)
+	    return new TreeSet<Object>((Comparator<Object>) ((SortedSet<?>) object).comparator());
+
+	/* Other JDK collections (e.g., unmodifiable views) keep their iteration order. */
+	if (object instanceof List)
+	    return new ArrayList<Object>(((Collection<?>) object).size());
+	if (object instanceof Set)
+	    return new LinkedHashSet<Object>();
+	if (object instanceof Map)
+	    return new LinkedHashMap<Object, Object>();
+	throw new UnsupportedOperationException("Cannot copy " + type.getName());
+
+    }
+
+    /**
+     * @return The elements of a collection, or the keys and values of a map.
+     */
+    private static Collection<?> elements(Object object) {
+	if (object instanceof Collection)
+	    return (Collection<?>) object;
+	List<Object> elements = new ArrayList<Object>();
+	for (Map.Entry<?, ?> entry : ((Map<?, ?>) object).entrySet()) {
+	    elements.add(entry.getKey());
+	    elements.add(entry.getValue());
+	}
+	return elements;
+    }
+
+    /**
+     * @return A new instance of the class, whose constructor is not run (if
+     *         possible).
+     */
+    private static Object allocate(Class<?> type) throws ReflectiveOperationException {
+	if (ALLOCATE_INSTANCE != null)
+	    return ALLOCATE_INSTANCE.invoke(UNSAFE, type);
+	Constructor<?> constructor = type.getDeclaredConstructor();
+	constructor.setAccessible(true);
+	return constructor.newInstance();
+    }
+
+    private static Object cloneArray(Object array) {
+	int length = Array.getLength(array);
+	Object copy = Array.newInstance(array.getClass().getComponentType(), length);
+	System.arraycopy(array, 0, copy, 0, length);
+	return copy;
+    }
+
+    /**
+     * @return {@code true} if the object is never modified, so it can be shared
+     *         with the copy.
+     */
+    private static boolean isImmutable(Object object) {
+	return object instanceof String || object instanceof Number
+		&& (object.getClass().getName().startsWith("java.lang.")
+			|| object instanceof BigInteger || object instanceof BigDecimal)
+		|| object instanceof Boolean || object instanceof Character
+		|| object instanceof Enum || object instanceof Class
+		|| object.getClass().isSynthetic();
+    }
+
+    private static boolean isJDK(Class<?> type) {
+	String name = type.getName();
+	return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+		|| name.startsWith("jdk.");
+    }
+
+}
@@ -0,0 +1,179 @@
+package multidiffplus.diff;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.gumtreediff.gen.TreeGenerator;
+import com.github.gumtreediff.tree.TreeContext;
+
+/**
+ * A least-recently-used cache of parsed (and pre-processed) trees, bounded by the
+ * number of characters of source code they were parsed from. When mining a
+ * history, the new version of a file in one commit is usually the old version
+ * of the file in the next commit, so it only needs to be parsed once.
+ *
+ * Trees are keyed by the git blob id of the source code, the language and the
+ * pre-processing flag. Classifying a tree modifies its nodes, so when a tree is
+ * parsed the cache keeps a pristine copy of it. The copy is handed out (and
+ * removed from the cache) the next time the same version is requested, so a
+ * version of a file which is seen twice costs one parse and one copy.
+ *
+ * The cache is disabled unless it is created with {@code createInstance}. It is
+ * shared by all the workers (thread safe).
+ */
+public class ParseTreeCache {
+
+    private static ParseTreeCache instance;
+
+    /** The maximum number of characters of source code to keep trees for. **/
+    private long capacity;
+
+    /** The number of characters of source code currently cached. **/
+    private long size;
+
+    /** The cached trees, in access order. **/
+    private LinkedHashMap<String, Entry> trees;
+
+    private ParseTreeCache(long capacity) {
+	this.capacity = capacity;
+	this.size = 0;
+	this.trees = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * Takes the cached tree for the source code, or parses the source code and
+     * caches a copy of the tree.
+     *
+     * @param treeGenerator
+     *            Parses the source code if it is not cached.
+     * @param source
+     *            The source code.
+     * @param blobID
+     *            The git blob id of the source code, or {@code null} if it is not
+     *            known (in which case the tree is not cached).
+     * @param extension
+     *            The extension of the file, which identifies the language.
+     * @param preProcess
+     *            Set to true to perform pre-processing on the AST.
+     * @return A tree which is not shared with the cache.
+     * @throws IllegalStateException
+     *             if the tree cannot be copied.
+     */
+    public TreeContext generate(TreeGenerator treeGenerator, String source, String blobID,
+	    String extension, boolean preProcess) throws IOException {
+
+	if (blobID == null || source.length() > capacity)
+	    return treeGenerator.generateFromString(source, preProcess);
+
+	String key = getKey(blobID, extension, preProcess);
+
+	Entry entry = take(key);
+	if (entry != null)
+	    return entry.tree;
+
+	/* Keep a pristine copy, since the caller will classify its tree. */
+	TreeContext tree = treeGenerator.generateFromString(source, preProcess);
+	put(key, new Entry(copy(tree, blobID), source.length()));
+	return tree;
+
+    }
+
+    /**
+     * Removes a tree from the cache.
+     *
+     * @return The tree, or {@code null} if it is not cached.
+     */
+    private synchronized Entry take(String key) {
+	Entry entry = trees.remove(key);
+	if (entry != null)
+	    size -= entry.length;
+	return entry;
+    }
+
+    /**
+     * Adds a tree to the cache, evicting the least recently used trees until the
+     * cache is within its capacity.
+     */
+    private synchronized void put(String key, Entry entry) {
+
+	Entry previous = trees.put(key, entry);
+	if (previous != null)
+	    size -= previous.length;
+	size += entry.length;
+
+	Iterator<Map.Entry<String, Entry>> it = trees.entrySet().iterator();
+	while (size > capacity && it.hasNext()) {
+	    size -= it.next().getValue().length;
+	    it.remove();
+	}
+
+    }
+
+    /**
+     * @return A deep copy of the tree.
+     * @throws IllegalStateException
+     *             if the tree cannot be copied.
+     */
+    private static TreeContext copy(TreeContext tree, String blobID) {
+	try {
+	    return ObjectGraphCopier.copy(tree);
+	} catch (UnsupportedOperationException e) {
+	    throw new IllegalStateException("Could not copy the parse tree of blob " + blobID
+		    + " (the parse tree cache can be disabled with --parse-cache 0)", e);
+	}
+    }
+
+    /**
+     * @return The key of the tree parsed from the source code.
+     */
+    private static String getKey(String blobID, String extension, boolean preProcess) {
+	return blobID + "." + extension + (preProcess ? "+pre" : "");
+    }
+
+    /**
+     * @return the singleton {@code ParseTreeCache}, or {@code null} if caching is
+     *         disabled.
+     */
+    public static ParseTreeCache getInstance() {
+	return instance;
+    }
+
+    /**
+     * Enables caching.
+     *
+     * @param capacity
+     *            The maximum number of characters of source code to keep trees
+     *            for.
+     * @return the singleton {@code ParseTreeCache}.
+     */
+    public static synchronized ParseTreeCache createInstance(long capacity) {
+	if (instance == null)
+	    instance = new ParseTreeCache(capacity);
+	return instance;
+    }
+
+    /**
+     * Disables caching and discards the cached trees.
+     */
+    public static synchronized void destroyInstance() {
+	instance = null;
+    }
+
+    /**
+     * A cached tree and the length of the source code it was parsed from.
+     */
+    private static class Entry {
+
+	TreeContext tree;
+	long length;
+
+	Entry(TreeContext tree, long length) {
+	    this.tree = tree;
+	    this.length = length;
+	}
+
+    }
+
+}
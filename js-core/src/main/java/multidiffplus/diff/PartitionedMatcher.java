@@ -0,0 +1,406 @@
+package multidiffplus.diff;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+
+import com.github.gumtreediff.matchers.Mapping;
+import com.github.gumtreediff.matchers.MappingStore;
+import com.github.gumtreediff.matchers.Matcher;
+import com.github.gumtreediff.tree.ITree;
+
+import ca.ubc.ece.salt.gumtree.ast.ClassifiedASTNode;
+import multidiffplus.analysis.Budget;
+
+/**
+ * Matches large trees by partitioning them into their top-level statements
+ * (units), since the cost of the GumTree matcher grows much faster than the size
+ * of the tree.
+ *
+ * Units are paired first by their structure (identical units), then by their
+ * name (e.g., the name of a function) and finally by their position between the
+ * units which are already paired. Identical units are mapped node by node, and
+ * the matcher only runs on the changed pairs. In the fork-join execution mode
+ * (see {@code Diff}), the changed pairs are forked as tasks on the pool which
+ * runs the diff, so matching is bounded by the commit threads. Nodes which move
+ * between units are not detected, so if the pairs cover too little of the
+ * trees (e.g., the file was restructured), the whole trees are only matched
+ * top-down, since matching them fully is the cost this matcher avoids.
+ *
+ * Module wrappers (e.g., an immediately invoked function) are unwrapped before
+ * the trees are partitioned. Pairs which are started after the deadline are
+ * only matched top-down (see {@code TieredMatcher}).
+ */
+public class PartitionedMatcher extends Matcher {
+
+    /** The fraction of each tree the pairs must cover. **/
+    public static final double MIN_COVERAGE = 0.5;
+
+    /** The minimum number of nodes matched by one task. **/
+    private static final int BATCH_SIZE = 1000;
+
+    /** The maximum number of labels in the name of a unit. **/
+    private static final int NAME_LABELS = 3;
+
+    /** When pairs are only matched top-down (in {@code System.nanoTime()} units). **/
+    private long deadline;
+
+    /** Set if a pair was only matched top-down. **/
+    private volatile boolean degraded;
+
+    /** Set if the trees were partitioned (i.e., the pairs covered enough). **/
+    private boolean partitioned;
+
+    public PartitionedMatcher(ITree src, ITree dst) {
+	this(src, dst, new MappingStore(), Long.MAX_VALUE);
+    }
+
+    /**
+     * @param mappings
+     *            Stores the mappings.
+     * @param deadline
+     *            When pairs are only matched top-down (in {@code System.nanoTime()}
+     *            units).
+     */
+    public PartitionedMatcher(ITree src, ITree dst, MappingStore mappings, long deadline) {
+	super(src, dst, mappings);
+	this.deadline = deadline;
+	this.degraded = false;
+	this.partitioned = false;
+    }
+
+    /**
+     * @return {@code true} if some pairs were only matched top-down, because the
+     *         deadline passed.
+     */
+    public boolean isDegraded() {
+	return degraded;
+    }
+
+    /**
+     * @return {@code false} if the pairs covered too little of the trees, so the
+     *         whole trees were only matched top-down.
+     */
+    public boolean isPartitioned() {
+	return partitioned;
+    }
+
+    @Override
+    public void match() {
+
+	/* Unwrap the nodes which wrap the whole file. */
+	List<ITree> srcWrappers = new ArrayList<ITree>();
+	List<ITree> dstWrappers = new ArrayList<ITree>();
+	ITree srcParent = src;
+	ITree dstParent = dst;
+	while (srcParent.getChildren().size() == 1 && dstParent.getChildren().size() == 1
+		&& srcParent.getChildren().get(0).getType() == dstParent.getChildren().get(0)
+			.getType()) {
+	    srcParent = srcParent.getChildren().get(0);
+	    dstParent = dstParent.getChildren().get(0);
+	    srcWrappers.add(srcParent);
+	    dstWrappers.add(dstParent);
+	}
+
+	List<Unit> srcUnits = getUnits(srcParent);
+	List<Unit> dstUnits = getUnits(dstParent);
+	pair(srcUnits, dstUnits);
+
+	if (getCoverage(srcUnits, src) < MIN_COVERAGE
+		|| getCoverage(dstUnits, dst) < MIN_COVERAGE) {
+	    addMappings(TieredMatcher.matchTopDown(src, dst));
+	    return;
+	}
+
+	partitioned = true;
+	addMapping(src, dst);
+	for (int i = 0; i < srcWrappers.size(); i++)
+	    addMapping(srcWrappers.get(i), dstWrappers.get(i));
+
+	List<Unit> changed = new ArrayList<Unit>();
+	for (Unit unit : srcUnits) {
+	    if (unit.partner == null)
+		continue;
+	    if (unit.identical)
+		addIsomorphicMappings(unit.tree, unit.partner.tree);
+	    else
+		changed.add(unit);
+	}
+
+	matchChanged(changed, srcParent, dstParent);
+
+    }
+
+    /**
+     * Matches the changed pairs, in parallel in the fork-join execution mode. The
+     * units are detached from their parents while they are matched, so that the
+     * matcher does not look for candidates outside the pair.
+     */
+    private void matchChanged(List<Unit> changed, ITree srcParent, ITree dstParent) {
+
+	/* Start the largest pairs first, and batch the small pairs. */
+	changed.sort((a, b) -> Integer.compare(b.tree.getSize(), a.tree.getSize()));
+	List<List<Unit>> batches = new ArrayList<List<Unit>>();
+	List<Unit> batch = new ArrayList<Unit>();
+	int batchSize = 0;
+	for (Unit unit : changed) {
+	    batch.add(unit);
+	    batchSize += unit.tree.getSize();
+	    if (batchSize >= BATCH_SIZE) {
+		batches.add(batch);
+		batch = new ArrayList<Unit>();
+		batchSize = 0;
+	    }
+	}
+	if (!batch.isEmpty())
+	    batches.add(batch);
+
+	for (Unit unit : changed) {
+	    unit.tree.setParent(null);
+	    unit.partner.tree.setParent(null);
+	}
+
+	/*
+	 * The batches run under the budget of the diff. Each batch returns its failure,
+	 * so that every batch is done before the units are attached again.
+	 */
+	List<ForkJoinTask<RuntimeException>> tasks = new ArrayList<ForkJoinTask<RuntimeException>>();
+	for (List<Unit> units : batches) {
+	    tasks.add(ForkJoinTask.adapt(Budget.propagate(() -> {
+		try {
+		    matchBatch(units);
+		    return null;
+		} catch (RuntimeException e) {
+		    return e;
+		}
+	    })));
+	}
+	RuntimeException failure = null;
+	try {
+	    /* Fork the batches on the pool of the commit, rather than another pool. */
+	    if (Diff.isForkJoin() && ForkJoinTask.inForkJoinPool())
+		ForkJoinTask.invokeAll(tasks);
+	    else
+		for (ForkJoinTask<RuntimeException> task : tasks)
+		    task.invoke();
+	    for (ForkJoinTask<RuntimeException> task : tasks) {
+		if (failure == null)
+		    failure = task.join();
+	    }
+	} finally {
+	    for (Unit unit : changed) {
+		unit.tree.setParent(srcParent);
+		unit.partner.tree.setParent(dstParent);
+	    }
+	}
+
+	if (failure != null)
+	    throw failure;
+
+	for (Unit unit : changed)
+	    addMappings(unit.mappings);
+
+    }
+
+    /**
+     * Matches the pairs of a batch. The mappings of each pair are stored with its
+     * source unit.
+     */
+    private void matchBatch(List<Unit> units) {
+	for (Unit unit : units) {
+	    Budget.check();
+	    if (System.nanoTime() < deadline) {
+		unit.mappings = TieredMatcher.matchFull(unit.tree, unit.partner.tree);
+	    } else {
+		degraded = true;
+		unit.mappings = TieredMatcher.matchTopDown(unit.tree, unit.partner.tree);
+	    }
+	}
+    }
+
+    private void addMappings(MappingStore mappings) {
+	for (Mapping mapping : mappings)
+	    addMapping(mapping.getFirst(), mapping.getSecond());
+    }
+
+    /**
+     * Maps each node of a tree to the node in the same position of an isomorphic
+     * tree.
+     */
+    private void addIsomorphicMappings(ITree src, ITree dst) {
+	List<ITree> srcTrees = src.getTrees();
+	List<ITree> dstTrees = dst.getTrees();
+	for (int i = 0; i < srcTrees.size(); i++)
+	    addMapping(srcTrees.get(i), dstTrees.get(i));
+    }
+
+    /**
+     * Pairs the source units with the destination units.
+     */
+    private static void pair(List<Unit> srcUnits, List<Unit> dstUnits) {
+
+	/* Pair the identical units. */
+	Map<Long, LinkedList<Unit>> byHash = new HashMap<Long, LinkedList<Unit>>();
+	for (Unit unit : dstUnits)
+	    byHash.computeIfAbsent(unit.hash, k -> new LinkedList<Unit>()).add(unit);
+	for (Unit unit : srcUnits) {
+	    LinkedList<Unit> candidates = byHash.get(unit.hash);
+	    if (candidates == null)
+		continue;
+	    for (Iterator<Unit> it = candidates.iterator(); it.hasNext();) {
+		Unit candidate = it.next();
+		if (unit.tree.isIsomorphicTo(candidate.tree)) {
+		    unit.pair(candidate, true);
+		    it.remove();
+		    break;
+		}
+	    }
+	}
+
+	/* Pair the units with the same name (e.g., a changed function). */
+	Map<String, LinkedList<Unit>> byName = new HashMap<String, LinkedList<Unit>>();
+	for (Unit unit : dstUnits) {
+	    if (unit.partner == null && unit.name != null)
+		byName.computeIfAbsent(unit.name, k -> new LinkedList<Unit>()).add(unit);
+	}
+	for (Unit unit : srcUnits) {
+	    if (unit.partner != null || unit.name == null)
+		continue;
+	    LinkedList<Unit> candidates = byName.get(unit.name);
+	    if (candidates != null && !candidates.isEmpty())
+		unit.pair(candidates.removeFirst(), false);
+	}
+
+	/* Pair the remaining units of the same type between the same neighbours. */
+	int[] next = new int[srcUnits.size()];
+	int following = dstUnits.size();
+	for (int i = srcUnits.size() - 1; i >= 0; i--) {
+	    next[i] = following;
+	    if (srcUnits.get(i).partner != null)
+		following = srcUnits.get(i).partner.index;
+	}
+	int previous = -1;
+	for (int i = 0; i < srcUnits.size(); i++) {
+	    Unit unit = srcUnits.get(i);
+	    if (unit.partner == null) {
+		for (int j = previous + 1; j < next[i]; j++) {
+		    Unit candidate = dstUnits.get(j);
+		    if (candidate.partner == null && candidate.tree.getType() == unit.tree.getType()) {
+			unit.pair(candidate, false);
+			break;
+		    }
+		}
+	    }
+	    if (unit.partner != null)
+		previous = unit.partner.index;
+	}
+
+    }
+
+    /**
+     * @return The fraction of the nodes in the tree which are in paired units.
+     */
+    private static double getCoverage(List<Unit> units, ITree root) {
+	long paired = 0;
+	for (Unit unit : units) {
+	    if (unit.partner != null)
+		paired += unit.tree.getSize();
+	}
+	return (double) paired / root.getSize();
+    }
+
+    private static List<Unit> getUnits(ITree parent) {
+	List<Unit> units = new ArrayList<Unit>();
+	for (ITree child : parent.getChildren())
+	    units.add(new Unit(child, units.size()));
+	return units;
+    }
+
+    /**
+     * @return {@code true} if the node is a function.
+     */
+    private static boolean isFunction(ITree tree) {
+	ClassifiedASTNode node = tree.getClassifiedASTNode();
+	return node != null && node.isFunction();
+    }
+
+    /**
+     * A top-level statement.
+     */
+    private static class Unit {
+
+	ITree tree;
+
+	/** The position of the unit in its parent. **/
+	int index;
+
+	/** Identifies the structure and labels of the unit. **/
+	long hash;
+
+	/**
+	 * The type of the unit and its first labels (outside nested functions), or
+	 * {@code null} if it has no labels.
+	 */
+	String name;
+
+	Unit partner;
+
+	/** Set if the unit is isomorphic to its partner. **/
+	boolean identical;
+
+	/** The mappings of a changed pair (stored with the source unit). **/
+	MappingStore mappings;
+
+	Unit(ITree tree, int index) {
+	    this.tree = tree;
+	    this.index = index;
+	    this.hash = hash(tree);
+	    this.name = name(tree);
+	}
+
+	void pair(Unit partner, boolean identical) {
+	    this.partner = partner;
+	    this.identical = identical;
+	    partner.partner = this;
+	    partner.identical = identical;
+	}
+
+	private static long hash(ITree tree) {
+	    long hash = 1125899906842597L;
+	    for (ITree node : tree.getTrees()) {
+		hash = 31 * hash + node.getType();
+		hash = 31 * hash + (node.hasLabel() ? node.getLabel().hashCode() : 0);
+		hash = 31 * hash + node.getChildren().size();
+	    }
+	    return hash;
+	}
+
+	private static String name(ITree tree) {
+	    StringBuilder name = new StringBuilder().append(tree.getType());
+	    int labels = 0;
+	    Deque<ITree> stack = new ArrayDeque<ITree>();
+	    stack.push(tree);
+	    while (!stack.isEmpty() && labels < NAME_LABELS) {
+		ITree node = stack.pop();
+		if (node != tree && isFunction(node))
+		    continue;
+		if (node.hasLabel()) {
+		    name.append(':').append(node.getLabel());
+		    labels++;
+		}
+		List<ITree> children = node.getChildren();
+		for (int i = children.size() - 1; i >= 0; i--)
+		    stack.push(children.get(i));
+	    }
+	    return labels == 0 ? null : name.toString();
+	}
+
+    }
+
+}
@@ -0,0 +1,214 @@
+package multidiffplus.diff;
+
+import com.github.gumtreediff.matchers.Mapping;
+import com.github.gumtreediff.matchers.MappingStore;
+import com.github.gumtreediff.matchers.Matcher;
+import com.github.gumtreediff.matchers.Matchers;
+import com.github.gumtreediff.matchers.heuristic.gt.GreedyBottomUpMatcher;
+import com.github.gumtreediff.matchers.heuristic.gt.GreedySubtreeMatcher;
+import com.github.gumtreediff.tree.ITree;
+
+/**
+ * Matches two trees with a matcher chosen by the size of the trees, so that the
+ * cost of matching a file is bounded. Batch jobs need a predictable latency
+ * more than they need the best edit script for a huge file.
+ *
+ * The tiers are:
+ * <ul>
+ * <li>{@code gumtree}: the full GumTree matcher, for small trees.</li>
+ * <li>{@code partitioned}: the top-level statements are matched separately (see
+ * {@code PartitionedMatcher}), for trees larger than the partition size.</li>
+ * <li>{@code top-down}: only GumTree's top-down phase, which maps identical
+ * subtrees by their hash, for trees larger than the top-down size.</li>
+ * </ul>
+ *
+ * If the matching time limit passes, the remaining work is only matched
+ * top-down, and the tier is suffixed with {@code +top-down} (e.g.,
+ * {@code gumtree+top-down}). The bottom-up phase is also skipped if its cost,
+ * estimated from the time the top-down phase took and the number of nodes it
+ * left unmapped, would overrun the limit. The limit is not a hard bound: the
+ * top-down phase always runs, and a phase which has started is not
+ * interrupted, so a file may still overrun the limit by the time of one phase
+ * (or one partition) whose cost was underestimated. The policy is configured
+ * globally with {@code setPolicy}; by default every tree is matched by the full
+ * GumTree matcher.
+ */
+public class TieredMatcher extends Matcher {
+
+    /** Indicates there is no limit. **/
+    public static final long NO_LIMIT = -1;
+
+    public static final String GUMTREE = "gumtree";
+    public static final String PARTITIONED = "partitioned";
+    public static final String TOP_DOWN = "top-down";
+
+    /**
+     * The cost of the bottom-up phase per unmapped node, relative to the cost of
+     * the top-down phase per node. The bottom-up phase compares the descendants of
+     * each unmapped node with those of its candidates, so it is the slower one.
+     */
+    private static final int BOTTOM_UP_COST = 4;
+
+    /** The partition size, top-down size and time limit (milliseconds). **/
+    private static volatile long[] policy = { NO_LIMIT, NO_LIMIT, NO_LIMIT };
+
+    /** The tier which matched the trees. **/
+    private String tier;
+
+    public TieredMatcher(ITree src, ITree dst) {
+	super(src, dst, new MappingStore());
+    }
+
+    /**
+     * @return The tier which matched the trees (e.g., {@code gumtree}). A match
+     *         whose time ran out is suffixed with {@code +top-down}, and trees
+     *         which could not be partitioned are {@code top-down}.
+     */
+    public String getTier() {
+	return tier;
+    }
+
+    @Override
+    public void match() {
+
+	long[] limits = policy;
+	long start = System.nanoTime();
+	long deadline = limits[2] == NO_LIMIT ? Long.MAX_VALUE : start + limits[2] * 1000000;
+
+	/* Estimate the cost of matching from the number of nodes. */
+	long size = Math.max(src.getSize(), dst.getSize());
+
+	if (limits[1] != NO_LIMIT && size > limits[1]) {
+	    tier = TOP_DOWN;
+	    addMappings(matchTopDown(src, dst));
+	} else if (limits[0] != NO_LIMIT && size > limits[0]) {
+	    PartitionedMatcher matcher = new PartitionedMatcher(src, dst, mappings, deadline);
+	    matcher.match();
+	    if (!matcher.isPartitioned())
+		tier = TOP_DOWN;
+	    else
+		tier = matcher.isDegraded() ? PARTITIONED + "+" + TOP_DOWN : PARTITIONED;
+	} else if (deadline == Long.MAX_VALUE) {
+	    tier = GUMTREE;
+	    addMappings(matchFull(src, dst));
+	} else {
+	    /* The bottom-up phase is the slow one, so skip it if it would overrun. */
+	    new GreedySubtreeMatcher(src, dst, mappings).match();
+	    long now = System.nanoTime();
+	    long estimate = estimateBottomUp(now - start, countUnmapped(),
+		    src.getSize() + dst.getSize());
+	    if (now < deadline && estimate < deadline - now) {
+		tier = GUMTREE;
+		new GreedyBottomUpMatcher(src, dst, mappings).match();
+	    } else {
+		tier = GUMTREE + "+" + TOP_DOWN;
+		addRootMapping(src, dst, mappings);
+	    }
+	}
+
+    }
+
+    /**
+     * @return The number of nodes in the source and destination trees which are
+     *         not mapped.
+     */
+    private int countUnmapped() {
+	int unmapped = 0;
+	for (ITree node : src.getTrees()) {
+	    if (!mappings.hasSrc(node))
+		unmapped++;
+	}
+	for (ITree node : dst.getTrees()) {
+	    if (!mappings.hasDst(node))
+		unmapped++;
+	}
+	return unmapped;
+    }
+
+    /**
+     * Estimates the time the bottom-up phase will take, by scaling the time of
+     * the top-down phase by the share of the nodes it left unmapped.
+     *
+     * @param topDownTime
+     *            The time the top-down phase took (in nanoseconds).
+     * @param unmapped
+     *            The number of nodes the top-down phase left unmapped.
+     * @param size
+     *            The number of nodes in the source and destination trees.
+     * @return The estimated time of the bottom-up phase (in nanoseconds).
+     */
+    public static long estimateBottomUp(long topDownTime, int unmapped, int size) {
+	if (size == 0)
+	    return 0;
+	return (long) ((double) topDownTime * BOTTOM_UP_COST * unmapped / size);
+    }
+
+    private void addMappings(MappingStore mappings) {
+	for (Mapping mapping : mappings)
+	    addMapping(mapping.getFirst(), mapping.getSecond());
+    }
+
+    /**
+     * Runs the full GumTree matcher.
+     */
+    static MappingStore matchFull(ITree src, ITree dst) {
+	Matcher matcher = Matchers.getInstance().getMatcher(src, dst);
+	matcher.match();
+	return matcher.getMappings();
+    }
+
+    /**
+     * Runs GumTree's top-down phase, which maps identical subtrees, and maps the
+     * roots.
+     */
+    static MappingStore matchTopDown(ITree src, ITree dst) {
+	MappingStore mappings = new MappingStore();
+	new GreedySubtreeMatcher(src, dst, mappings).match();
+	addRootMapping(src, dst, mappings);
+	return mappings;
+    }
+
+    /**
+     * Maps the roots (as the bottom-up phase would), if they are not mapped.
+     */
+    private static void addRootMapping(ITree src, ITree dst, MappingStore mappings) {
+	if (!mappings.hasSrc(src) && !mappings.hasDst(dst))
+	    mappings.link(src, dst);
+    }
+
+    /**
+     * @return {@code true} if the matching time limit passed, so the mappings
+     *         depend on the load of the machine as well as on the trees.
+     */
+    public static boolean isTimedOut(String tier) {
+	return tier != null && tier.endsWith("+" + TOP_DOWN);
+    }
+
+    /**
+     * @return Identifies the policy, which changes the results for large files
+     *         (e.g., for the keys of cached results).
+     */
+    public static String getPolicyID() {
+	long[] limits = policy;
+	return limits[0] + "/" + limits[1] + "/" + limits[2];
+    }
+
+    /**
+     * Sets the policy for new matchers.
+     *
+     * @param partitionSize
+     *            The number of nodes above which the top-level statements are
+     *            matched separately (or {@code NO_LIMIT}).
+     * @param topDownSize
+     *            The number of nodes above which trees are only matched top-down
+     *            (or {@code NO_LIMIT}).
+     * @param timeLimit
+     *            The time (in milliseconds) after which the remaining work is only
+     *            matched top-down (or {@code NO_LIMIT}).
+     */
+    public static synchronized void setPolicy(long partitionSize, long topDownSize,
+	    long timeLimit) {
+	policy = new long[] { partitionSize, topDownSize, timeLimit };
+    }
+
+}
@@ -4,10 +4,11 @@ import org.mozilla.javascript.ast.AstNode;
 import org.mozilla.javascript.ast.NodeVisitor;
 
 import multidiffplus.commit.SourceCodeFileChange;
+import multidiffplus.facts.FactContext;
 
 /**
  * Builds new instances of a domain analysis.
  */
 public interface IASTVisitorFactory {
-	NodeVisitor newInstance(SourceCodeFileChange sourceCodeFileChange, AstNode root);
+	NodeVisitor newInstance(SourceCodeFileChange sourceCodeFileChange, FactContext facts, AstNode root);
 }
\ No newline at end of file
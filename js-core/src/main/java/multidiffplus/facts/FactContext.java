@@ -0,0 +1,61 @@
+package multidiffplus.facts;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import multidiffplus.commit.SourceCodeFileChange;
+
+/**
+ * Holds the fact bases for the files of one commit.
+ *
+ * A context is created for each commit analysis and is passed to the domain
+ * and file analyses, which register their facts in it. Since no fact base is
+ * shared between commits, analyses running on different threads do not contend
+ * for them. The fact bases are released together when the context is closed
+ * (or is no longer referenced), so a code path which stops early cannot leak
+ * them.
+ */
+public class FactContext implements AutoCloseable {
+
+	private Map<SourceCodeFileChange, AnnotationFactBase> annotationFactBases;
+	private Map<SourceCodeFileChange, MiningFactBase> miningFactBases;
+	private Map<SourceCodeFileChange, JsonFactBase> jsonFactBases;
+
+	public FactContext() {
+		this.annotationFactBases = new ConcurrentHashMap<SourceCodeFileChange, AnnotationFactBase>();
+		this.miningFactBases = new ConcurrentHashMap<SourceCodeFileChange, MiningFactBase>();
+		this.jsonFactBases = new ConcurrentHashMap<SourceCodeFileChange, JsonFactBase>();
+	}
+
+	/**
+	 * @return The AnnotationFactBase for the given {@code SourceCodeFileChange}.
+	 */
+	public AnnotationFactBase getAnnotationFactBase(SourceCodeFileChange sourceCodeFileChange) {
+		return annotationFactBases.computeIfAbsent(sourceCodeFileChange, AnnotationFactBase::new);
+	}
+
+	/**
+	 * @return The MiningFactBase for the given {@code SourceCodeFileChange}.
+	 */
+	public MiningFactBase getMiningFactBase(SourceCodeFileChange sourceCodeFileChange) {
+		return miningFactBases.computeIfAbsent(sourceCodeFileChange, MiningFactBase::new);
+	}
+
+	/**
+	 * @return The JsonFactBase for the given {@code SourceCodeFileChange}.
+	 */
+	public JsonFactBase getJsonFactBase(SourceCodeFileChange sourceCodeFileChange) {
+		return jsonFactBases.computeIfAbsent(sourceCodeFileChange, JsonFactBase::new);
+	}
+
+	/**
+	 * Releases the fact bases of all the files.
+	 */
+	@Override
+	public void close() {
+		annotationFactBases.clear();
+		miningFactBases.clear();
+		jsonFactBases.clear();
+	}
+
+}
@@ -1,8 +1,5 @@
 package multidiffplus.facts;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import com.google.gson.JsonObject;
 
 import multidiffplus.commit.SourceCodeFileChange;
@@ -12,31 +9,9 @@ import multidiffplus.commit.SourceCodeFileChange;
  */
 public class JsonFactBase extends FactBase {
 
-    private static Map<SourceCodeFileChange, JsonFactBase> instances = new HashMap<SourceCodeFileChange, JsonFactBase>();
-
     private JsonObject json;
 
-    /**
-     * @return The AnnotationFactBase for the given {@code SourceCodeFileChange}.
-     */
-    public static JsonFactBase getInstance(SourceCodeFileChange sourceCodeFileChange) {
-	JsonFactBase instance = instances.get(sourceCodeFileChange);
-	if (instance == null) {
-	    instance = new JsonFactBase(sourceCodeFileChange);
-	    instances.put(sourceCodeFileChange, instance);
-	}
-	return instance;
-    }
-
-    /**
-     * Removes the {@code AnnotationFactBase} for the given
-     * {@code SourceCodeFileChange}.
-     */
-    public static void removeInstance(SourceCodeFileChange sourceCodeFileChange) {
-	instances.remove(sourceCodeFileChange);
-    }
-
-    private JsonFactBase(SourceCodeFileChange sourceCodeFileChange) {
+    JsonFactBase(SourceCodeFileChange sourceCodeFileChange) {
 
 	super(sourceCodeFileChange);
 
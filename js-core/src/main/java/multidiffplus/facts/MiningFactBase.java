@@ -1,8 +1,6 @@
 package multidiffplus.facts;
 
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -14,34 +12,13 @@ import multidiffplus.commit.SourceCodeFileChange;
  */
 public class MiningFactBase extends FactBase {
 	
-	private static Map<SourceCodeFileChange, MiningFactBase> instances = new HashMap<SourceCodeFileChange, MiningFactBase>();
-	
 	private Integer insertedStatements;
 	private Integer removedStatements;
 	private Integer updatedStatements;
 	
 	private SortedSet<Annotation> annotations;
 	
-	/**
-	 * @return The AnnotationFactBase for the given {@code SourceCodeFileChange}.
-	 */
-	public static MiningFactBase getInstance(SourceCodeFileChange sourceCodeFileChange) {
-		MiningFactBase instance = instances.get(sourceCodeFileChange);
-		if(instance == null) {
-			instance = new MiningFactBase(sourceCodeFileChange);
-			instances.put(sourceCodeFileChange, instance);
-		}
-		return instance;
-	}
-	
-	/**
-	 * Removes the {@code AnnotationFactBase} for the given {@code SourceCodeFileChange}.
-	 */
-	public static void removeInstance(SourceCodeFileChange sourceCodeFileChange) {
-		instances.remove(sourceCodeFileChange);
-	}
-	
-	private MiningFactBase(SourceCodeFileChange sourceCodeFileChange) {
+	MiningFactBase(SourceCodeFileChange sourceCodeFileChange) {
 
 		super(sourceCodeFileChange);
 		
@@ -0,0 +1,53 @@
+package multidiffplus.analysis.test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import multidiffplus.analysis.Budget;
+import multidiffplus.analysis.BudgetExceededException;
+
+public class BudgetTests {
+
+    @Test
+    public void testPropagateToForkedTask() throws Exception {
+	Budget commit = Budget.create(Budget.Level.COMMIT);
+	try (Budget.Entered entered = commit.enter()) {
+	    ForkJoinTask<Boolean> task = ForkJoinTask.adapt(Budget.propagate(() -> {
+		try {
+		    Budget.check();
+		    return false;
+		} catch (BudgetExceededException e) {
+		    return true;
+		}
+	    }));
+	    commit.cancel();
+	    Assert.assertTrue(task.fork().join());
+	}
+    }
+
+    @Test
+    public void testPropagateRestoresBudget() throws Exception {
+	Budget commit = Budget.create(Budget.Level.COMMIT);
+	commit.cancel();
+	Callable<Void> task;
+	try (Budget.Entered entered = commit.enter()) {
+	    task = Budget.propagate(() -> {
+		Budget.check();
+		return null;
+	    });
+	}
+
+	/* The task runs under the cancelled budget, then this thread has none again. */
+	try {
+	    task.call();
+	    Assert.fail();
+	} catch (BudgetExceededException e) {
+	    Assert.assertEquals(Budget.Level.COMMIT, e.getLevel());
+	}
+	Budget.check();
+    }
+
+}
@@ -0,0 +1,36 @@
+package multidiffplus.batch.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import multidiffplus.batch.BloomFilter;
+
+public class BloomFilterTests {
+
+    @Test
+    public void testNoFalseNegatives() {
+	BloomFilter filter = new BloomFilter(10000, 1e-6);
+	for (int i = 0; i < 10000; i++)
+	    Assert.assertTrue(filter.add("https://github.com/p/project/commit/" + i + ",lib/a.js"));
+	for (int i = 0; i < 10000; i++) {
+	    String item = "https://github.com/p/project/commit/" + i + ",lib/a.js";
+	    Assert.assertTrue(filter.mightContain(item));
+	    Assert.assertFalse(filter.add(item));
+	}
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+	BloomFilter filter = new BloomFilter(10000, 1e-3);
+	for (int i = 0; i < 10000; i++)
+	    filter.add("added/" + i);
+
+	int falsePositives = 0;
+	for (int i = 0; i < 100000; i++) {
+	    if (filter.mightContain("not-added/" + i))
+		falsePositives++;
+	}
+	Assert.assertTrue(falsePositives < 300);
+    }
+
+}
@@ -0,0 +1,187 @@
+package multidiffplus.batch.test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import multidiffplus.batch.AnnotationRow;
+import multidiffplus.batch.AnnotationRow.Column;
+import multidiffplus.batch.ColumnarConverter;
+import multidiffplus.batch.ColumnarReader;
+import multidiffplus.batch.ColumnarWriter;
+
+public class ColumnarFormatTests {
+
+    private File columnar;
+    private File csv;
+
+    @Before
+    public void setUp() throws IOException {
+	columnar = File.createTempFile("annotations", ".cols");
+	csv = File.createTempFile("annotations", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+	columnar.delete();
+	csv.delete();
+    }
+
+    /**
+     * @return Rows which span several blocks, with repeated strings and
+     *         decreasing numbers.
+     */
+    protected List<AnnotationRow> getRows() {
+	List<AnnotationRow> rows = new ArrayList<AnnotationRow>();
+	for (int i = 0; i < ColumnarWriter.BLOCK_ROWS * 2 + 10; i++) {
+	    rows.add(new AnnotationRow("https://github.com/p/project" + (i % 3), "c" + (i / 7),
+		    1500000000 - i, "lib/dir,with,commas/file" + (i % 11) + ".js",
+		    (i / 7) + "_old.js", (i / 7) + "_new.js", "LABEL_" + (i % 2), i % 500,
+		    (i * 37) % 10000, i % 5 == 0 ? null : "gumtree"));
+	}
+	return rows;
+    }
+
+    protected List<AnnotationRow> read(EnumSet<Column> columns) throws IOException {
+	List<AnnotationRow> rows = new ArrayList<AnnotationRow>();
+	try (ColumnarReader reader = new ColumnarReader(columnar, columns)) {
+	    for (AnnotationRow row; (row = reader.read()) != null;)
+		rows.add(row);
+	}
+	return rows;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+	List<AnnotationRow> expected = getRows();
+	try (ColumnarWriter writer = new ColumnarWriter(columnar)) {
+	    for (AnnotationRow row : expected)
+		writer.write(row);
+	}
+
+	List<AnnotationRow> actual = read(EnumSet.allOf(Column.class));
+
+	Assert.assertEquals(expected.size(), actual.size());
+	for (int i = 0; i < expected.size(); i++) {
+	    Assert.assertEquals(expected.get(i).toCSV(), actual.get(i).toCSV());
+	    Assert.assertEquals(expected.get(i).getPosition(), actual.get(i).getPosition());
+	    Assert.assertEquals(expected.get(i).getMatcher(), actual.get(i).getMatcher());
+	}
+    }
+
+    @Test
+    public void testScanLabels() throws IOException {
+	List<AnnotationRow> expected = getRows();
+	try (ColumnarWriter writer = new ColumnarWriter(columnar)) {
+	    for (AnnotationRow row : expected)
+		writer.write(row);
+	}
+
+	List<AnnotationRow> actual = read(EnumSet.of(Column.LABEL));
+
+	Assert.assertEquals(expected.size(), actual.size());
+	for (int i = 0; i < expected.size(); i++) {
+	    Assert.assertEquals(expected.get(i).getLabel(), actual.get(i).getLabel());
+	    Assert.assertNull(actual.get(i).getFile());
+	    Assert.assertNull(actual.get(i).getOldSource());
+	}
+    }
+
+    @Test
+    public void testConvertCSV() throws IOException {
+	List<String> lines = Arrays.asList(
+		"https://github.com/p/project/commit/abc,1500000000,lib/a.js,1_old.js,1_new.js,TRY,12",
+		"https://github.com/p/project/commit/abc,1500000000,lib/a,b.js,2_old.js,2_new.js,TRY,3");
+	Files.write(csv.toPath(), lines, StandardCharsets.UTF_8);
+
+	Assert.assertEquals(2, ColumnarConverter.fromCSV(csv, columnar));
+	Assert.assertEquals("lib/a,b.js", read(EnumSet.allOf(Column.class)).get(1).getFile());
+
+	Assert.assertEquals(2, ColumnarConverter.toCSV(columnar, csv));
+	Assert.assertEquals(lines, Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testConvertCSVWithMatcher() throws IOException {
+	/* Rows mined before the matcher was recorded have no matcher column. */
+	List<String> lines = Arrays.asList(
+		"https://github.com/p/project/commit/abc,1500000000,lib/a.js,1_old.js,1_new.js,TRY,12,gumtree",
+		"https://github.com/p/project/commit/abc,1500000000,lib/a,b.js,2_old.js,2_new.js,TRY,3",
+		"https://github.com/p/project/commit/abc,1500000000,lib/a,b.js,3_old.js,3_new.js,TRY,4,top-down");
+	Files.write(csv.toPath(), lines, StandardCharsets.UTF_8);
+
+	Assert.assertEquals(3, ColumnarConverter.fromCSV(csv, columnar));
+	List<AnnotationRow> rows = read(EnumSet.allOf(Column.class));
+	Assert.assertEquals("gumtree", rows.get(0).getMatcher());
+	Assert.assertEquals(12, rows.get(0).getLine());
+	Assert.assertNull(rows.get(1).getMatcher());
+	Assert.assertEquals("lib/a,b.js", rows.get(2).getFile());
+	Assert.assertEquals(4, rows.get(2).getLine());
+
+	Assert.assertEquals(3, ColumnarConverter.toCSV(columnar, csv));
+	Assert.assertEquals(lines, Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMatcherWithoutLine() {
+	AnnotationRow.fromCSV("https://github.com/p/project/commit/abc,1500000000,lib/a.js,1_old.js,1_new.js,TRY,gumtree");
+    }
+
+    @Test
+    public void testReadVersion1() throws IOException {
+	/* A version 1 block of one row, which has no matcher column. */
+	try (DataOutputStream out = new DataOutputStream(new FileOutputStream(columnar))) {
+	    out.write(new byte[] { 'M', 'D', 'P', 'C' });
+	    out.writeInt(1);
+	    out.writeInt(1);
+	    for (Column column : Column.values()) {
+		if (column == Column.MATCHER)
+		    continue;
+		byte[] raw = column == Column.TIMESTAMP || column == Column.LINE
+			|| column == Column.POSITION ? new byte[] { 2 }
+				: new byte[] { 1, 1, 'x', 0 };
+		byte[] compressed = compress(raw);
+		out.writeInt(raw.length);
+		out.writeInt(compressed.length);
+		out.write(compressed);
+	    }
+	}
+
+	List<AnnotationRow> actual = read(EnumSet.allOf(Column.class));
+	Assert.assertEquals(1, actual.size());
+	Assert.assertEquals("x", actual.get(0).getLabel());
+	Assert.assertEquals(1, actual.get(0).getLine());
+	Assert.assertNull(actual.get(0).getMatcher());
+
+	try {
+	    ColumnarWriter.checkAppendable(columnar);
+	    Assert.fail();
+	} catch (IOException e) {
+	    /* The blocks of a file must have the same columns. */
+	}
+    }
+
+    private static byte[] compress(byte[] raw) {
+	Deflater deflater = new Deflater();
+	deflater.setInput(raw);
+	deflater.finish();
+	byte[] buffer = new byte[64];
+	int length = deflater.deflate(buffer);
+	deflater.end();
+	return Arrays.copyOf(buffer, length);
+    }
+
+}
@@ -0,0 +1,187 @@
+package multidiffplus.batch.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.Assert;
+import org.junit.Test;
+
+import multidiffplus.batch.PathRules;
+
+public class PathRulesTests {
+
+    private static boolean matches(String glob, String path) {
+	return path.matches(PathRules.globToRegex(glob));
+    }
+
+    @Test
+    public void testGlobToRegex() {
+	/* ** matches any number of directories, including none. */
+	Assert.assertTrue(matches("**/*.js", "a.js"));
+	Assert.assertTrue(matches("**/*.js", "src/lib/a.js"));
+	Assert.assertTrue(matches("**/dist/**", "dist/a.js"));
+	Assert.assertTrue(matches("**/dist/**", "src/dist/a/b.js"));
+	Assert.assertFalse(matches("**/dist/**", "distribution/a.js"));
+
+	/* * and ? do not cross directories. */
+	Assert.assertFalse(matches("src/*.js", "src/lib/a.js"));
+	Assert.assertTrue(matches("src/?.js", "src/a.js"));
+	Assert.assertFalse(matches("src/?.js", "src/ab.js"));
+
+	/* Regex metacharacters are literals. */
+	Assert.assertTrue(matches("**/*.min.js", "a.min.js"));
+	Assert.assertFalse(matches("**/*.min.js", "aXminXjs"));
+	Assert.assertTrue(matches("a+(b).js", "a+(b).js"));
+    }
+
+    /** The cases the default rules replaced, which were checked with regexes in the analysis. **/
+    @Test
+    public void testDefaultsMatchOldChecks() {
+	PathRules rules = PathRules.defaults();
+
+	Assert.assertTrue(rules.accepts("index.js"));
+	Assert.assertTrue(rules.accepts("src/lib/index.js"));
+
+	/* A dist directory at the root or below it. */
+	Assert.assertFalse(rules.accepts("dist/index.js"));
+	Assert.assertFalse(rules.accepts("src/dist/index.js"));
+	Assert.assertTrue(rules.accepts("src/distribution/index.js"));
+
+	/* A bin directory at the root or below it. */
+	Assert.assertFalse(rules.accepts("bin/cli.js"));
+	Assert.assertFalse(rules.accepts("src/bin/cli.js"));
+	Assert.assertTrue(rules.accepts("src/binary.js"));
+
+	/* ^.*test.*$ */
+	Assert.assertFalse(rules.accepts("test/index.js"));
+	Assert.assertFalse(rules.accepts("src/index.test.js"));
+	Assert.assertFalse(rules.accepts("src/latest.js"));
+
+	/* ^.*node_modules/.*$ */
+	Assert.assertFalse(rules.accepts("node_modules/a/index.js"));
+	Assert.assertFalse(rules.accepts("src/node_modules/a/index.js"));
+
+	/* ^.*jquery.*$ */
+	Assert.assertFalse(rules.accepts("lib/jquery-1.9.js"));
+	Assert.assertFalse(rules.accepts("jquery.ui/widget.js"));
+
+	/* ^.*gulpfile.js$ */
+	Assert.assertFalse(rules.accepts("gulpfile.js"));
+	Assert.assertFalse(rules.accepts("build/gulpfile.js"));
+	Assert.assertFalse(rules.accepts("build/mygulpfile.js"));
+
+	/* endsWith(".min.js") */
+	Assert.assertFalse(rules.accepts("a.min.js"));
+	Assert.assertFalse(rules.accepts("lib/a.min.js"));
+
+	/* !endsWith(".js") */
+	Assert.assertFalse(rules.accepts("README.md"));
+	Assert.assertFalse(rules.accepts("src/index.jsx"));
+    }
+
+    @Test
+    public void testAcceptsDirectory() {
+	PathRules rules = PathRules.defaults();
+
+	Assert.assertTrue(rules.acceptsDirectory("src"));
+	Assert.assertTrue(rules.acceptsDirectory("src/lib"));
+	Assert.assertTrue(rules.acceptsDirectory("distribution"));
+
+	Assert.assertFalse(rules.acceptsDirectory("dist"));
+	Assert.assertFalse(rules.acceptsDirectory("src/dist"));
+	Assert.assertFalse(rules.acceptsDirectory("bin"));
+	Assert.assertFalse(rules.acceptsDirectory("node_modules"));
+	Assert.assertFalse(rules.acceptsDirectory("src/node_modules"));
+	Assert.assertFalse(rules.acceptsDirectory("test"));
+	Assert.assertFalse(rules.acceptsDirectory("jquery"));
+    }
+
+    @Test
+    public void testTreeFilterPrunesDirectories() throws IOException {
+	try (InMemoryRepository repository = new InMemoryRepository(new DfsRepositoryDescription("rules"));
+		ObjectInserter inserter = repository.newObjectInserter()) {
+	    ObjectId blob = inserter.insert(Constants.OBJ_BLOB, "var a;".getBytes(StandardCharsets.UTF_8));
+
+	    TreeFormatter nodeModules = new TreeFormatter();
+	    nodeModules.append("index.js", FileMode.REGULAR_FILE, blob);
+	    ObjectId nodeModulesTree = inserter.insert(nodeModules);
+
+	    TreeFormatter src = new TreeFormatter();
+	    src.append("a.js", FileMode.REGULAR_FILE, blob);
+	    src.append("a.min.js", FileMode.REGULAR_FILE, blob);
+	    src.append("node_modules", FileMode.TREE, nodeModulesTree);
+	    ObjectId srcTree = inserter.insert(src);
+
+	    TreeFormatter dist = new TreeFormatter();
+	    dist.append("b.js", FileMode.REGULAR_FILE, blob);
+	    ObjectId distTree = inserter.insert(dist);
+
+	    TreeFormatter root = new TreeFormatter();
+	    root.append("README.md", FileMode.REGULAR_FILE, blob);
+	    root.append("dist", FileMode.TREE, distTree);
+	    root.append("index.js", FileMode.REGULAR_FILE, blob);
+	    root.append("src", FileMode.TREE, srcTree);
+	    ObjectId rootTree = inserter.insert(root);
+	    inserter.flush();
+
+	    /* Every entry the walk visits, including the subtrees it enters. */
+	    List<String> visited = new ArrayList<String>();
+	    try (TreeWalk walk = new TreeWalk(repository)) {
+		walk.addTree(rootTree);
+		walk.setFilter(PathRules.defaults().toTreeFilter());
+		while (walk.next()) {
+		    visited.add(walk.getPathString());
+		    if (walk.isSubtree())
+			walk.enterSubtree();
+		}
+	    }
+
+	    Assert.assertEquals(Arrays.asList("index.js", "src", "src/a.js"), visited);
+	}
+    }
+
+    @Test
+    public void testFromFile() throws IOException {
+	File file = File.createTempFile("rules", ".txt");
+	try {
+	    try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+		writer.write("# Only the sources.\n\nexclude glob **/vendor/**\ninclude regex src/.*\\.js\n");
+	    }
+	    PathRules rules = PathRules.fromFile(file);
+	    Assert.assertTrue(rules.accepts("src/a.js"));
+	    Assert.assertFalse(rules.accepts("src/vendor/a.js"));
+	    Assert.assertFalse(rules.accepts("lib/a.js"));
+	    Assert.assertFalse(rules.acceptsDirectory("src/vendor"));
+	} finally {
+	    file.delete();
+	}
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformedRule() throws IOException {
+	File file = File.createTempFile("rules", ".txt");
+	try {
+	    try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+		writer.write("exclude **/vendor/**\n");
+	    }
+	    PathRules.fromFile(file);
+	} finally {
+	    file.delete();
+	}
+    }
+
+}
@@ -0,0 +1,150 @@
+package multidiffplus.batch.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import multidiffplus.batch.GitProject;
+import multidiffplus.batch.RepositoryAcquisition;
+
+public class RepositoryAcquisitionTests {
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException {
+	root = Files.createTempDirectory("acquisition").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+	try (Stream<Path> files = Files.walk(root.toPath())) {
+	    files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+	}
+    }
+
+    /**
+     * Creates a bare repository which can be cloned with a file:// URI.
+     *
+     * @param commits
+     *            The number of commits in the repository's history.
+     * @return The URI of the repository.
+     */
+    protected String createRemote(String name, int commits) throws Exception {
+	File work = new File(root, "work/" + name);
+	try (Git git = Git.init().setDirectory(work).call()) {
+	    for (int i = 0; i < commits; i++) {
+		Files.write(new File(work, "file" + i + ".js").toPath(),
+			("var x" + i + " = " + i + ";\n").getBytes());
+		git.add().addFilepattern(".").call();
+		git.commit().setMessage("commit " + i).setAuthor("a", "a@a").call();
+	    }
+	}
+
+	File remote = new File(root, "remotes/" + name + ".git");
+	Git.cloneRepository().setURI(work.toURI().toString()).setDirectory(remote)
+		.setBare(true).call().close();
+	return "file://" + remote.getAbsolutePath();
+    }
+
+    /**
+     * Acquires the repositories with a single thread and returns the names of the
+     * projects in the order they were acquired.
+     */
+    protected List<String> acquire(List<String> uris, String checkoutDir) throws Exception {
+	List<String> acquired = Collections.synchronizedList(new ArrayList<String>());
+	List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+	CountDownLatch latch = new CountDownLatch(uris.size());
+
+	RepositoryAcquisition acquisition = new RepositoryAcquisition(checkoutDir, 1);
+	acquisition.acquire(uris, new RepositoryAcquisition.Listener() {
+
+	    @Override
+	    public void acquired(GitProject gitProject, long size) {
+		Assert.assertTrue(size > 0);
+		acquired.add(gitProject.getName());
+		latch.countDown();
+	    }
+
+	    @Override
+	    public void failed(String uri, Exception e) {
+		failed.add(uri);
+		latch.countDown();
+	    }
+
+	});
+	acquisition.shutdown();
+
+	Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+	Assert.assertTrue(failed.isEmpty());
+	return acquired;
+    }
+
+    @Test
+    public void testClonesLargestFirst() throws Exception {
+	String small = createRemote("small", 1);
+	String large = createRemote("large", 20);
+	String checkoutDir = new File(root, "repositories").getPath();
+
+	List<String> acquired = acquire(Arrays.asList(small, large), checkoutDir);
+
+	Assert.assertEquals(Arrays.asList("large", "small"), acquired);
+	Assert.assertTrue(new File(checkoutDir, "small/.git").exists());
+	Assert.assertTrue(new File(checkoutDir, "large/.git").exists());
+    }
+
+    @Test
+    public void testPullsExistingCheckout() throws Exception {
+	String uri = createRemote("project", 3);
+	String checkoutDir = new File(root, "repositories").getPath();
+
+	acquire(Arrays.asList(uri), checkoutDir);
+	List<String> acquired = acquire(Arrays.asList(uri), checkoutDir);
+
+	Assert.assertEquals(Arrays.asList("project"), acquired);
+    }
+
+    @Test
+    public void testReportsFailures() throws Exception {
+	String checkoutDir = new File(root, "repositories").getPath();
+	String missing = "file://" + new File(root, "remotes/missing.git").getAbsolutePath();
+	CountDownLatch latch = new CountDownLatch(1);
+	List<String> failed = Collections.synchronizedList(new ArrayList<String>());
+
+	RepositoryAcquisition acquisition = new RepositoryAcquisition(checkoutDir, 1);
+	acquisition.acquire(Arrays.asList(missing), new RepositoryAcquisition.Listener() {
+
+	    @Override
+	    public void acquired(GitProject gitProject, long size) {
+		latch.countDown();
+	    }
+
+	    @Override
+	    public void failed(String uri, Exception e) {
+		failed.add(uri);
+		latch.countDown();
+	    }
+
+	});
+	acquisition.shutdown();
+
+	Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+	Assert.assertEquals(Arrays.asList(missing), failed);
+    }
+
+}
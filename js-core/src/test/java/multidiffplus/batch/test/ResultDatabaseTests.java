@@ -0,0 +1,122 @@
+package multidiffplus.batch.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import multidiffplus.batch.AnnotationRow;
+import multidiffplus.batch.ResultDatabase;
+
+public class ResultDatabaseTests {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+	file = File.createTempFile("annotations", ".db");
+	file.delete();
+    }
+
+    @After
+    public void tearDown() {
+	for (String suffix : new String[] { "", "-wal", "-shm" })
+	    new File(file.getPath() + suffix).delete();
+    }
+
+    /**
+     * Writes three annotations in two files of a commit.
+     */
+    protected void writeCommit(ResultDatabase database, String commit) throws IOException {
+	String project = "https://github.com/p/project";
+	database.write(new AnnotationRow(project, commit, 1500000000, "lib/a.js", "a1", "a2",
+		"TRY", 1, 10));
+	database.write(new AnnotationRow(project, commit, 1500000000, "lib/a.js", "a1", "a2",
+		"CALL", 2, 20));
+	database.write(new AnnotationRow(project, commit, 1500000000, "lib/b.js", "b1", "b2",
+		"TRY", 3, 30, "partitioned"));
+    }
+
+    protected long count(String sql) throws SQLException {
+	try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+		Statement statement = connection.createStatement();
+		ResultSet result = statement.executeQuery(sql)) {
+	    result.next();
+	    return result.getLong(1);
+	}
+    }
+
+    @Test
+    public void testNormalized() throws Exception {
+	try (ResultDatabase database = new ResultDatabase(file)) {
+	    writeCommit(database, "c1");
+	    writeCommit(database, "c2");
+	}
+
+	Assert.assertEquals(1, count("SELECT COUNT(*) FROM projects"));
+	Assert.assertEquals(2, count("SELECT COUNT(*) FROM commits"));
+	Assert.assertEquals(4, count("SELECT COUNT(*) FROM file_changes"));
+	Assert.assertEquals(4, count("SELECT COUNT(*) FROM annotations WHERE label = 'TRY'"));
+    }
+
+    @Test
+    public void testVisibleOnceCommitted() throws Exception {
+	try (ResultDatabase database = new ResultDatabase(file)) {
+	    writeCommit(database, "c1");
+	    database.flush();
+	    Assert.assertEquals(0, count("SELECT COUNT(*) FROM annotations"));
+	    database.commit();
+	    Assert.assertEquals(3, count("SELECT COUNT(*) FROM annotations"));
+	}
+    }
+
+    @Test
+    public void testCommitWrittenAgain() throws Exception {
+	/* A run which was interrupted before the commit was checkpointed. */
+	try (ResultDatabase database = new ResultDatabase(file)) {
+	    writeCommit(database, "c1");
+	}
+	try (ResultDatabase database = new ResultDatabase(file)) {
+	    writeCommit(database, "c1");
+	    writeCommit(database, "c2");
+	}
+
+	Assert.assertEquals(2, count("SELECT COUNT(*) FROM commits"));
+	Assert.assertEquals(4, count("SELECT COUNT(*) FROM file_changes"));
+	Assert.assertEquals(6, count("SELECT COUNT(*) FROM annotations"));
+    }
+
+    @Test
+    public void testMatcher() throws Exception {
+	try (ResultDatabase database = new ResultDatabase(file)) {
+	    writeCommit(database, "c1");
+	}
+
+	Assert.assertEquals(1, count("SELECT COUNT(*) FROM file_changes WHERE matcher = 'partitioned'"));
+	Assert.assertEquals(1, count("SELECT COUNT(*) FROM file_changes WHERE matcher IS NULL"));
+    }
+
+    @Test
+    public void testMatcherColumnAdded() throws Exception {
+	/* A database created before the matcher was recorded. */
+	try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+		Statement statement = connection.createStatement()) {
+	    statement.execute(
+		    "CREATE TABLE file_changes (id INTEGER PRIMARY KEY, commit_id INTEGER NOT NULL, path TEXT NOT NULL, old_source TEXT, new_source TEXT)");
+	}
+	try (ResultDatabase database = new ResultDatabase(file)) {
+	    writeCommit(database, "c1");
+	}
+
+	Assert.assertEquals(1, count("SELECT COUNT(*) FROM file_changes WHERE matcher = 'partitioned'"));
+    }
+
+}
@@ -0,0 +1,175 @@
+package multidiffplus.batch.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import multidiffplus.batch.Checkpoint;
+import multidiffplus.batch.ResultWriter;
+
+public class ResultWriterTests {
+
+    private File directory;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+	directory = Files.createTempDirectory("writer").toFile();
+	file = new File(directory, "results.out");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+	ResultWriter.setCapacity(1024);
+	try {
+	    ResultWriter.closeAll();
+	} catch (IOException ignore) {
+	}
+	for (File child : directory.listFiles())
+	    child.delete();
+	directory.delete();
+    }
+
+    @Test(timeout = 10000)
+    public void testSyncMarksDone() throws Exception {
+	try (Checkpoint checkpoint = Checkpoint.open(directory, "project")) {
+	    ResultWriter writer = ResultWriter.forFile(file);
+	    writer.write(new ResultWriter.Record(Arrays.asList("a", "b"), checkpoint, "c1"));
+	    writer.write(new ResultWriter.Record(Arrays.asList("c"), checkpoint, "c2"));
+	    writer.sync();
+
+	    Assert.assertTrue(checkpoint.isDone("c1"));
+	    Assert.assertTrue(checkpoint.isDone("c2"));
+	    Assert.assertEquals(Arrays.asList("a", "b", "c"),
+		    Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+	}
+    }
+
+    @Test(timeout = 10000)
+    public void testRuntimeErrorFailsSync() throws Exception {
+	/* The columnar sink throws an unchecked exception for lines. */
+	ResultWriter writer = ResultWriter.forFile(file, ResultWriter.Format.COLUMNAR);
+	writer.write(new ResultWriter.Record(Collections.singletonList("a"), null, "c1"));
+
+	try {
+	    writer.sync();
+	    Assert.fail();
+	} catch (IOException e) {
+	    /* The writer thread stopped, but the submitter does not hang. */
+	}
+
+	try {
+	    writer.write(new ResultWriter.Record(Collections.singletonList("b"), null, "c2"));
+	    Assert.fail();
+	} catch (IOException e) {
+	    /* Later records are rejected. */
+	}
+    }
+
+    /**
+     * @return A line which the writer thread can not write until the latch opens
+     *         (and then fails to write, if {@code fail} is set).
+     */
+    private static ResultWriter.Line blocked(CountDownLatch started, CountDownLatch latch,
+	    boolean fail) {
+	return out -> {
+	    started.countDown();
+	    try {
+		latch.await();
+	    } catch (InterruptedException e) {
+		throw new IOException(e);
+	    }
+	    if (fail)
+		throw new IOException("The disk is full.");
+	    out.write("a");
+	};
+    }
+
+    /**
+     * Writes a record on a new thread.
+     */
+    private static Thread submit(ResultWriter writer, String line,
+	    AtomicReference<Throwable> failure) {
+	Thread submitter = new Thread(() -> {
+	    try {
+		writer.write(new ResultWriter.Record(Collections.singletonList(line), null, line));
+	    } catch (Throwable e) {
+		failure.set(e);
+	    }
+	});
+	submitter.start();
+	return submitter;
+    }
+
+    @Test(timeout = 10000)
+    public void testSubmitterWaitsForRoom() throws Exception {
+	ResultWriter.setCapacity(1);
+	ResultWriter writer = ResultWriter.forFile(file);
+	CountDownLatch started = new CountDownLatch(1);
+	CountDownLatch latch = new CountDownLatch(1);
+
+	/* The record holds the only permit until the writer thread has written it. */
+	writer.write(new ResultWriter.Record(
+		Collections.singletonList(blocked(started, latch, false)), null, "c1"));
+	started.await();
+
+	AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	Thread submitter = submit(writer, "b", failure);
+	submitter.join(500);
+	Assert.assertTrue(submitter.isAlive());
+
+	latch.countDown();
+	submitter.join();
+	Assert.assertNull(failure.get());
+
+	writer.sync();
+	Assert.assertEquals(Arrays.asList("a", "b"),
+		Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test(timeout = 10000)
+    public void testWaitingSubmitterFailsWhenWriterStops() throws Exception {
+	ResultWriter.setCapacity(1);
+	ResultWriter writer = ResultWriter.forFile(file);
+	CountDownLatch started = new CountDownLatch(1);
+	CountDownLatch latch = new CountDownLatch(1);
+
+	writer.write(new ResultWriter.Record(
+		Collections.singletonList(blocked(started, latch, true)), null, "c1"));
+	started.await();
+
+	AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	Thread submitter = submit(writer, "b", failure);
+	submitter.join(500);
+	Assert.assertTrue(submitter.isAlive());
+
+	/* The writer thread stops, so the submitter gives up instead of hanging. */
+	latch.countDown();
+	submitter.join();
+	Assert.assertTrue(failure.get() instanceof IOException);
+    }
+
+    @Test(timeout = 10000)
+    public void testWriteAfterClose() throws Exception {
+	ResultWriter writer = ResultWriter.forFile(file);
+	ResultWriter.closeAll();
+
+	try {
+	    writer.sync();
+	    Assert.fail();
+	} catch (IOException e) {
+	    /* The barrier is rejected rather than never completed. */
+	}
+    }
+
+}
@@ -0,0 +1,90 @@
+package multidiffplus.batch.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import multidiffplus.batch.Shard;
+import multidiffplus.batch.ShardMerger;
+
+public class ShardTests {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+	directory = Files.createTempDirectory("shards").toFile();
+    }
+
+    @After
+    public void tearDown() {
+	for (File file : directory.listFiles())
+	    file.delete();
+	directory.delete();
+    }
+
+    @Test
+    public void testParse() {
+	Shard shard = Shard.parse("2/8");
+	Assert.assertEquals(2, shard.getIndex());
+	Assert.assertEquals(8, shard.getCount());
+	Assert.assertEquals(new File("out.csv.shard-2-of-8"), shard.part(new File("out.csv")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseOutOfRange() {
+	Shard.parse("8/8");
+    }
+
+    @Test
+    public void testEachKeyInOneShard() {
+	Shard[] shards = { new Shard(0, 3), new Shard(1, 3), new Shard(2, 3) };
+	int[] sizes = new int[shards.length];
+	for (int i = 0; i < 3000; i++) {
+	    String key = "https://github.com/p/project" + i + ".git";
+	    int owners = 0;
+	    for (Shard shard : shards) {
+		if (shard.contains(key)) {
+		    owners++;
+		    sizes[shard.getIndex()]++;
+		}
+	    }
+	    Assert.assertEquals(1, owners);
+	}
+	for (int size : sizes)
+	    Assert.assertTrue(size > 800);
+    }
+
+    @Test
+    public void testMergeLines() throws IOException {
+	File out = new File(directory, "out.csv");
+	write(new Shard(0, 2).part(out), "a", "b");
+	write(new Shard(1, 2).part(out), "c", "a");
+
+	List<File> parts = ShardMerger.findParts(out);
+	Assert.assertEquals(2, parts.size());
+	Assert.assertEquals(3, ShardMerger.mergeLines(parts, out));
+	Assert.assertEquals(Arrays.asList("a", "b", "c"),
+		Files.readAllLines(out.toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingPart() throws IOException {
+	File out = new File(directory, "out.csv");
+	write(new Shard(0, 2).part(out), "a");
+	ShardMerger.findParts(out);
+    }
+
+    private static void write(File file, String... lines) throws IOException {
+	Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,187 @@
+package multidiffplus.batch.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import multidiffplus.analysis.Budget;
+import multidiffplus.analysis.CommitAnalysis;
+import multidiffplus.batch.CommitPairIterator;
+import multidiffplus.batch.CommitSignature;
+import multidiffplus.batch.GitProjectAnalysis;
+import multidiffplus.batch.WatermarkStore;
+import multidiffplus.commit.Commit;
+import multidiffplus.facts.FactContext;
+
+public class WatermarkTests {
+
+    private File root;
+
+    private Git git;
+
+    @Before
+    public void setUp() throws Exception {
+	root = Files.createTempDirectory("watermark").toFile();
+	git = Git.init().setDirectory(new File(root, "work")).call();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+	Budget.setLimits(Budget.Level.PROJECT, 600000, Budget.NO_LIMIT);
+	git.close();
+	try (Stream<Path> files = Files.walk(root.toPath())) {
+	    files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+	}
+    }
+
+    protected RevCommit commit(String name) throws Exception {
+	File file = new File(git.getRepository().getWorkTree(), name + ".js");
+	Files.write(file.toPath(), ("var " + name + " = 1;\n").getBytes());
+	git.add().addFilepattern(".").call();
+	return git.commit().setMessage(name).setAuthor("a", "a@a").call();
+    }
+
+    /**
+     * @return The new revisions of the commits walked since {@code since}.
+     */
+    protected List<String> walk(ObjectId since) throws IOException {
+	List<String> revisions = new ArrayList<String>();
+	try (CommitPairIterator commitPairs = new CommitPairIterator(git.getRepository(), since,
+		RevFilter.ALL, commitSignature -> true)) {
+	    while (commitPairs.hasNext()) {
+		CommitSignature commitSignature = commitPairs.next();
+		revisions.add(commitSignature.getNewRevision());
+	    }
+	}
+	return revisions;
+    }
+
+    @Test
+    public void testSinceWatermark() throws Exception {
+	commit("a");
+	RevCommit b = commit("b");
+	RevCommit c = commit("c");
+	RevCommit d = commit("d");
+
+	Assert.assertTrue(walk(d).isEmpty());
+	List<String> revisions = walk(b);
+	Assert.assertEquals(2, revisions.size());
+	Assert.assertTrue(revisions.contains(c.name()));
+	Assert.assertTrue(revisions.contains(d.name()));
+    }
+
+    @Test
+    public void testRewrittenHistory() throws Exception {
+	commit("a");
+	RevCommit b = commit("b");
+	RevCommit c = commit("c");
+
+	/* A force push replaces c, so the walk stops at the merge base (b). */
+	git.reset().setMode(ResetCommand.ResetType.HARD).setRef(b.name()).call();
+	RevCommit e = commit("e");
+
+	List<String> revisions = walk(c);
+	Assert.assertEquals(1, revisions.size());
+	Assert.assertEquals(e.name(), revisions.get(0));
+    }
+
+    /**
+     * Mines the repository with a commit analysis which records the commits it
+     * analyzes.
+     *
+     * @return The new revisions of the commits which were analyzed.
+     */
+    protected List<String> mine() throws Exception {
+	StoredConfig config = git.getRepository().getConfig();
+	config.setString("remote", "origin", "url", "https://github.com/saltlab/test.git");
+	config.save();
+
+	List<String> analyzed = Collections.synchronizedList(new ArrayList<String>());
+	CommitAnalysis commitAnalysis = new CommitAnalysis(Collections.emptyList()) {
+	    @Override
+	    public void analyze(Commit commit, FactContext facts) throws Exception {
+		Budget.check();
+		analyzed.add(commit.repairedCommitID);
+	    }
+	};
+
+	GitProjectAnalysis analysis = GitProjectAnalysis.fromDirectory(
+		git.getRepository().getWorkTree().getPath(), () -> commitAnalysis, null, null);
+	analysis.setFetchThreads(1);
+	analysis.setCheckpointDirectory(new File(root, "checkpoints"));
+	analysis.setWatermarkDirectory(new File(root, "watermarks"));
+	analysis.analyze();
+	return analyzed;
+    }
+
+    @Test
+    public void testBudgetTruncatedRun() throws Exception {
+	RevCommit a = commit("a");
+	RevCommit b = commit("b");
+	RevCommit c = commit("c");
+	RevCommit d = commit("d");
+	RevCommit e = commit("e");
+	WatermarkStore store = new WatermarkStore(new File(root, "watermarks"));
+
+	/* The project's budget runs out after the two most recent commits. */
+	Budget.setLimits(Budget.Level.PROJECT, Budget.NO_LIMIT, 2);
+	List<String> first = mine();
+	Assert.assertEquals(2, first.size());
+	Assert.assertTrue(first.contains(e.name()));
+	Assert.assertTrue(first.contains(d.name()));
+	Assert.assertNull(store.get("test"));
+
+	/* The next run only mines the commits the first one did not reach. */
+	Budget.setLimits(Budget.Level.PROJECT, Budget.NO_LIMIT, Budget.NO_LIMIT);
+	List<String> second = mine();
+	Assert.assertEquals(3, second.size());
+	Assert.assertTrue(second.contains(c.name()));
+	Assert.assertTrue(second.contains(b.name()));
+	Assert.assertTrue(second.contains(a.name()));
+	Assert.assertEquals(e, store.get("test"));
+
+	/* Once the watermark is advanced, only new commits are mined. */
+	RevCommit f = commit("f");
+	Assert.assertEquals(Collections.singletonList(f.name()), mine());
+	Assert.assertEquals(f, store.get("test"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWatermarkRequiresCheckpoint() throws Exception {
+	commit("a");
+	StoredConfig config = git.getRepository().getConfig();
+	config.setString("remote", "origin", "url", "https://github.com/saltlab/test.git");
+	config.save();
+	GitProjectAnalysis analysis = GitProjectAnalysis.fromDirectory(
+		git.getRepository().getWorkTree().getPath(), () -> null, null, null);
+	analysis.setWatermarkDirectory(new File(root, "watermarks"));
+	analysis.analyze();
+    }
+
+    @Test
+    public void testStore() throws Exception {
+	RevCommit a = commit("a");
+	WatermarkStore store = new WatermarkStore(new File(root, "watermarks"));
+	Assert.assertNull(store.get("project"));
+	store.put("project", a);
+	Assert.assertEquals(a, store.get("project"));
+    }
+
+}
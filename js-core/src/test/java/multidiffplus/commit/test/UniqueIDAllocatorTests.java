@@ -0,0 +1,87 @@
+package multidiffplus.commit.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import multidiffplus.commit.UniqueIDAllocator;
+
+public class UniqueIDAllocatorTests {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+	file = File.createTempFile("ids", ".id");
+	file.delete();
+    }
+
+    @After
+    public void tearDown() {
+	file.delete();
+    }
+
+    @Test
+    public void testUniqueAcrossAllocators() throws InterruptedException {
+	/* Two allocators sharing a file stand in for two processes. */
+	UniqueIDAllocator[] allocators = { new UniqueIDAllocator(file, 100),
+		new UniqueIDAllocator(file, 100) };
+	Set<Long> ids = ConcurrentHashMap.newKeySet();
+
+	List<Thread> threads = new ArrayList<Thread>();
+	for (int i = 0; i < 8; i++) {
+	    UniqueIDAllocator allocator = allocators[i % 2];
+	    threads.add(new Thread(() -> {
+		for (int j = 0; j < 5000; j++)
+		    Assert.assertTrue(ids.add(allocator.next()));
+	    }));
+	}
+	for (Thread thread : threads)
+	    thread.start();
+	for (Thread thread : threads)
+	    thread.join();
+
+	Assert.assertEquals(8 * 5000, ids.size());
+    }
+
+    @Test
+    public void testUniqueAcrossRestarts() throws IOException {
+	UniqueIDAllocator allocator = new UniqueIDAllocator(file, 100);
+	long last = 0;
+	for (int i = 0; i < 250; i++)
+	    last = allocator.next();
+
+	/* Only the reserved block is persisted, not each ID. */
+	Assert.assertEquals("300",
+		new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+
+	UniqueIDAllocator restarted = new UniqueIDAllocator(file, 100);
+	Assert.assertTrue(restarted.next() > last);
+    }
+
+    @Test
+    public void testLegacyFile() throws IOException {
+	/* Files written before block reservation contain the last used ID. */
+	Files.write(file.toPath(), "41".getBytes(StandardCharsets.UTF_8));
+	Assert.assertEquals(42, new UniqueIDAllocator(file, 100).next());
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testUnreadableFile() throws IOException {
+	/* A block which is not reserved in the file could reuse IDs. */
+	Files.write(file.toPath(), "corrupt".getBytes(StandardCharsets.UTF_8));
+	new UniqueIDAllocator(file, 100).next();
+    }
+
+}
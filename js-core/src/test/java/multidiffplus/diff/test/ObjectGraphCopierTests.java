@@ -0,0 +1,91 @@
+package multidiffplus.diff.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import multidiffplus.diff.ObjectGraphCopier;
+
+public class ObjectGraphCopierTests {
+
+    /** A tree node with a parent pointer and a sibling chain, like an AST node. **/
+    private static class Node {
+	String label;
+	int position;
+	Node parent;
+	Node next;
+	List<Node> children = new ArrayList<Node>();
+	Map<String, Object> metadata = new HashMap<String, Object>();
+
+	Node(String label, int position) {
+	    this.label = label;
+	    this.position = position;
+	}
+
+	Node add(Node child) {
+	    child.parent = this;
+	    if (!children.isEmpty())
+		children.get(children.size() - 1).next = child;
+	    children.add(child);
+	    return child;
+	}
+    }
+
+    @Test
+    public void testCopyIsDeep() {
+	Node root = new Node("script", 0);
+	Node a = root.add(new Node("a", 1));
+	root.add(new Node("b", 2));
+	a.metadata.put("classified", false);
+	a.metadata.put("node", a);
+
+	Node copy = ObjectGraphCopier.copy(root);
+	Assert.assertNotSame(root, copy);
+	Assert.assertEquals(2, copy.children.size());
+
+	Node copyA = copy.children.get(0);
+	Assert.assertNotSame(a, copyA);
+	Assert.assertEquals("a", copyA.label);
+	Assert.assertEquals(1, copyA.position);
+	Assert.assertSame(copy, copyA.parent);
+	Assert.assertSame(copy.children.get(1), copyA.next);
+	Assert.assertSame(copyA, copyA.metadata.get("node"));
+
+	/* Changes to the copy are not seen by the original. */
+	copyA.metadata.put("classified", true);
+	copyA.label = "c";
+	copy.children.remove(1);
+	Assert.assertEquals(false, a.metadata.get("classified"));
+	Assert.assertEquals("a", a.label);
+	Assert.assertEquals(2, root.children.size());
+    }
+
+    @Test
+    public void testDeepSiblingChain() {
+	Node root = new Node("script", 0);
+	for (int i = 0; i < 100000; i++)
+	    root.add(new Node("statement", i));
+
+	Node copy = ObjectGraphCopier.copy(root);
+	Node last = copy.children.get(0);
+	int length = 1;
+	while (last.next != null) {
+	    last = last.next;
+	    length++;
+	}
+	Assert.assertEquals(100000, length);
+	Assert.assertSame(copy.children.get(99999), last);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testUnsupported() {
+	Node root = new Node("script", 0);
+	root.metadata.put("builder", new StringBuilder());
+	ObjectGraphCopier.copy(root);
+    }
+
+}
@@ -0,0 +1,163 @@
+package multidiffplus.diff.test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.gumtreediff.matchers.MappingStore;
+import com.github.gumtreediff.tree.ITree;
+import com.github.gumtreediff.tree.TreeContext;
+
+import multidiffplus.diff.Diff;
+import multidiffplus.diff.PartitionedMatcher;
+
+public class PartitionedMatcherTests {
+
+    private static final int SCRIPT = 1;
+    private static final int FUNCTION = 2;
+    private static final int NAME = 3;
+    private static final int VAR = 4;
+    private static final int CALL = 5;
+    private static final int BLOCK = 6;
+
+    private TreeContext context = new TreeContext();
+
+    private ITree node(int type, String label, ITree... children) {
+	ITree node = context.createTree(type, label, null);
+	for (ITree child : children)
+	    node.addChild(child);
+	return node;
+    }
+
+    /** Computes the sizes and hashes of the tree, as a tree generator would. **/
+    private static ITree validate(ITree root) {
+	TreeContext context = new TreeContext();
+	context.setRoot(root);
+	context.validate();
+	return root;
+    }
+
+    private ITree call(String name) {
+	return node(CALL, null, node(NAME, name));
+    }
+
+    /** A function which is renamed, a function which changes and a moved statement. **/
+    private ITree[] getTrees() {
+	ITree src = node(SCRIPT, null,
+		node(FUNCTION, null, node(NAME, "foo"), node(BLOCK, null, call("a"), call("b"))),
+		node(FUNCTION, null, node(NAME, "bar"), node(NAME, "p"),
+			node(BLOCK, null, call("one"), call("two"))),
+		node(VAR, null, node(NAME, "x"), node(NAME, "1")));
+	ITree dst = node(SCRIPT, null, node(VAR, null, node(NAME, "x"), node(NAME, "1")),
+		node(FUNCTION, null, node(NAME, "foo2"), node(BLOCK, null, call("a"), call("b"))),
+		node(FUNCTION, null, node(NAME, "bar"), node(NAME, "p"),
+			node(BLOCK, null, call("one"), call("two"), call("three"))));
+	return new ITree[] { validate(src), validate(dst) };
+    }
+
+    @Test
+    public void testPairsUnits() {
+	ITree[] trees = getTrees();
+	ITree src = trees[0];
+	ITree dst = trees[1];
+	MappingStore mappings = new MappingStore();
+	PartitionedMatcher matcher = new PartitionedMatcher(src, dst, mappings, Long.MAX_VALUE);
+	matcher.match();
+
+	Assert.assertTrue(matcher.isPartitioned());
+	Assert.assertFalse(matcher.isDegraded());
+	Assert.assertSame(dst, mappings.getDst(src));
+
+	/* The identical statement is mapped node by node, although it moved. */
+	ITree srcVar = src.getChildren().get(2);
+	ITree dstVar = dst.getChildren().get(0);
+	for (int i = 0; i < srcVar.getTrees().size(); i++)
+	    Assert.assertSame(dstVar.getTrees().get(i), mappings.getDst(srcVar.getTrees().get(i)));
+
+	/* The renamed function is paired by its position. */
+	Assert.assertSame(dst.getChildren().get(1), mappings.getDst(src.getChildren().get(0)));
+
+	/* The changed function is paired by its name, and fully matched. */
+	ITree srcBar = src.getChildren().get(1);
+	ITree dstBar = dst.getChildren().get(2);
+	Assert.assertSame(dstBar, mappings.getDst(srcBar));
+	Assert.assertSame(dstBar.getChildren().get(0), mappings.getDst(srcBar.getChildren().get(0)));
+
+	/* The units are attached to their parents again. */
+	Assert.assertSame(src, srcBar.getParent());
+	Assert.assertSame(dst, dstBar.getParent());
+    }
+
+    @Test
+    public void testForkedOnCallersPool() throws Exception {
+	ITree[] trees = getTrees();
+	ITree src = trees[0];
+	ITree dst = trees[1];
+	MappingStore mappings = new MappingStore();
+	PartitionedMatcher matcher = new PartitionedMatcher(src, dst, mappings, Long.MAX_VALUE);
+
+	ForkJoinPool pool = new ForkJoinPool(2);
+	Diff.setForkJoin(true);
+	try {
+	    pool.submit(matcher::match).get();
+	} finally {
+	    Diff.setForkJoin(false);
+	    pool.shutdown();
+	}
+
+	/* The changed pairs are matched as they are on one thread. */
+	Assert.assertFalse(matcher.isDegraded());
+	ITree srcBar = src.getChildren().get(1);
+	ITree dstBar = dst.getChildren().get(2);
+	Assert.assertSame(dstBar.getChildren().get(0), mappings.getDst(srcBar.getChildren().get(0)));
+	Assert.assertSame(src, srcBar.getParent());
+	Assert.assertSame(dst, dstBar.getParent());
+    }
+
+    @Test
+    public void testDeadlineDegradesChangedPairs() {
+	ITree[] trees = getTrees();
+	ITree src = trees[0];
+	ITree dst = trees[1];
+	MappingStore mappings = new MappingStore();
+	PartitionedMatcher matcher = new PartitionedMatcher(src, dst, mappings, Long.MIN_VALUE);
+	matcher.match();
+
+	Assert.assertTrue(matcher.isPartitioned());
+	Assert.assertTrue(matcher.isDegraded());
+
+	/* Identical statements do not need the matcher. */
+	ITree srcVar = src.getChildren().get(2);
+	ITree dstVar = dst.getChildren().get(0);
+	for (int i = 0; i < srcVar.getTrees().size(); i++)
+	    Assert.assertSame(dstVar.getTrees().get(i), mappings.getDst(srcVar.getTrees().get(i)));
+
+	/* Changed pairs are only matched top-down, so their leaves are not mapped. */
+	ITree srcBar = src.getChildren().get(1);
+	Assert.assertSame(dst.getChildren().get(2), mappings.getDst(srcBar));
+	Assert.assertFalse(mappings.hasSrc(srcBar.getChildren().get(0)));
+    }
+
+    @Test
+    public void testLowCoverageIsMatchedTopDown() {
+	ITree shared = node(BLOCK, null, call("a"));
+	ITree src = node(SCRIPT, null, node(FUNCTION, null, node(NAME, "f"), shared),
+		node(FUNCTION, null, node(NAME, "g"), node(BLOCK, null, call("b"))));
+	ITree dstShared = node(BLOCK, null, call("a"));
+	ITree dst = node(SCRIPT, null, node(CALL, null, node(NAME, "h"), dstShared),
+		node(CALL, null, node(NAME, "k"), node(NAME, "b")));
+	validate(src);
+	validate(dst);
+	MappingStore mappings = new MappingStore();
+	PartitionedMatcher matcher = new PartitionedMatcher(src, dst, mappings, Long.MAX_VALUE);
+	matcher.match();
+
+	/* No units are paired, so the whole trees are matched top-down. */
+	Assert.assertFalse(matcher.isPartitioned());
+	Assert.assertSame(dst, mappings.getDst(src));
+	Assert.assertSame(dstShared, mappings.getDst(shared));
+	Assert.assertFalse(mappings.hasSrc(src.getChildren().get(0)));
+    }
+
+}
@@ -0,0 +1,113 @@
+package multidiffplus.diff.test;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.github.gumtreediff.tree.ITree;
+import com.github.gumtreediff.tree.TreeContext;
+
+import multidiffplus.diff.TieredMatcher;
+
+public class TieredMatcherTests {
+
+    private static final int SCRIPT = 1;
+    private static final int FUNCTION = 2;
+    private static final int NAME = 3;
+    private static final int BLOCK = 6;
+
+    private TreeContext context = new TreeContext();
+
+    private ITree node(int type, String label, ITree... children) {
+	ITree node = context.createTree(type, label, null);
+	for (ITree child : children)
+	    node.addChild(child);
+	return node;
+    }
+
+    /** Computes the sizes and hashes of the tree, as a tree generator would. **/
+    private static ITree validate(ITree root) {
+	TreeContext context = new TreeContext();
+	context.setRoot(root);
+	context.validate();
+	return root;
+    }
+
+    /** A script with two functions, one of which has a new name. **/
+    private ITree script(String name) {
+	return validate(node(SCRIPT, null,
+		node(FUNCTION, null, node(NAME, "f"), node(BLOCK, null, node(NAME, "a"))),
+		node(FUNCTION, null, node(NAME, name), node(BLOCK, null, node(NAME, "b")))));
+    }
+
+    @After
+    public void resetPolicy() {
+	TieredMatcher.setPolicy(TieredMatcher.NO_LIMIT, TieredMatcher.NO_LIMIT,
+		TieredMatcher.NO_LIMIT);
+    }
+
+    private String match(ITree src, ITree dst) {
+	TieredMatcher matcher = new TieredMatcher(src, dst);
+	matcher.match();
+	Assert.assertSame(dst, matcher.getMappings().getDst(src));
+	return matcher.getTier();
+    }
+
+    @Test
+    public void testTiersBySize() {
+	Assert.assertEquals(TieredMatcher.GUMTREE, match(script("g"), script("h")));
+
+	TieredMatcher.setPolicy(5, TieredMatcher.NO_LIMIT, TieredMatcher.NO_LIMIT);
+	Assert.assertEquals(TieredMatcher.PARTITIONED, match(script("g"), script("h")));
+
+	TieredMatcher.setPolicy(5, 5, TieredMatcher.NO_LIMIT);
+	Assert.assertEquals(TieredMatcher.TOP_DOWN, match(script("g"), script("h")));
+    }
+
+    @Test
+    public void testUnpartitionedTreesAreReportedAsTopDown() {
+	TieredMatcher.setPolicy(5, TieredMatcher.NO_LIMIT, TieredMatcher.NO_LIMIT);
+	ITree dst = validate(node(SCRIPT, null, node(NAME, "x"), node(NAME, "y"), node(NAME, "z"),
+		node(NAME, "w"), node(NAME, "v"), node(NAME, "u")));
+	Assert.assertEquals(TieredMatcher.TOP_DOWN, match(script("g"), dst));
+    }
+
+    @Test
+    public void testBottomUpRunsWithinTimeLimit() {
+	/* The bottom-up phase maps the renamed function, and fits in a day. */
+	TieredMatcher.setPolicy(TieredMatcher.NO_LIMIT, TieredMatcher.NO_LIMIT, 86400000);
+	Assert.assertEquals(TieredMatcher.GUMTREE, match(script("g"), script("h")));
+    }
+
+    @Test
+    public void testEstimateBottomUp() {
+	/* Nothing is left for the bottom-up phase. */
+	Assert.assertEquals(0, TieredMatcher.estimateBottomUp(1000000, 0, 100));
+	Assert.assertEquals(0, TieredMatcher.estimateBottomUp(1000000, 0, 0));
+
+	/* The estimate grows with the time spent and the share of unmapped nodes. */
+	long half = TieredMatcher.estimateBottomUp(1000000, 50, 100);
+	Assert.assertTrue(half > 0);
+	Assert.assertEquals(2 * half, TieredMatcher.estimateBottomUp(1000000, 100, 100));
+	Assert.assertEquals(2 * half, TieredMatcher.estimateBottomUp(2000000, 50, 100));
+
+	/* The bottom-up phase costs more per node than the top-down phase. */
+	Assert.assertTrue(TieredMatcher.estimateBottomUp(1000000, 100, 100) > 1000000);
+    }
+
+    @Test
+    public void testTimedOut() {
+	Assert.assertFalse(TieredMatcher.isTimedOut(null));
+	Assert.assertFalse(TieredMatcher.isTimedOut(TieredMatcher.GUMTREE));
+	Assert.assertFalse(TieredMatcher.isTimedOut(TieredMatcher.TOP_DOWN));
+	Assert.assertTrue(TieredMatcher.isTimedOut("gumtree+top-down"));
+	Assert.assertTrue(TieredMatcher.isTimedOut("partitioned+top-down"));
+    }
+
+    @Test
+    public void testPolicyID() {
+	TieredMatcher.setPolicy(10000, 100000, 500);
+	Assert.assertEquals("10000/100000/500", TieredMatcher.getPolicyID());
+    }
+
+}
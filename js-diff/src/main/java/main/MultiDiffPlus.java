@@ -17,6 +17,7 @@ import multidiffplus.commit.Commit.Type;
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.factories.ICommitAnalysisFactory;
 import multidiffplus.facts.AnnotationFactBase;
+import multidiffplus.facts.FactContext;
 import multidiffplus.facts.JsonFactBase;
 import multidiffplus.jsdiff.view.HTMLMultiDiffViewer;
 import multidiffplus.jsdiff.view.HTMLUnixDiffViewer;
@@ -68,14 +69,15 @@ public class MultiDiffPlus {
 	commit.addSourceCodeFileChange(sourceCodeFileChange);
 
 	/* Builds the data set with our custom queries. */
-	AnnotationFactBase factBase = AnnotationFactBase.getInstance(sourceCodeFileChange);
+	FactContext facts = new FactContext();
+	AnnotationFactBase factBase = facts.getAnnotationFactBase(sourceCodeFileChange);
 
 	/* Set up the analysis. */
 	ICommitAnalysisFactory commitFactory = new ChangeImpactCommitAnalysisFactory();
 	CommitAnalysis commitAnalysis = commitFactory.newInstance();
 
 	/* Run the analysis. */
-	commitAnalysis.analyze(commit);
+	commitAnalysis.analyze(commit, facts);
 
 	if (options.writeToHtml()) {
 	    /* Only annotate the new version of the file. */
@@ -88,7 +90,7 @@ public class MultiDiffPlus {
 	}
 
 	if (options.writeToJson()) {
-	    JsonFactBase jsonFactBase = JsonFactBase.getInstance(sourceCodeFileChange);
+	    JsonFactBase jsonFactBase = facts.getJsonFactBase(sourceCodeFileChange);
 	    Files.write(Paths.get(options.getJsonFile()),
 		    jsonFactBase.getJson().toString().getBytes(), StandardOpenOption.CREATE,
 		    StandardOpenOption.TRUNCATE_EXISTING);
@@ -7,12 +7,17 @@ import org.mozilla.javascript.ast.AstRoot;
 
 import multidiff.analysis.flow.Analysis;
 import multidiff.analysis.flow.InterleavedInterCIA;
+import multidiffplus.analysis.AnalysisResult;
 import multidiffplus.analysis.DomainAnalysis;
+import multidiffplus.analysis.Options;
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.diff.Diff;
 import multidiffplus.diff.DiffContext;
+import multidiffplus.diff.TieredMatcher;
 import multidiffplus.factories.ICFGFactory;
-import multidiffplus.facts.JsonFactBase;
+import multidiffplus.facts.Annotation;
+import multidiffplus.facts.AnnotationFactBase;
+import multidiffplus.facts.FactContext;
 import multidiffplus.jsanalysis.flow.JavaScriptAnalysis;
 
 /**
@@ -20,6 +25,12 @@ import multidiffplus.jsanalysis.flow.JavaScriptAnalysis;
  */
 public class ChangeImpactDomainAnalysis extends DomainAnalysis {
 
+    /**
+     * The version of the analysis. Increment this when the facts produced for a
+     * file pair change, so that cached results are not reused.
+     */
+    private static final int VERSION = 3;
+
     public ChangeImpactDomainAnalysis(ICFGFactory cfgFactory, boolean preProcess,
 	    boolean measureRuntime) {
 	super(null, null, cfgFactory, preProcess, measureRuntime);
@@ -31,6 +42,8 @@ public class ChangeImpactDomainAnalysis extends DomainAnalysis {
      *
      * @param sourceCodeFileChange
      *            The source code file change information.
+     * @param facts
+     *            Stores the facts from this analysis.
      * @param preProcess
      *            Set to true to enable AST pre-processing.
      * @param srcAnalysisFactory
@@ -38,7 +51,8 @@ public class ChangeImpactDomainAnalysis extends DomainAnalysis {
      * @param dstAnalysisClass
      *            The analysis to run on the repaired file.
      */
-    protected void analyzeFile(SourceCodeFileChange sourceCodeFileChange) throws Exception {
+    protected void analyzeFile(SourceCodeFileChange sourceCodeFileChange, FactContext facts)
+	    throws Exception {
 
 	/* Get the file extension. */
 	String fileExtension = getSourceCodeFileExtension(sourceCodeFileChange.buggyFile,
@@ -56,7 +70,8 @@ public class ChangeImpactDomainAnalysis extends DomainAnalysis {
 			: new String[] { sourceCodeFileChange.buggyFile,
 				sourceCodeFileChange.repairedFile };
 		diff = new Diff(cfgFactory, args, sourceCodeFileChange.buggyCode,
-			sourceCodeFileChange.repairedCode);
+			sourceCodeFileChange.repairedCode, sourceCodeFileChange.getBuggyBlobID(),
+			sourceCodeFileChange.getRepairedBlobID());
 	    } catch (ArrayIndexOutOfBoundsException e) {
 		System.err
 			.println("ArrayIndexOutOfBoundsException: possibly caused by empty file.");
@@ -74,27 +89,57 @@ public class ChangeImpactDomainAnalysis extends DomainAnalysis {
 	     * analysis context: the source and destination ASTs and CFGs.
 	     */
 	    DiffContext diffContext = diff.getContext();
+	    sourceCodeFileChange.matcher = diffContext.getMatcher();
 
+	    /*
+	     * Reuse the destination CFGs from the diff. The source CFGs are not used, so
+	     * they are never built.
+	     */
 	    Analysis analysis = JavaScriptAnalysis
-		    .InitializeJavaScriptAnalysis(diffContext.dstScript);
+		    .InitializeJavaScriptAnalysis(diffContext.dstScript, diffContext.getDstCFGs());
 
 	    /*
 	     * To co-ordinate interleaving, we need to setup an analysis one level higher.
 	     */
 	    InterleavedInterCIA interleavedAnalysis = new InterleavedInterCIA(sourceCodeFileChange,
-		    diffContext, analysis);
+		    facts, diffContext, analysis);
 
 	    /* Run the analysis. */
 	    interleavedAnalysis.analyze();
 
 	    /* Add the Json. */
 	    AstRoot dstScript = (AstRoot) diffContext.dstScript;
-	    JsonFactBase.getInstance(sourceCodeFileChange)
-		    .registerJsonFact(dstScript.getJsonObject());
+	    facts.getJsonFactBase(sourceCodeFileChange).registerJsonFact(dstScript.getJsonObject());
 	}
 
     }
 
+    @Override
+    protected String getAnalysisID() {
+	Options options = Options.getInstance();
+	return getClass().getName() + ":" + VERSION + ":" + preProcess + ":"
+		+ options.intraProc() + ":" + options.labels() + ":"
+		+ TieredMatcher.getPolicyID();
+    }
+
+    @Override
+    protected AnalysisResult exportResult(SourceCodeFileChange sourceCodeFileChange,
+	    FactContext facts) {
+	return new AnalysisResult(facts.getAnnotationFactBase(sourceCodeFileChange).getAnnotations(),
+		facts.getJsonFactBase(sourceCodeFileChange).getJson(), sourceCodeFileChange.matcher);
+    }
+
+    @Override
+    protected void importResult(SourceCodeFileChange sourceCodeFileChange, FactContext facts,
+	    AnalysisResult result) {
+	AnnotationFactBase factBase = facts.getAnnotationFactBase(sourceCodeFileChange);
+	sourceCodeFileChange.matcher = result.getMatcher();
+	for (Annotation annotation : result.getAnnotations())
+	    factBase.registerAnnotationFact(annotation);
+	if (result.getJson() != null)
+	    facts.getJsonFactBase(sourceCodeFileChange).registerJsonFact(result.getJson());
+    }
+
     /**
      * @param preCommitPath
      *            The path of the file before the commit.
@@ -17,6 +17,7 @@ import multidiffplus.commit.Commit.Type;
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.factories.ICommitAnalysisFactory;
 import multidiffplus.facts.AnnotationFactBase;
+import multidiffplus.facts.FactContext;
 import multidiffplus.jsdiff.view.HTMLMultiDiffViewer;
 import multidiffplus.jsdiff.view.HTMLUnixDiffViewer;
 
@@ -43,14 +44,15 @@ public class ChangeImpactAnalysisTests {
 	commit.addSourceCodeFileChange(getSourceCodeFileChange(src, dst));
 
 	/* Builds the data set with our custom queries. */
-	AnnotationFactBase factBase = AnnotationFactBase.getInstance(sourceCodeFileChange);
+	FactContext facts = new FactContext();
+	AnnotationFactBase factBase = facts.getAnnotationFactBase(sourceCodeFileChange);
 
 	/* Set up the analysis. */
 	ICommitAnalysisFactory commitFactory = new ChangeImpactCommitAnalysisFactory();
 	CommitAnalysis commitAnalysis = commitFactory.newInstance();
 
 	/* Run the analysis. */
-	commitAnalysis.analyze(commit);
+	commitAnalysis.analyze(commit, facts);
 
 	/* Print the data set. */
 	// factBase.printDataSet();
@@ -0,0 +1,103 @@
+package multidiffplus.jsdiff.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mozilla.javascript.ast.AstNode;
+
+import ca.ubc.ece.salt.gumtree.ast.ClassifiedASTNode;
+import multidiffplus.diff.Diff;
+import multidiffplus.diff.DiffContext;
+import multidiffplus.diff.ParseTreeCache;
+import multidiffplus.jsanalysis.flow.JavaScriptCFGFactory;
+
+public class ParseTreeCacheTests {
+
+    private static final String SRC = "src/test/resources/input/pm2_old.js";
+    private static final String DST = "src/test/resources/input/pm2_new.js";
+
+    @After
+    public void tearDown() {
+	ParseTreeCache.destroyInstance();
+    }
+
+    /**
+     * Diffs the files, with the blob ids as keys in the parse tree cache.
+     */
+    private static DiffContext diff(String srcCode, String dstCode) throws Exception {
+	Diff diff = new Diff(new JavaScriptCFGFactory(), new String[] { SRC, DST }, srcCode,
+		dstCode, "src", "dst");
+	return diff.getContext();
+    }
+
+    /**
+     * @return The type, position, classification and mapped position of each node
+     *         in the AST.
+     */
+    private static List<String> classify(ClassifiedASTNode root) {
+	List<String> nodes = new ArrayList<String>();
+	((AstNode) root).visit(node -> {
+	    AstNode mapping = (AstNode) node.getMapping();
+	    nodes.add(node.getClass().getSimpleName() + "@" + node.getAbsolutePosition() + ":"
+		    + node.getLength() + " " + node.getChangeType() + " -> "
+		    + (mapping == null ? "" : mapping.getAbsolutePosition()));
+	    return true;
+	});
+	return nodes;
+    }
+
+    @Test
+    public void testCachedTreesAreClassifiedLikeParsedTrees() throws Exception {
+	String srcCode = FileUtils.readFileToString(new File(SRC));
+	String dstCode = FileUtils.readFileToString(new File(DST));
+
+	DiffContext parsed = diff(srcCode, dstCode);
+	List<String> srcNodes = classify(parsed.srcScript);
+	List<String> dstNodes = classify(parsed.dstScript);
+	Assert.assertFalse(srcNodes.isEmpty());
+
+	/* The first diff parses both files and caches copies of their trees. */
+	ParseTreeCache.createInstance(Long.MAX_VALUE);
+	DiffContext missed = diff(srcCode, dstCode);
+	Assert.assertEquals(srcNodes, classify(missed.srcScript));
+	Assert.assertEquals(dstNodes, classify(missed.dstScript));
+
+	/* The second diff takes the copies, which were not classified by the first. */
+	DiffContext cached = diff(srcCode, dstCode);
+	Assert.assertNotSame(missed.srcScript, cached.srcScript);
+	Assert.assertEquals(srcNodes, classify(cached.srcScript));
+	Assert.assertEquals(dstNodes, classify(cached.dstScript));
+	Assert.assertEquals(parsed.getMatcher(), cached.getMatcher());
+
+	/* The analysis of the cached trees builds the same CFGs. */
+	Assert.assertEquals(parsed.getSrcCFGs().getCfgs().size(),
+		cached.getSrcCFGs().getCfgs().size());
+	Assert.assertEquals(parsed.getDstCFGs().getCfgs().size(),
+		cached.getDstCFGs().getCfgs().size());
+    }
+
+    @Test
+    public void testCachedTreesAreHandedOutOnce() throws IOException {
+	String srcCode = FileUtils.readFileToString(new File(SRC));
+	ParseTreeCache cache = ParseTreeCache.createInstance(Long.MAX_VALUE);
+	JavaScriptCFGFactory cfgFactory = new JavaScriptCFGFactory();
+
+	Object first = cache.generate(cfgFactory.getTreeGenerator("js"), srcCode, null, "js", false);
+	Object second = cache.generate(cfgFactory.getTreeGenerator("js"), srcCode, null, "js", false);
+	Assert.assertNotSame(first, second);
+
+	/* A cached tree is handed out once. */
+	Object parsed = cache.generate(cfgFactory.getTreeGenerator("js"), srcCode, "src", "js", false);
+	Object copy = cache.generate(cfgFactory.getTreeGenerator("js"), srcCode, "src", "js", false);
+	Object reparsed = cache.generate(cfgFactory.getTreeGenerator("js"), srcCode, "src", "js", false);
+	Assert.assertNotSame(parsed, copy);
+	Assert.assertNotSame(copy, reparsed);
+    }
+
+}
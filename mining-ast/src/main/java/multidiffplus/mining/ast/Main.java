@@ -1,7 +1,10 @@
 package multidiffplus.mining.ast;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
@@ -13,8 +16,22 @@ import org.apache.logging.log4j.Logger;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
+import multidiffplus.analysis.AnalysisResultCache;
+import multidiffplus.analysis.Budget;
+import multidiffplus.analysis.DomainAnalysis;
+import multidiffplus.batch.Checkpoint;
+import multidiffplus.batch.GitProject;
 import multidiffplus.batch.GitProjectAnalysis;
 import multidiffplus.batch.GitProjectAnalysisTask;
+import multidiffplus.batch.PathRules;
+import multidiffplus.batch.RepositoryAcquisition;
+import multidiffplus.batch.ResultWriter;
+import multidiffplus.batch.Shard;
+import multidiffplus.batch.SnapshotStore;
+import multidiffplus.commit.Commit.Type;
+import multidiffplus.diff.Diff;
+import multidiffplus.diff.ParseTreeCache;
+import multidiffplus.diff.TieredMatcher;
 import multidiffplus.factories.ICommitAnalysisFactory;
 import multidiffplus.mining.ast.factories.MiningCommitAnalysisFactory;
 
@@ -49,23 +66,115 @@ public class Main {
 	    return;
 	}
 
+	/*
+	 * Mine one shard of the repository list. The shard writes its own part of the
+	 * output, snapshots and checkpoints, so shards on different machines only share
+	 * the file system. The parts are combined by ShardMerger.
+	 */
+	Shard shard;
+	try {
+	    shard = options.getShard();
+	} catch (IllegalArgumentException e) {
+	    Main.printUsage(e.getMessage(), parser);
+	    return;
+	}
+	File outFile = part(shard, options.getOutFile());
+	File sourceDir = part(shard, options.getSourceDir());
+	File checkpointDir = part(shard, options.getCheckpointDir());
+
+	/*
+	 * Watermarks are per project, so the shards can share them. A run which goes
+	 * over a project's budget records the commits it mined in the checkpoint.
+	 */
+	File watermarkDir = options.getWatermarkDir();
+	if (watermarkDir != null && checkpointDir == null) {
+	    Main.printUsage("--watermark requires --checkpoint.", parser);
+	    return;
+	}
+
+	/* Reuse the results of file pairs which have already been analyzed. */
+	if (options.getResultCacheDir() != null)
+	    AnalysisResultCache.createInstance(options.getResultCacheDir());
+
+	/* Parse each version of a file once, since consecutive commits share them. */
+	if (options.getParseCacheSize() > 0)
+	    ParseTreeCache.createInstance(options.getParseCacheSize());
+
+	/* Abandon files, commits and projects which take too long. */
+	Budget.setLimits(Budget.Level.FILE, options.getFileTimeout(), options.getFileSteps());
+	Budget.setLimits(Budget.Level.COMMIT, options.getCommitTimeout(), Budget.NO_LIMIT);
+	Budget.setLimits(Budget.Level.PROJECT, options.getProjectTimeout(), Budget.NO_LIMIT);
+
+	/* Bound the cost of matching large files. */
+	TieredMatcher.setPolicy(options.getPartitionSize(), options.getTopDownSize(),
+		options.getMatchTimeout());
+
+	/*
+	 * Fork the files of a commit and the sides of a diff as tasks. Commits run on
+	 * a work-stealing pool, so idle threads pick up the files of large commits.
+	 */
+	DomainAnalysis.setForkJoin(options.getForkJoin());
+	Diff.setForkJoin(options.getForkJoin());
+
 	/* Create the commit analysis that will analyze commits. */
 	ICommitAnalysisFactory factory = new MiningCommitAnalysisFactory();
 
+	/* Select the files to mine. */
+	PathRules pathRules = PathRules.defaults();
+	if (options.getPathRulesFile() != null) {
+	    try {
+		pathRules = PathRules.fromFile(options.getPathRulesFile());
+	    } catch (IOException e) {
+		System.err.println("Error while reading path rules: " + e.getMessage());
+		return;
+	    }
+	}
+
+	/*
+	 * When resuming, discard the results written after the last checkpoint so they
+	 * are not duplicated. A database replaces the results of a commit which is
+	 * written again instead.
+	 */
+	if (checkpointDir != null && outFile != null
+		&& options.getFormat() != ResultWriter.Format.DATABASE) {
+	    try {
+		Checkpoint.recoverOutput(checkpointDir, outFile);
+	    } catch (IOException e) {
+		System.err.println("Error while recovering from checkpoint: " + e.getMessage());
+		return;
+	    }
+	}
+
 	/* Analyzes git histories in batch. */
 	GitProjectAnalysis gitProjectAnalysis;
 
 	/* A URI was given. */
 	if (options.getURI() != null) {
 
+	    /* Analyze the project's commits in parallel. */
+	    ExecutorService commitExecutor = Executors
+		    .newWorkStealingPool(options.getNCommitThreads());
+
 	    try {
 		gitProjectAnalysis = GitProjectAnalysis.fromURI(options.getURI(), CHECKOUT_DIR,
-			factory, options.getSourceDir(), options.getOutFile());
-		gitProjectAnalysis.analyze();
+			factory, sourceDir, outFile);
+		gitProjectAnalysis.setPathRules(pathRules);
+		gitProjectAnalysis.setOutputFormat(options.getFormat());
+		gitProjectAnalysis.setCheckpointDirectory(checkpointDir);
+		gitProjectAnalysis.setWatermarkDirectory(watermarkDir);
+		gitProjectAnalysis.setFetchThreads(options.getNFetchThreads());
+		gitProjectAnalysis.setFetchQueueDepth(options.getFetchQueueDepth());
+		gitProjectAnalysis.setAnalysisQueueDepth(options.getAnalysisQueueDepth());
+		if (options.getBugFixesOnly())
+		    gitProjectAnalysis.setCommitTypes(EnumSet.of(Type.BUG_FIX));
+		gitProjectAnalysis.analyze(commitExecutor);
 
 	    } catch (Exception e) {
 		e.printStackTrace(System.err);
 		return;
+	    } finally {
+		commitExecutor.shutdown();
+		closeOutputs();
 	    }
 
 	}
@@ -84,42 +193,79 @@ public class Main {
 		return;
 	    }
 
+	    /* Ignore commented urls. */
+	    uris.removeIf(uri -> uri.startsWith("#"));
+
+	    /* Leave the repositories of the other shards to their own runs. */
+	    if (shard != null)
+		uris.removeIf(uri -> !shard.contains(uri));
+
 	    /*
 	     * Create a pool of threads and use a CountDownLatch to check when all threads
 	     * are done. http://stackoverflow.com/questions/1250643/how-to-wait-for-all-
 	     * threads-to-finish-using-executorservice
 	     *
-	     * I was going to create a list of Callable objects and use executor.invokeAll,
-	     * but this would remove the start of the execution of the tasks from the loop
-	     * to outside the loop, which would mean all git project initializations would
-	     * have to happen before starting the analysis.
+	     * Projects are analyzed largest first, so that the longest analyses are not
+	     * left until the end.
 	     */
-	    ExecutorService executor = Executors.newFixedThreadPool(options.getNThreads());
+	    ExecutorService executor = RepositoryAcquisition
+		    .newLargestFirstPool(options.getNThreads());
 	    CountDownLatch latch = new CountDownLatch(uris.size());
 
-	    /* Analyze all projects. */
-	    for (String uri : uris) {
+	    /*
+	     * Commits from all projects are analyzed by a shared work-stealing pool, so
+	     * that one large project can use every core while the others are idle. The
+	     * project threads only fetch the history and flush the results in order.
+	     */
+	    ExecutorService commitExecutor = Executors
+		    .newWorkStealingPool(options.getNCommitThreads());
 
-		/* Ignore commented urls. */
-		if (uri.startsWith("#")) {
-		    latch.countDown();
-		    continue;
-		}
+	    /*
+	     * Repositories are cloned (or pulled) by their own pool, and each project is
+	     * handed to the analysis pool as soon as it is ready.
+	     */
+	    RepositoryAcquisition acquisition = new RepositoryAcquisition(CHECKOUT_DIR,
+		    options.getNAcquisitionThreads());
+	    PathRules projectPathRules = pathRules;
+	    acquisition.acquire(uris, new RepositoryAcquisition.Listener() {
 
-		try {
-		    /* Build git repository object */
-		    gitProjectAnalysis = GitProjectAnalysis.fromURI(uri, CHECKOUT_DIR, factory,
-			    options.getSourceDir(), options.getOutFile());
+		@Override
+		public void acquired(GitProject gitProject, long size) {
+		    GitProjectAnalysis gitProjectAnalysis = GitProjectAnalysis
+			    .fromGitProject(gitProject, factory, sourceDir, outFile);
+		    gitProjectAnalysis.setPathRules(projectPathRules);
+		    gitProjectAnalysis.setOutputFormat(options.getFormat());
+		    gitProjectAnalysis.setCheckpointDirectory(checkpointDir);
+		    gitProjectAnalysis.setWatermarkDirectory(watermarkDir);
+		    gitProjectAnalysis.setFetchThreads(options.getNFetchThreads());
+		    gitProjectAnalysis.setFetchQueueDepth(options.getFetchQueueDepth());
+		    gitProjectAnalysis
+			    .setAnalysisQueueDepth(options.getAnalysisQueueDepth());
+		    if (options.getBugFixesOnly())
+			gitProjectAnalysis.setCommitTypes(EnumSet.of(Type.BUG_FIX));
 
 		    /* Perform the analysis (this may take some time) */
-		    executor.submit(new GitProjectAnalysisTask(gitProjectAnalysis, latch));
-		} catch (Exception e) {
+		    GitProjectAnalysisTask task = new GitProjectAnalysisTask(gitProjectAnalysis,
+			    latch, commitExecutor);
+		    executor.execute(RepositoryAcquisition.sized(size, () -> {
+			try {
+			    task.call();
+			} catch (Exception e) {
+			    e.printStackTrace(System.err);
+			}
+		    }));
+		}
+
+		@Override
+		public void failed(String uri, Exception e) {
 		    e.printStackTrace(System.err);
 		    logger.error("[IMPORTANT] Project " + uri + " threw an exception");
 		    logger.error(e);
-		    continue;
+		    latch.countDown();
 		}
-	    }
+
+	    });
+	    acquisition.shutdown();
 
 	    /* Wait for all threads to finish their work */
 	    try {
@@ -129,6 +275,9 @@ public class Main {
 	    } catch (InterruptedException e) {
 		e.printStackTrace();
 		return;
+	    } finally {
+		commitExecutor.shutdown();
+		closeOutputs();
 	    }
 
 	} else {
@@ -139,6 +288,27 @@ public class Main {
 
     }
 
+    /**
+     * @return The part of the file (or directory) which the shard writes, or the
+     *         file itself if the corpus is not sharded.
+     */
+    private static File part(Shard shard, File file) {
+	return shard == null || file == null ? file : shard.part(file);
+    }
+
+    /**
+     * Writes the results and snapshots which are still queued and closes the
+     * output files.
+     */
+    private static void closeOutputs() {
+	try {
+	    ResultWriter.closeAll();
+	    SnapshotStore.closeAll();
+	} catch (IOException | InterruptedException e) {
+	    e.printStackTrace(System.err);
+	}
+    }
+
     /**
      * Prints the help file for main.
      * 
@@ -4,6 +4,11 @@ import java.io.File;
 
 import org.kohsuke.args4j.Option;
 
+import multidiffplus.analysis.Budget;
+import multidiffplus.batch.ResultWriter;
+import multidiffplus.batch.Shard;
+import multidiffplus.diff.TieredMatcher;
+
 public class MiningOptions {
 
     @Option(name = "-u", aliases = { "--uri" },
@@ -36,6 +41,14 @@ public class MiningOptions {
 	return outFile == null ? null : new File(outFile);
     }
 
+    @Option(name = "--format",
+	    usage = "The format of the output file: LINES (CSV), COLUMNAR (compressed) or DATABASE (SQLite).")
+    private ResultWriter.Format format = ResultWriter.Format.LINES;
+
+    public ResultWriter.Format getFormat() {
+	return this.format;
+    }
+
     @Option(name = "-h", aliases = { "--help" }, usage = "Display the help file.")
     private boolean help = false;
 
@@ -58,4 +71,169 @@ public class MiningOptions {
 	return this.nThreads;
     }
 
+    @Option(name = "-at", aliases = { "--acquisition-threads" },
+	    usage = "The number of threads which clone or pull repositories.")
+    private Integer nAcquisitionThreads = 4;
+
+    public Integer getNAcquisitionThreads() {
+	return this.nAcquisitionThreads;
+    }
+
+    @Option(name = "-ct", aliases = { "--commit-threads" },
+	    usage = "The number of threads shared by all projects for analyzing commits.")
+    private Integer nCommitThreads = Runtime.getRuntime().availableProcessors();
+
+    public Integer getNCommitThreads() {
+	return this.nCommitThreads;
+    }
+
+    @Option(name = "--bug-fixes-only",
+	    usage = "Only mine commits whose message labels them as bug fixes.")
+    private boolean bugFixesOnly = false;
+
+    public boolean getBugFixesOnly() {
+	return this.bugFixesOnly;
+    }
+
+    @Option(name = "-ft", aliases = { "--fetch-threads" },
+	    usage = "The number of threads per project which diff trees and read file contents.")
+    private Integer nFetchThreads = 2;
+
+    public Integer getNFetchThreads() {
+	return this.nFetchThreads;
+    }
+
+    @Option(name = "--fetch-queue-depth",
+	    usage = "The number of commits per project which may wait to be fetched.")
+    private Integer fetchQueueDepth = 16;
+
+    public Integer getFetchQueueDepth() {
+	return this.fetchQueueDepth;
+    }
+
+    @Option(name = "--analysis-queue-depth",
+	    usage = "The number of fetched commits per project which may wait to be analyzed.")
+    private Integer analysisQueueDepth = 2 * Runtime.getRuntime().availableProcessors();
+
+    public Integer getAnalysisQueueDepth() {
+	return this.analysisQueueDepth;
+    }
+
+    @Option(name = "--path-rules",
+	    usage = "The file containing the rules that select which files are mined.")
+    private String pathRules = null;
+
+    public File getPathRulesFile() {
+	return pathRules == null ? null : new File(pathRules);
+    }
+
+    @Option(name = "--checkpoint",
+	    usage = "The directory to store progress in, so that an interrupted run can be resumed.")
+    private String checkpointDir = null;
+
+    public File getCheckpointDir() {
+	return checkpointDir == null ? null : new File(checkpointDir);
+    }
+
+    @Option(name = "--watermark",
+	    usage = "The directory to store the last mined commit of each project in, so that the next run only mines newer commits. Requires --checkpoint, which records the commits mined by a run that goes over the project timeout.")
+    private String watermarkDir = null;
+
+    public File getWatermarkDir() {
+	return watermarkDir == null ? null : new File(watermarkDir);
+    }
+
+    @Option(name = "--result-cache",
+	    usage = "The directory to cache analysis results in, so that file pairs which were already analyzed are skipped.")
+    private String resultCacheDir = null;
+
+    public File getResultCacheDir() {
+	return resultCacheDir == null ? null : new File(resultCacheDir);
+    }
+
+    @Option(name = "--parse-cache",
+	    usage = "The number of characters of source code to cache parse trees for, so that a version of a file is only parsed once. Zero disables the cache.")
+    private Long parseCacheSize = 4000000L;
+
+    public Long getParseCacheSize() {
+	return this.parseCacheSize;
+    }
+
+    @Option(name = "--partition-size",
+	    usage = "The number of AST nodes above which the top-level statements of a file are matched separately.")
+    private Long partitionSize = 10000L;
+
+    public Long getPartitionSize() {
+	return this.partitionSize;
+    }
+
+    @Option(name = "--top-down-size",
+	    usage = "The number of AST nodes above which a file is only matched top-down (identical subtrees).")
+    private Long topDownSize = 100000L;
+
+    public Long getTopDownSize() {
+	return this.topDownSize;
+    }
+
+    @Option(name = "--match-timeout",
+	    usage = "The time (in milliseconds) after which the rest of a file is only matched top-down. "
+		    + "A soft limit: a matching phase which has started, or whose cost is underestimated, may overrun it.")
+    private Long matchTimeout = TieredMatcher.NO_LIMIT;
+
+    public Long getMatchTimeout() {
+	return this.matchTimeout;
+    }
+
+    @Option(name = "--fork-join",
+	    usage = "Analyze the files of a commit, and the two sides of each file, concurrently.")
+    private boolean forkJoin = false;
+
+    public boolean getForkJoin() {
+	return this.forkJoin;
+    }
+
+    @Option(name = "--file-timeout",
+	    usage = "The time (in milliseconds) after which the analysis of a file is abandoned.")
+    private Long fileTimeout = Budget.NO_LIMIT;
+
+    public Long getFileTimeout() {
+	return this.fileTimeout;
+    }
+
+    @Option(name = "--file-steps",
+	    usage = "The number of analysis steps after which the analysis of a file is abandoned.")
+    private Long fileSteps = Budget.NO_LIMIT;
+
+    public Long getFileSteps() {
+	return this.fileSteps;
+    }
+
+    @Option(name = "--commit-timeout",
+	    usage = "The time (in milliseconds) after which the analysis of a commit is abandoned.")
+    private Long commitTimeout = Budget.NO_LIMIT;
+
+    public Long getCommitTimeout() {
+	return this.commitTimeout;
+    }
+
+    @Option(name = "--project-timeout",
+	    usage = "The time (in milliseconds) after which the analysis of a project is stopped.")
+    private Long projectTimeout = 600000L;
+
+    public Long getProjectTimeout() {
+	return this.projectTimeout;
+    }
+
+    @Option(name = "--shard",
+	    usage = "Only mine the repositories in shard i/n (from 0) of the repository list. The output, source and checkpoint paths are suffixed with the shard.")
+    private String shard = null;
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the shard is not in the format i/n.
+     */
+    public Shard getShard() {
+	return shard == null ? null : Shard.parse(shard);
+    }
+
 }
\ No newline at end of file
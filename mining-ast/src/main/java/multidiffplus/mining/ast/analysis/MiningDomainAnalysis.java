@@ -5,19 +5,33 @@ import java.util.List;
 import org.mozilla.javascript.EvaluatorException;
 import org.mozilla.javascript.ast.AstNode;
 
+import multidiffplus.analysis.AnalysisResult;
 import multidiffplus.analysis.DomainAnalysis;
 import multidiffplus.cfg.CFG;
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.diff.Diff;
 import multidiffplus.diff.DiffContext;
+import multidiffplus.diff.TieredMatcher;
 import multidiffplus.factories.IASTVisitorFactory;
 import multidiffplus.factories.ICFGFactory;
+import multidiffplus.facts.Annotation;
+import multidiffplus.facts.FactContext;
+import multidiffplus.facts.MiningFactBase;
 
 /**
  * Gathers change impact facts about one source code file.
  */
 public class MiningDomainAnalysis extends DomainAnalysis {
 
+    /**
+     * The version of the analysis. Increment this when the facts produced for a
+     * file pair change, so that cached results are not reused.
+     */
+    private static final int VERSION = 3;
+
+    /** Files larger than this (usually generated code) are not analyzed. **/
+    private static final int MAX_FILE_SIZE = 1000000;
+
     public List<IASTVisitorFactory> srcVisitorFactories;
     public List<IASTVisitorFactory> dstVisitorFactories;
 
@@ -34,6 +48,8 @@ public class MiningDomainAnalysis extends DomainAnalysis {
      *
      * @param sourceCodeFileChange
      *            The source code file change information.
+     * @param facts
+     *            Stores the facts from this analysis.
      * @param preProcess
      *            Set to true to enable AST pre-processing.
      * @param srcAnalysisFactory
@@ -41,7 +57,8 @@ public class MiningDomainAnalysis extends DomainAnalysis {
      * @param dstAnalysisClass
      *            The analysis to run on the repaired file.
      */
-    protected void analyzeFile(SourceCodeFileChange sourceCodeFileChange) throws Exception {
+    protected void analyzeFile(SourceCodeFileChange sourceCodeFileChange, FactContext facts)
+	    throws Exception {
 
 	System.out.println(sourceCodeFileChange.repairedFile);
 
@@ -51,9 +68,9 @@ public class MiningDomainAnalysis extends DomainAnalysis {
 	/* Difference the files and analyze if they are an extension we handle. */
 	if (fileExtension != null && cfgFactory.acceptsExtension(fileExtension)) {
 
-	    /* Abort on large files. */
-	    if (sourceCodeFileChange.repairedCode.length() > 150000) {
-		System.err.println("File too large (> 150,000 characters)");
+	    /* Abort on very large files. */
+	    if (sourceCodeFileChange.repairedCode.length() > MAX_FILE_SIZE) {
+		System.err.println("File too large (> " + MAX_FILE_SIZE + " characters)");
 		return;
 	    }
 
@@ -66,7 +83,8 @@ public class MiningDomainAnalysis extends DomainAnalysis {
 			: new String[] { sourceCodeFileChange.buggyFile,
 				sourceCodeFileChange.repairedFile };
 		diff = new Diff(cfgFactory, args, sourceCodeFileChange.buggyCode,
-			sourceCodeFileChange.repairedCode);
+			sourceCodeFileChange.repairedCode, sourceCodeFileChange.getBuggyBlobID(),
+			sourceCodeFileChange.getRepairedBlobID());
 	    } catch (ArrayIndexOutOfBoundsException e) {
 		System.err
 			.println("ArrayIndexOutOfBoundsException: possibly caused by empty file.");
@@ -79,31 +97,69 @@ public class MiningDomainAnalysis extends DomainAnalysis {
 		throw e;
 	    }
 
+	    /* The matcher is recorded with the rows of the file. */
 	    DiffContext diffContext = diff.getContext();
-	    analyzeAST(sourceCodeFileChange, diffContext);
+	    sourceCodeFileChange.matcher = diffContext.getMatcher();
+
+	    /* Both sides are visited, so build their CFGs concurrently. */
+	    if (Diff.isForkJoin())
+		diffContext.buildCFGs();
+
+	    analyzeAST(sourceCodeFileChange, facts, diffContext);
 
 	}
 
     }
 
+    /**
+     * The id includes the visitors, since they determine which facts are mined.
+     */
+    @Override
+    protected String getAnalysisID() {
+	StringBuilder id = new StringBuilder(
+		getClass().getName() + ":" + VERSION + ":" + TieredMatcher.getPolicyID());
+	for (IASTVisitorFactory astVF : srcVisitorFactories)
+	    id.append(":src=" + astVF.getClass().getName());
+	for (IASTVisitorFactory astVF : dstVisitorFactories)
+	    id.append(":dst=" + astVF.getClass().getName());
+	return id.toString();
+    }
+
+    @Override
+    protected AnalysisResult exportResult(SourceCodeFileChange sourceCodeFileChange,
+	    FactContext facts) {
+	return new AnalysisResult(facts.getMiningFactBase(sourceCodeFileChange).getAnnotations(),
+		null, sourceCodeFileChange.matcher);
+    }
+
+    @Override
+    protected void importResult(SourceCodeFileChange sourceCodeFileChange, FactContext facts,
+	    AnalysisResult result) {
+	MiningFactBase factBase = facts.getMiningFactBase(sourceCodeFileChange);
+	sourceCodeFileChange.matcher = result.getMatcher();
+	for (Annotation annotation : result.getAnnotations())
+	    factBase.registerAnnotationFact(annotation);
+    }
+
     /**
      * Generate facts by accepting visitors to the ASTs.
      */
-    private void analyzeAST(SourceCodeFileChange sourceCodeFileChange, DiffContext diffContext) {
+    private void analyzeAST(SourceCodeFileChange sourceCodeFileChange, FactContext facts,
+	    DiffContext diffContext) {
 
 	/* Generate facts by analyzing the source functions. */
-	for (CFG cfg : diffContext.srcCFGs.getCfgs()) {
+	for (CFG cfg : diffContext.getSrcCFGs().getCfgs()) {
 	    for (IASTVisitorFactory astVF : srcVisitorFactories) {
 		AstNode root = (AstNode) cfg.getEntryNode().getStatement();
-		root.visit(astVF.newInstance(sourceCodeFileChange, root));
+		root.visit(astVF.newInstance(sourceCodeFileChange, facts, root));
 	    }
 	}
 
 	/* Generate facts by analyzing the destination functions. */
-	for (CFG cfg : diffContext.dstCFGs.getCfgs()) {
+	for (CFG cfg : diffContext.getDstCFGs().getCfgs()) {
 	    for (IASTVisitorFactory astVF : dstVisitorFactories) {
 		AstNode root = (AstNode) cfg.getEntryNode().getStatement();
-		root.visit(astVF.newInstance(sourceCodeFileChange, root));
+		root.visit(astVF.newInstance(sourceCodeFileChange, facts, root));
 	    }
 	}
 
@@ -6,6 +6,7 @@ import org.mozilla.javascript.ast.NodeVisitor;
 
 import ca.ubc.ece.salt.gumtree.ast.ClassifiedASTNode.ChangeType;
 import multidiffplus.commit.SourceCodeFileChange;
+import multidiffplus.facts.FactContext;
 import multidiffplus.facts.MiningFactBase;
 
 /**
@@ -22,9 +23,10 @@ public class ModifiedStatementASTAnalysis implements NodeVisitor {
 	/**
 	 * @param sourceCodeFileChange used to look up the correct dataset for
 	 * storing facts.
+	 * @param facts The database of facts for the commit.
 	 */
-	public ModifiedStatementASTAnalysis(SourceCodeFileChange sourceCodeFileChange, AstNode root) {
-		this.factBase = MiningFactBase.getInstance(sourceCodeFileChange);
+	public ModifiedStatementASTAnalysis(SourceCodeFileChange sourceCodeFileChange, FactContext facts, AstNode root) {
+		this.factBase = facts.getMiningFactBase(sourceCodeFileChange);
 		this.root = root;
 	}
 
@@ -14,6 +14,7 @@ import ca.ubc.ece.salt.gumtree.ast.ClassifiedASTNode.ChangeType;
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.facts.Annotation;
 import multidiffplus.facts.AnnotationFactBase;
+import multidiffplus.facts.FactContext;
 
 /**
  * Search for the repair pattern where a JSON object is incorrectly passed as an
@@ -38,9 +39,12 @@ public class AjaxDataASTAnalysis implements NodeVisitor {
     /**
      * @param sourceCodeFileChange
      *            used to look up the correct dataset for storing facts.
+     * @param facts
+     *            The database of facts for the commit.
      */
-    public AjaxDataASTAnalysis(SourceCodeFileChange sourceCodeFileChange, AstNode root) {
-	this.factBase = AnnotationFactBase.getInstance(sourceCodeFileChange);
+    public AjaxDataASTAnalysis(SourceCodeFileChange sourceCodeFileChange, FactContext facts,
+	    AstNode root) {
+	this.factBase = facts.getAnnotationFactBase(sourceCodeFileChange);
 	this.root = root;
     }
 
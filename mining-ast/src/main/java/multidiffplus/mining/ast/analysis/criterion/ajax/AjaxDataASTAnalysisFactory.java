@@ -5,12 +5,14 @@ import org.mozilla.javascript.ast.NodeVisitor;
 
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.factories.IASTVisitorFactory;
+import multidiffplus.facts.FactContext;
 
 public class AjaxDataASTAnalysisFactory implements IASTVisitorFactory {
 
     @Override
-    public NodeVisitor newInstance(SourceCodeFileChange sourceCodeFileChange, AstNode root) {
-	return new AjaxDataASTAnalysis(sourceCodeFileChange, root);
+    public NodeVisitor newInstance(SourceCodeFileChange sourceCodeFileChange, FactContext facts,
+	    AstNode root) {
+	return new AjaxDataASTAnalysis(sourceCodeFileChange, facts, root);
     }
 
 }
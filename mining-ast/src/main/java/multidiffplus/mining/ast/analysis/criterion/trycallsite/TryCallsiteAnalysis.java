@@ -10,6 +10,7 @@ import org.mozilla.javascript.ast.NodeVisitor;
 import ca.ubc.ece.salt.gumtree.ast.ClassifiedASTNode.ChangeType;
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.facts.Annotation;
+import multidiffplus.facts.FactContext;
 import multidiffplus.facts.MiningFactBase;
 
 /**
@@ -27,9 +28,12 @@ public class TryCallsiteAnalysis implements NodeVisitor {
     /**
      * @param sourceCodeFileChange
      *            used to look up the correct dataset for storing facts.
+     * @param facts
+     *            The database of facts for the commit.
      */
-    public TryCallsiteAnalysis(SourceCodeFileChange sourceCodeFileChange, AstNode root) {
-	this.factBase = MiningFactBase.getInstance(sourceCodeFileChange);
+    public TryCallsiteAnalysis(SourceCodeFileChange sourceCodeFileChange, FactContext facts,
+	    AstNode root) {
+	this.factBase = facts.getMiningFactBase(sourceCodeFileChange);
 	this.root = root;
 
 	/* Record that TryCallsiteAnalysis was performed on the file. */
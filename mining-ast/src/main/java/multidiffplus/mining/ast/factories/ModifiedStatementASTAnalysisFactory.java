@@ -5,13 +5,14 @@ import org.mozilla.javascript.ast.NodeVisitor;
 
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.factories.IASTVisitorFactory;
+import multidiffplus.facts.FactContext;
 import multidiffplus.mining.ast.analysis.ModifiedStatementASTAnalysis;
 
 public class ModifiedStatementASTAnalysisFactory implements IASTVisitorFactory {
 
 	@Override
-	public NodeVisitor newInstance(SourceCodeFileChange sourceCodeFileChange, AstNode root) {
-		return new ModifiedStatementASTAnalysis(sourceCodeFileChange, root);
+	public NodeVisitor newInstance(SourceCodeFileChange sourceCodeFileChange, FactContext facts, AstNode root) {
+		return new ModifiedStatementASTAnalysis(sourceCodeFileChange, facts, root);
 	}
 
 }
@@ -14,6 +14,7 @@ import multidiffplus.commit.Commit.Type;
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.factories.ICommitAnalysisFactory;
 import multidiffplus.facts.Annotation;
+import multidiffplus.facts.FactContext;
 import multidiffplus.facts.MiningFactBase;
 import multidiffplus.mining.ast.factories.MiningCommitAnalysisFactory;
 
@@ -32,14 +33,15 @@ public class TryCallsiteTests {
 	commit.addSourceCodeFileChange(sourceCodeFileChange);
 
 	/* Builds the data set with our custom queries. */
-	MiningFactBase factBase = MiningFactBase.getInstance(sourceCodeFileChange);
+	FactContext facts = new FactContext();
+	MiningFactBase factBase = facts.getMiningFactBase(sourceCodeFileChange);
 
 	/* Set up the analysis. */
 	ICommitAnalysisFactory commitFactory = new MiningCommitAnalysisFactory();
 	CommitAnalysis commitAnalysis = commitFactory.newInstance();
 
 	/* Run the analysis. */
-	commitAnalysis.analyze(commit);
+	commitAnalysis.analyze(commit, facts);
 
 	/* Print the data set. */
 	factBase.printDataSet();
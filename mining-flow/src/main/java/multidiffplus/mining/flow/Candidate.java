@@ -1,6 +1,5 @@
 package multidiffplus.mining.flow;
 
-import java.io.File;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -24,19 +23,23 @@ public class Candidate {
     /** The path to the file in the project. */
     private String file;
 
-    /** The local address of the pre-commit file. */
-    private File oldFile;
+    /**
+     * The snapshot of the pre-commit file (its git blob ID in the snapshot store,
+     * or the name of a file in the source directory).
+     */
+    private String oldSource;
 
-    /** The local address of the post-commit file. */
-    private File newFile;
+    /** The snapshot of the post-commit file. */
+    private String newSource;
 
-    public Candidate(String uri, int timestamp, String file, File oldFile, File newFile) {
+    public Candidate(String uri, int timestamp, String file, String oldSource,
+	    String newSource) {
 
 	this.uri = uri;
 	this.timestamp = timestamp;
 	this.file = file;
-	this.oldFile = oldFile;
-	this.newFile = newFile;
+	this.oldSource = oldSource;
+	this.newSource = newSource;
 
 	/* Extract the project ID and commit ID from the URL. */
 
@@ -73,12 +76,12 @@ public class Candidate {
 	return file;
     }
 
-    public File getOldFile() {
-	return oldFile;
+    public String getOldSource() {
+	return oldSource;
     }
 
-    public File getNewFile() {
-	return newFile;
+    public String getNewSource() {
+	return newSource;
     }
 
     public int getTimestamp() {
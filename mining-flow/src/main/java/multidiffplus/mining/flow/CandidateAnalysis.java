@@ -1,44 +1,88 @@
 package multidiffplus.mining.flow;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
 
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
 import multidiff.js.factories.ChangeImpactCommitAnalysisFactory;
+import multidiffplus.batch.Checkpoint;
+import multidiffplus.batch.ResultWriter;
+import multidiffplus.batch.SnapshotStore;
 import multidiffplus.analysis.CommitAnalysis;
 import multidiffplus.commit.Commit;
 import multidiffplus.commit.Commit.Type;
 import multidiffplus.commit.SourceCodeFileChange;
 import multidiffplus.factories.ICommitAnalysisFactory;
-import multidiffplus.facts.AnnotationFactBase;
-import multidiffplus.facts.JsonFactBase;
+import multidiffplus.facts.FactContext;
 
 /**
  * Analyzes a candidate file change (thread safe).
  */
 public class CandidateAnalysis {
 
+    /** Serializes the data set (thread safe). **/
+    private static final Gson gson = new GsonBuilder().serializeNulls().create();
+
     private Candidate candidate;
+    private File sourceDir;
     private File jsonFile;
 
-    public CandidateAnalysis(Candidate candidate, File jsonFile) {
+    /** The progress of the run (if null, progress is not saved). **/
+    private Checkpoint checkpoint;
+
+    public CandidateAnalysis(Candidate candidate, File sourceDir, File jsonFile) {
+	this(candidate, sourceDir, jsonFile, null);
+    }
+
+    /**
+     * @param sourceDir
+     *            The directory containing the snapshot store (or, for data sets
+     *            mined before the store, the source files).
+     */
+    public CandidateAnalysis(Candidate candidate, File sourceDir, File jsonFile,
+	    Checkpoint checkpoint) {
 	this.candidate = candidate;
+	this.sourceDir = sourceDir;
 	this.jsonFile = jsonFile;
+	this.checkpoint = checkpoint;
     }
 
     public void analyze() throws Exception {
+	try {
+	    runAnalysis();
+	} catch (Exception | Error e) {
+	    /* Do not analyze this candidate again when the run is resumed. */
+	    if (checkpoint != null)
+		checkpoint.quarantine(getCheckpointKey(candidate), null, e.toString());
+	    throw e;
+	}
+    }
+
+    private void runAnalysis() throws Exception {
+	/* We are done with the facts once the candidate is written. */
+	try (FactContext facts = new FactContext()) {
+	    runAnalysis(facts);
+	}
+    }
 
-	System.out.println(candidate.getNewFile().getAbsolutePath());
+    private void runAnalysis(FactContext facts) throws Exception {
+
+	System.out.println(candidate.getURI() + " " + candidate.getNewSource());
 
 	/* Read the source files. */
-	SourceCodeFileChange sourceCodeFileChange = getSourceCodeFileChange(candidate.getFile(),
-		candidate.getOldFile(), candidate.getNewFile());
+	SourceCodeFileChange sourceCodeFileChange = getSourceCodeFileChange();
 
 	/* Build the dummy commit. */
 	Commit commit = getCommit(candidate.getProject(), candidate.getURI(),
@@ -50,24 +94,41 @@ public class CandidateAnalysis {
 	CommitAnalysis commitAnalysis = commitFactory.newInstance();
 
 	/* Run the analysis. */
-	commitAnalysis.analyze(commit);
-
-	/* Get the Esprima JSON object. */
-	JsonFactBase jsonFactBase = JsonFactBase.getInstance(sourceCodeFileChange);
-	JsonObject json = jsonFactBase.getJson();
+	commitAnalysis.analyze(commit, facts);
 
-	/* Add the commit information to the JSON object. */
-	json.addProperty("url", commit.url);
-	json.addProperty("projectID", commit.projectID);
-	json.addProperty("commitID", commit.repairedCommitID);
-	json.addProperty("fileName", sourceCodeFileChange.getFileName());
-
-	/* Write the data set to the json output file. */
-	flushToFile(json, jsonFile);
+	/* The file used up its budget, so its facts are incomplete. */
+	if (sourceCodeFileChange.abandonedReason != null) {
+	    if (checkpoint != null)
+		checkpoint.quarantine(getCheckpointKey(candidate), null,
+			"TIMEOUT " + sourceCodeFileChange.abandonedReason);
+	    return;
+	}
 
-	/* We are done with the factbases and can recover the memory. */
-	AnnotationFactBase.removeInstance(sourceCodeFileChange);
-	JsonFactBase.removeInstance(sourceCodeFileChange);
+	/* Get the Esprima JSON object. */
+	JsonObject json = facts.getJsonFactBase(sourceCodeFileChange).getJson();
+	if (json == null)
+	    throw new IllegalStateException("No JSON was produced for " + sourceCodeFileChange);
+
+	/* The commit information is added to the JSON object as it is written. */
+	Map<String, String> properties = new LinkedHashMap<String, String>();
+	properties.put("url", commit.url);
+	properties.put("projectID", commit.projectID);
+	properties.put("commitID", commit.repairedCommitID);
+	properties.put("fileName", sourceCodeFileChange.getFileName());
+	properties.put("matcher", sourceCodeFileChange.matcher);
+
+	/*
+	 * Hand the data set to the writer of the json output file. The checkpoint is
+	 * marked once the line is on disk, so that the recorded offset covers exactly
+	 * the candidates which are marked as done.
+	 */
+	if (jsonFile != null)
+	    ResultWriter.forFile(jsonFile)
+		    .write(new ResultWriter.Record(
+			    Collections.singletonList(new JsonLine(json, properties)), checkpoint,
+			    getCheckpointKey(candidate)));
+	else if (checkpoint != null)
+	    checkpoint.markDone(getCheckpointKey(candidate), 0);
 
     }
 
@@ -78,6 +139,13 @@ public class CandidateAnalysis {
 	return candidate;
     }
 
+    /**
+     * @return The key which identifies the candidate in a checkpoint.
+     */
+    public static String getCheckpointKey(Candidate candidate) {
+	return candidate.getURI() + "," + candidate.getFile();
+    }
+
     /**
      * @return Create a dummy commit
      */
@@ -86,34 +154,70 @@ public class CandidateAnalysis {
     }
 
     /**
-     * ;
+     * Reads the snapshots from the store (memory-mapped), or from the source
+     * directory for data sets mined before the store.
      * 
      * @return Create a dummy source code file change.
      */
-    private static SourceCodeFileChange getSourceCodeFileChange(String file, File srcFile,
-	    File dstFile) throws IOException {
-	String buggyCode = FileUtils.readFileToString(srcFile);
-	String repairedCode = FileUtils.readFileToString(dstFile);
+    private SourceCodeFileChange getSourceCodeFileChange() throws IOException {
+	String file = candidate.getFile();
+
+	if (new File(sourceDir, SnapshotStore.INDEX).exists()) {
+	    SnapshotStore snapshots = SnapshotStore.open(sourceDir);
+	    String buggyCode = snapshots.get(candidate.getOldSource());
+	    String repairedCode = snapshots.get(candidate.getNewSource());
+	    if (buggyCode != null && repairedCode != null) {
+		SourceCodeFileChange sourceCodeFileChange = new SourceCodeFileChange(file, file,
+			buggyCode, repairedCode);
+		/* The snapshots are keyed by their blob IDs. */
+		sourceCodeFileChange.setBlobIDs(candidate.getOldSource(),
+			candidate.getNewSource());
+		return sourceCodeFileChange;
+	    }
+	}
+
+	String buggyCode = FileUtils
+		.readFileToString(new File(sourceDir, candidate.getOldSource()));
+	String repairedCode = FileUtils
+		.readFileToString(new File(sourceDir, candidate.getNewSource()));
 	return new SourceCodeFileChange(file, file, buggyCode, repairedCode);
     }
 
     /**
-     * Appends JSON to a file for persistent storage.
-     * 
-     * @throws IOException
-     *             if a path does not exist.
+     * A line of the data set, which is streamed into the output file by the
+     * writer instead of being converted to a string.
      */
-    private static synchronized void flushToFile(JsonObject json, File jsonFile)
-	    throws IOException {
+    private static class JsonLine implements ResultWriter.Line {
 
-	if (jsonFile == null)
-	    return;
+	/** The Esprima JSON object. **/
+	private JsonObject json;
+
+	/** The commit information, which is appended to the object. **/
+	private Map<String, String> properties;
 
-	jsonFile.getParentFile().mkdirs();
-	jsonFile.createNewFile();
+	JsonLine(JsonObject json, Map<String, String> properties) {
+	    this.json = json;
+	    this.properties = properties;
+	}
 
-	try (PrintStream stream = new PrintStream(new FileOutputStream(jsonFile, true))) {
-	    stream.println(new GsonBuilder().serializeNulls().create().toJson(json));
+	@Override
+	public void writeTo(Writer out) throws IOException {
+	    /* The writer is not closed, since that would close the output file. */
+	    JsonWriter writer = gson.newJsonWriter(out);
+	    try {
+		writer.beginObject();
+		for (Map.Entry<String, JsonElement> member : json.entrySet()) {
+		    if (properties.containsKey(member.getKey()))
+			continue;
+		    writer.name(member.getKey());
+		    gson.toJson(member.getValue(), writer);
+		}
+		for (Map.Entry<String, String> property : properties.entrySet())
+		    writer.name(property.getKey()).value(property.getValue());
+		writer.endObject();
+	    } catch (JsonIOException e) {
+		throw new IOException(e.getMessage(), e.getCause());
+	    }
 	}
 
     }
@@ -1,41 +1,63 @@
 package multidiffplus.mining.flow;
 
+import java.io.File;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import multidiffplus.batch.Checkpoint;
+
 /**
- * TaskRunner wrapper for CandidateAnalysis. Initially CandidateAnalysis would
- * implement Callable itself, but because of the use of a latch, a new class was
- * created.
+ * TaskRunner wrapper for CandidateAnalysis. Analyzes a group of candidates
+ * which change the same file, one after the other. The analyses are only
+ * created when the task runs, so queued tasks hold nothing but their
+ * candidates.
  */
 public class CandidateAnalysisTask implements Callable<Void> {
 
     protected final Logger logger = LogManager.getLogger(CandidateAnalysisTask.class);
 
-    private CandidateAnalysis candidateAnalysis;
-    private CountDownLatch latch;
+    /** The number of candidates analyzed by all tasks. **/
+    private static final AtomicLong finished = new AtomicLong();
+
+    private List<Candidate> candidates;
+    private File sourceDir;
+    private File jsonFile;
+    private Checkpoint checkpoint;
+
+    /** Released when the task is done, so another task can be queued. **/
+    private Semaphore slots;
 
-    public CandidateAnalysisTask(CandidateAnalysis candidateAnalysis, CountDownLatch latch) {
-	this.candidateAnalysis = candidateAnalysis;
-	this.latch = latch;
+    public CandidateAnalysisTask(List<Candidate> candidates, File sourceDir, File jsonFile,
+	    Checkpoint checkpoint, Semaphore slots) {
+	this.candidates = candidates;
+	this.sourceDir = sourceDir;
+	this.jsonFile = jsonFile;
+	this.checkpoint = checkpoint;
+	this.slots = slots;
     }
 
     @Override
     public Void call() throws Exception {
 
 	try {
-	    candidateAnalysis.analyze();
-	} catch (Exception e) {
-	    Candidate candidate = candidateAnalysis.getCandidate();
-	    System.err
-		    .println("[ERR] Exception on GitProjectAnalysisTask " + candidate.getNewFile());
-	    e.printStackTrace();
+	    for (Candidate candidate : candidates) {
+		try {
+		    new CandidateAnalysis(candidate, sourceDir, jsonFile, checkpoint).analyze();
+		} catch (Exception e) {
+		    System.err.println(
+			    "[ERR] Exception on CandidateAnalysisTask " + candidate.getNewSource());
+		    e.printStackTrace();
+		}
+	    }
 	} finally {
-	    logger.info(" [TASK FINALIZED] {} tasks left", latch.getCount());
-	    latch.countDown();
+	    slots.release();
+	    logger.info(" [TASK FINALIZED] {} candidates finished",
+		    finished.addAndGet(candidates.size()));
 	}
 
 	return null;
@@ -0,0 +1,163 @@
+package multidiffplus.mining.flow;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import multidiffplus.batch.BloomFilter;
+import multidiffplus.batch.Shard;
+
+/**
+ * Reads the candidates in a CSV file as they are needed, so that the memory used
+ * does not grow with the size of the file.
+ *
+ * The same candidate appears once for each label of its file change, so
+ * duplicates are removed with a {@link BloomFilter}. Its memory is fixed, but a
+ * candidate which is a false positive is skipped; the filter is sized so this is
+ * rare.
+ *
+ * Candidates are returned in groups which change the same file, so that related
+ * candidates are analyzed together. Groups are formed within a window of
+ * buffered candidates, and are returned in the order they were started.
+ */
+public class CandidateReader implements Closeable {
+
+    /** The default number of candidates which are buffered to form groups. **/
+    public static final int WINDOW = 4096;
+
+    /** The false positive rate of the filter which removes duplicates. **/
+    public static final double FALSE_POSITIVE_RATE = 1e-6;
+
+    private BufferedReader reader;
+
+    /** The candidates which have been read. **/
+    private BloomFilter seen;
+
+    /** The number of candidates which are buffered to form groups. **/
+    private int window;
+
+    /** Only candidates in this shard are read (if null, all candidates are read). **/
+    private Shard shard;
+
+    /** The groups which have not been returned, by file. **/
+    private LinkedHashMap<String, List<Candidate>> groups;
+
+    /** The number of candidates in the groups. **/
+    private int buffered;
+
+    private long lines;
+    private long duplicates;
+
+    /**
+     * @param csv
+     *            The candidates file.
+     * @param expected
+     *            The expected number of distinct candidates, which sizes the filter
+     *            that removes duplicates.
+     * @param window
+     *            The number of candidates which are buffered to form groups.
+     */
+    public CandidateReader(File csv, long expected, int window) throws IOException {
+	this.reader = Files.newBufferedReader(csv.toPath(), StandardCharsets.UTF_8);
+	this.seen = new BloomFilter(expected, FALSE_POSITIVE_RATE);
+	this.window = Math.max(1, window);
+	this.groups = new LinkedHashMap<String, List<Candidate>>();
+    }
+
+    /**
+     * Only reads the candidates in the shard.
+     */
+    public void setShard(Shard shard) {
+	this.shard = shard;
+    }
+
+    /**
+     * @return The next group of candidates, which change the same file, or
+     *         {@code null} if all the candidates have been read.
+     */
+    public List<Candidate> next() throws IOException {
+	while (buffered < window) {
+	    String line = reader.readLine();
+	    if (line == null)
+		break;
+	    lines++;
+	    if (line.isEmpty())
+		continue;
+
+	    Candidate candidate;
+	    try {
+		candidate = parse(line);
+	    } catch (IllegalArgumentException e) {
+		System.err.println("Line " + lines + " of the candidate file: " + e.getMessage());
+		continue;
+	    }
+
+	    String file = getFileKey(candidate);
+	    if (shard != null && !shard.contains(file))
+		continue;
+
+	    /*
+	     * Add the candidate if it is is not already in the candidate set (we will
+	     * re-generate labels for each interesting change).
+	     */
+	    if (!seen.add(candidate.getURI() + "," + candidate.getFile())) {
+		duplicates++;
+		continue;
+	    }
+
+	    groups.computeIfAbsent(file, k -> new ArrayList<Candidate>()).add(candidate);
+	    buffered++;
+	}
+
+	Iterator<Map.Entry<String, List<Candidate>>> eldest = groups.entrySet().iterator();
+	if (!eldest.hasNext())
+	    return null;
+	List<Candidate> group = eldest.next().getValue();
+	eldest.remove();
+	buffered -= group.size();
+	return group;
+    }
+
+    /**
+     * @return The number of duplicate candidates which were skipped.
+     */
+    public long getDuplicates() {
+	return duplicates;
+    }
+
+    @Override
+    public void close() throws IOException {
+	reader.close();
+    }
+
+    /**
+     * @return The file changed by the candidate, which assigns it to a group and
+     *         to a shard.
+     */
+    public static String getFileKey(Candidate candidate) {
+	return candidate.getProject() + "/" + candidate.getFile();
+    }
+
+    /**
+     * Parses a line of the candidates file.
+     *
+     * @throws IllegalArgumentException
+     *             if the line is not in the format of the candidates file.
+     */
+    private static Candidate parse(String line) {
+	String[] values = line.split(",");
+	if (values.length < 5)
+	    throw new IllegalArgumentException("Expected at least 5 columns: " + line);
+	return new Candidate(values[0], Integer.parseInt(values[1]), values[2], values[3],
+		values[4]);
+    }
+
+}
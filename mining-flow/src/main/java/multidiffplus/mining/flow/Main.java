@@ -1,21 +1,29 @@
 package multidiffplus.mining.flow;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.CountDownLatch;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 
+import multidiffplus.analysis.AnalysisResultCache;
+import multidiffplus.analysis.Budget;
+import multidiffplus.analysis.DomainAnalysis;
+import multidiffplus.batch.Checkpoint;
+import multidiffplus.batch.ResultWriter;
+import multidiffplus.batch.Shard;
+import multidiffplus.batch.SnapshotStore;
+import multidiffplus.diff.Diff;
+import multidiffplus.diff.ParseTreeCache;
+import multidiffplus.diff.TieredMatcher;
+
 public class Main {
 
     protected static final Logger logger = LogManager.getLogger(Main.class);
@@ -44,74 +52,133 @@ public class Main {
 	    return;
 	}
 
-	/* Parse the file into a list of file pairs. */
-	Set<Candidate> candidates = new HashSet<Candidate>();
+	/*
+	 * Mine one shard of the candidates. The shard writes its own part of the output
+	 * and checkpoints, so shards on different machines only share the file system.
+	 * The parts are combined by ShardMerger.
+	 */
+	Shard shard;
+	try {
+	    shard = options.getShard();
+	} catch (IllegalArgumentException e) {
+	    Main.printUsage(e.getMessage(), parser);
+	    return;
+	}
+	File outFile = part(shard, options.getOutFile());
+	File checkpointDir = part(shard, options.getCheckpointDir());
+
+	/* Reuse the results of file pairs which have already been analyzed. */
+	if (options.getResultCacheDir() != null)
+	    AnalysisResultCache.createInstance(options.getResultCacheDir());
 
-	try (BufferedReader br = new BufferedReader(new FileReader(options.getCandidatesFile()))) {
-	    for (String line; (line = br.readLine()) != null;) {
+	/* Parse each version of a file once, since consecutive commits share them. */
+	if (options.getParseCacheSize() > 0)
+	    ParseTreeCache.createInstance(options.getParseCacheSize());
 
-		System.out.println(line);
-		;
+	/* Abandon files which take too long. */
+	Budget.setLimits(Budget.Level.FILE, options.getFileTimeout(), options.getFileSteps());
 
-		/* Parse the line into a Candidate object. */
-		String[] values = line.split(",");
-		Candidate candidate = new Candidate(values[0], Integer.parseInt(values[1]),
-			values[2], new File(options.getSourceDir(), values[3]),
-			new File(options.getSourceDir(), values[4]));
+	/* Bound the cost of matching large files. */
+	TieredMatcher.setPolicy(options.getPartitionSize(), options.getTopDownSize(),
+		options.getMatchTimeout());
 
-		/*
-		 * Add the candidate if it is is not already in the candidate set (we will
-		 * re-generate labels for each interesting change).
-		 */
-		candidates.add(candidate);
+	/* Parse the two sides of each candidate's diff concurrently. */
+	DomainAnalysis.setForkJoin(options.getForkJoin());
+	Diff.setForkJoin(options.getForkJoin());
 
+	/*
+	 * Resume from where a previous run left off. Results written after the last
+	 * checkpoint are discarded so they are not duplicated.
+	 */
+	Checkpoint checkpoint = null;
+	if (checkpointDir != null) {
+	    try {
+		if (outFile != null)
+		    Checkpoint.recoverOutput(checkpointDir, outFile);
+		checkpoint = Checkpoint.open(checkpointDir, "candidates");
+	    } catch (IOException e) {
+		System.err.println("Error while recovering from checkpoint: " + e.getMessage());
+		return;
 	    }
-	} catch (FileNotFoundException e) {
-	    System.err.println(
-		    "FileNotFoundException while reading candidate file: " + e.getMessage());
-	    e.printStackTrace();
-	} catch (IOException e) {
-	    System.err.println("IOException while reading candidate file: " + e.getMessage());
-	    e.printStackTrace();
 	}
 
 	/*
-	 * Create a pool of threads and use a CountDownLatch to check when all threads
-	 * are done.
+	 * Candidates are read as they are needed, in groups which change the same
+	 * file. The number of groups waiting for a thread is bounded, so reading blocks
+	 * while the threads catch up and the candidates are never all in memory.
 	 */
 	ExecutorService executor = Executors.newFixedThreadPool(options.getNThreads());
-	CountDownLatch latch = new CountDownLatch(candidates.size());
+	Semaphore slots = new Semaphore(options.getNThreads() + options.getQueueDepth());
 
-	/* Analyze all projects. */
-	for (Candidate candidate : candidates) {
+	try (CandidateReader reader = new CandidateReader(options.getCandidatesFile(),
+		options.getExpectedCandidates(), CandidateReader.WINDOW)) {
+
+	    /* Leave the candidates of the other shards to their own runs. */
+	    reader.setShard(shard);
+
+	    for (List<Candidate> group; (group = reader.next()) != null;) {
+
+		/* Skip candidates which were finished or quarantined by a previous run. */
+		if (checkpoint != null) {
+		    Checkpoint progress = checkpoint;
+		    group.removeIf(candidate -> {
+			String key = CandidateAnalysis.getCheckpointKey(candidate);
+			return progress.isDone(key) || progress.isQuarantined(key);
+		    });
+		}
+		if (group.isEmpty())
+		    continue;
 
-	    try {
 		/* Perform the analysis (this may take some time) */
-		CandidateAnalysis candidateAnalysis = new CandidateAnalysis(candidate,
-			options.getOutFile());
-		executor.submit(new CandidateAnalysisTask(candidateAnalysis, latch));
-	    } catch (Exception e) {
-		e.printStackTrace(System.err);
-		logger.error("[IMPORTANT] Project " + candidate.getURI() + "/" + candidate.getFile()
-			+ " threw an exception");
-		logger.error(e);
-		continue;
+		slots.acquire();
+		executor.submit(new CandidateAnalysisTask(group, options.getSourceDir(), outFile,
+			checkpoint, slots));
+
 	    }
 
+	    System.out.println("Skipped " + reader.getDuplicates() + " duplicate candidates.");
+	} catch (IOException e) {
+	    System.err.println("IOException while reading candidate file: " + e.getMessage());
+	    e.printStackTrace();
+	} catch (InterruptedException e) {
+	    e.printStackTrace();
 	}
 
 	/* Wait for all threads to finish their work */
 	try {
-	    latch.await();
 	    executor.shutdown();
+	    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
 	    System.out.println("All threads finished!");
 	} catch (InterruptedException e) {
 	    e.printStackTrace();
 	    return;
+	} finally {
+	    /* Write the remaining results before the checkpoint is closed. */
+	    try {
+		ResultWriter.closeAll();
+		SnapshotStore.closeAll();
+	    } catch (IOException | InterruptedException e) {
+		e.printStackTrace();
+	    }
+	    if (checkpoint != null) {
+		try {
+		    checkpoint.close();
+		} catch (IOException e) {
+		    e.printStackTrace();
+		}
+	    }
 	}
 
     }
 
+    /**
+     * @return The part of the file (or directory) which the shard writes, or the
+     *         file itself if the candidates are not sharded.
+     */
+    private static File part(Shard shard, File file) {
+	return shard == null || file == null ? file : shard.part(file);
+    }
+
     /**
      * Prints the help file for main.
      * 
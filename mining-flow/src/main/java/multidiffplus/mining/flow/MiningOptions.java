@@ -4,6 +4,10 @@ import java.io.File;
 
 import org.kohsuke.args4j.Option;
 
+import multidiffplus.analysis.Budget;
+import multidiffplus.batch.Shard;
+import multidiffplus.diff.TieredMatcher;
+
 public class MiningOptions {
 
     @Option(name = "--help", usage = "Display the help file.")
@@ -42,4 +46,105 @@ public class MiningOptions {
 	return this.nThreads;
     }
 
+    @Option(name = "--queue-depth",
+	    usage = "The number of groups of candidates which may wait for a thread.")
+    private Integer queueDepth = 16;
+
+    public Integer getQueueDepth() {
+	return this.queueDepth;
+    }
+
+    @Option(name = "--expected-candidates",
+	    usage = "The expected number of distinct candidates, which sizes the filter that removes duplicates.")
+    private Long expectedCandidates = 10000000L;
+
+    public Long getExpectedCandidates() {
+	return this.expectedCandidates;
+    }
+
+    @Option(name = "--checkpoint",
+	    usage = "The directory to store progress in, so that an interrupted run can be resumed.")
+    private String checkpointDir = null;
+
+    public File getCheckpointDir() {
+	return checkpointDir == null ? null : new File(checkpointDir);
+    }
+
+    @Option(name = "--result-cache",
+	    usage = "The directory to cache analysis results in, so that file pairs which were already analyzed are skipped.")
+    private String resultCacheDir = null;
+
+    public File getResultCacheDir() {
+	return resultCacheDir == null ? null : new File(resultCacheDir);
+    }
+
+    @Option(name = "--parse-cache",
+	    usage = "The number of characters of source code to cache parse trees for, so that a version of a file is only parsed once. Zero disables the cache.")
+    private Long parseCacheSize = 4000000L;
+
+    public Long getParseCacheSize() {
+	return this.parseCacheSize;
+    }
+
+    @Option(name = "--partition-size",
+	    usage = "The number of AST nodes above which the top-level statements of a file are matched separately.")
+    private Long partitionSize = 10000L;
+
+    public Long getPartitionSize() {
+	return this.partitionSize;
+    }
+
+    @Option(name = "--top-down-size",
+	    usage = "The number of AST nodes above which a file is only matched top-down (identical subtrees).")
+    private Long topDownSize = 100000L;
+
+    public Long getTopDownSize() {
+	return this.topDownSize;
+    }
+
+    @Option(name = "--match-timeout",
+	    usage = "The time (in milliseconds) after which the rest of a file is only matched top-down. "
+		    + "A soft limit: a matching phase which has started, or whose cost is underestimated, may overrun it.")
+    private Long matchTimeout = TieredMatcher.NO_LIMIT;
+
+    public Long getMatchTimeout() {
+	return this.matchTimeout;
+    }
+
+    @Option(name = "--fork-join",
+	    usage = "Parse the two sides of each file concurrently.")
+    private boolean forkJoin = false;
+
+    public boolean getForkJoin() {
+	return this.forkJoin;
+    }
+
+    @Option(name = "--file-timeout",
+	    usage = "The time (in milliseconds) after which the analysis of a file is abandoned.")
+    private Long fileTimeout = Budget.NO_LIMIT;
+
+    public Long getFileTimeout() {
+	return this.fileTimeout;
+    }
+
+    @Option(name = "--file-steps",
+	    usage = "The number of analysis steps after which the analysis of a file is abandoned.")
+    private Long fileSteps = Budget.NO_LIMIT;
+
+    public Long getFileSteps() {
+	return this.fileSteps;
+    }
+
+    @Option(name = "--shard",
+	    usage = "Only mine the candidates in shard i/n (from 0) of the candidate file. The output and checkpoint paths are suffixed with the shard.")
+    private String shard = null;
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the shard is not in the format i/n.
+     */
+    public Shard getShard() {
+	return shard == null ? null : Shard.parse(shard);
+    }
+
 }
\ No newline at end of file